@@ -0,0 +1,8 @@
+-- Flash promotion product each flash order was placed on, so cancelling the order can give its stock back
+CREATE TABLE `oms_flash_order_relation` (
+  `order_id` bigint NOT NULL,
+  `relation_id` bigint NOT NULL COMMENT 'sms_flash_promotion_product_relation id',
+  `member_id` bigint NOT NULL,
+  `quantity` int NOT NULL,
+  PRIMARY KEY (`order_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='flash promotion product of flash orders';
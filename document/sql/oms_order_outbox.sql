@@ -0,0 +1,12 @@
+-- Order events written in the transaction that creates the order and published to RabbitMQ by the outbox relay
+CREATE TABLE `oms_order_outbox` (
+  `id` bigint NOT NULL AUTO_INCREMENT,
+  `order_id` bigint NOT NULL,
+  `event_type` varchar(32) NOT NULL,
+  `payload` varchar(2000) NOT NULL COMMENT 'event payload in JSON',
+  `status` int NOT NULL DEFAULT 0 COMMENT '0->pending; 1->published; 2->handled',
+  `create_time` datetime NOT NULL,
+  `publish_time` datetime DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  KEY `idx_status_id` (`status`, `id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='order event outbox';
@@ -0,0 +1,4 @@
+-- Indexes serving the keyset pagination of the home brand, new product and hot product lists
+ALTER TABLE `sms_home_brand` ADD KEY `idx_recommend_sort_id` (`recommend_status`, `sort`, `id`);
+ALTER TABLE `sms_home_new_product` ADD KEY `idx_recommend_sort_id` (`recommend_status`, `sort`, `id`);
+ALTER TABLE `sms_home_recommend_product` ADD KEY `idx_recommend_sort_id` (`recommend_status`, `sort`, `id`);
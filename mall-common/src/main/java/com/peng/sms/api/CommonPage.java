@@ -18,6 +18,10 @@ public class CommonPage<T> {
     private Integer totalPage;
     private Long total;
     private List<T> list;
+    /**
+     * Continuation token of the next page for cursor pagination, null when there are no more records
+     */
+    private String nextCursor;
 
     /**
      * Convert a list paginated by PageHelper into a CommonPage object
@@ -46,4 +50,15 @@ public class CommonPage<T> {
         return result;
     }
 
+    /**
+     * Wrap a page fetched by cursor pagination, total and page number are not calculated
+     */
+    public static <T> CommonPage<T> cursorPage(List<T> list, Integer pageSize, String nextCursor) {
+        CommonPage<T> result = new CommonPage<>();
+        result.setPageSize(pageSize);
+        result.setList(list);
+        result.setNextCursor(nextCursor);
+        return result;
+    }
+
 }
@@ -139,6 +139,11 @@ public interface RedisService {
      */
     Long sRemove(String key, Object... values);
 
+    /**
+     * Remove and return up to count random members of a Set
+     */
+    List<Object> sPop(String key, long count);
+
     /**
      * Get a range of elements from a List
      */
@@ -152,6 +152,11 @@ public class RedisServiceImpl implements RedisService {
         return redisTemplate.opsForSet().remove(key, values);
     }
 
+    @Override
+    public List<Object> sPop(String key, long count) {
+        return redisTemplate.opsForSet().pop(key, count);
+    }
+
     @Override
     public List<Object> lRange(String key, long start, long end) {
         return redisTemplate.opsForList().range(key, start, end);
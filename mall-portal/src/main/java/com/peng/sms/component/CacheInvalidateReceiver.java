@@ -0,0 +1,78 @@
+package com.peng.sms.component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.peng.sms.domain.CacheInvalidateMessage;
+import com.peng.sms.service.PmsPortalProductService;
+import com.peng.sms.service.UmsMemberCouponService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.CollectionUtils;
+
+/**
+ * Handler applying changes made by the admin system to the caches of this node
+ * Each node consumes its own queue bound to the cache exchange, so node local caches are invalidated everywhere.
+ * The admin system also uses the exchange to ask every node to rebuild its product search index.
+ */
+@Component
+public class CacheInvalidateReceiver {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheInvalidateReceiver.class);
+
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private MemberOrderReadModel memberOrderReadModel;
+    @Autowired
+    private ProductSearchIndex productSearchIndex;
+    @Autowired
+    private PromotionProductCache promotionProductCache;
+    @Autowired
+    private PmsPortalProductService portalProductService;
+    @Autowired
+    private UmsMemberCouponService memberCouponService;
+
+    /**
+     * Handle a cache invalidation notice
+     *
+     * @param body notice in JSON
+     */
+    @RabbitListener(queues = "#{cacheInvalidateQueue.name}")
+    public void handle(String body) {
+        CacheInvalidateMessage message;
+        try {
+            message = objectMapper.readValue(body, CacheInvalidateMessage.class);
+        } catch (JsonProcessingException e) {
+            LOGGER.warn("Received invalid cache invalidation: {}", body, e);
+            return;
+        }
+        if (CacheInvalidateMessage.TYPE_PRODUCT_REINDEX.equals(message.getType())) {
+            // Only the admin system publishes to the cache exchange, so the rebuild is triggered by an authenticated admin
+            LOGGER.info("Rebuilding product search index on request of the admin system");
+            productSearchIndex.refresh();
+            return;
+        }
+        if (message.getType() == null || CollectionUtils.isEmpty(message.getIds())) {
+            return;
+        }
+        switch (message.getType()) {
+            case CacheInvalidateMessage.TYPE_ORDER:
+                memberOrderReadModel.refreshAfterCommit(message.getIds());
+                break;
+            case CacheInvalidateMessage.TYPE_PRODUCT:
+                productSearchIndex.update(message.getIds());
+                promotionProductCache.evict();
+                for (Long productId : message.getIds()) {
+                    portalProductService.clearDetailCache(productId);
+                }
+                break;
+            case CacheInvalidateMessage.TYPE_COUPON:
+                memberCouponService.clearAllCouponCache();
+                break;
+            default:
+                LOGGER.warn("Received cache invalidation of unknown type: {}", message.getType());
+        }
+    }
+}
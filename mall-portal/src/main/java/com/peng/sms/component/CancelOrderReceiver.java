@@ -1,42 +1,73 @@
 package com.peng.sms.component;
 
 import com.peng.sms.service.OmsPortalOrderService;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.amqp.rabbit.annotation.RabbitHandler;
+import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Handler for processing order cancellation messages.
+ * Messages are consumed in batches, the whole batch is cancelled in one transaction and acknowledged together.
  */
 @Component
-@RabbitListener(queues = "mall.order.cancel")
 public class CancelOrderReceiver {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CancelOrderReceiver.class);
 
-    @Autowired
     private final OmsPortalOrderService portalOrderService;
+    private final MessageConverter messageConverter = new SimpleMessageConverter();
+    private final DistributionSummary batchSizeSummary;
+    private final Timer lagTimer;
 
     @Autowired
-    public CancelOrderReceiver(OmsPortalOrderService portalOrderService) {
+    public CancelOrderReceiver(OmsPortalOrderService portalOrderService, MeterRegistry meterRegistry) {
         this.portalOrderService = portalOrderService;
+        this.batchSizeSummary = DistributionSummary.builder("mall.order.cancel.batch.size")
+                .description("Order cancellation messages consumed per batch")
+                .register(meterRegistry);
+        this.lagTimer = Timer.builder("mall.order.cancel.lag")
+                .description("Delay between the order timeout and its cancellation message being consumed")
+                .register(meterRegistry);
     }
 
     /**
-     * Handle the incoming order cancellation message.
+     * Handle a batch of incoming order cancellation messages.
      *
-     * @param orderId the ID of the order to be cancelled
+     * @param messages messages carrying the IDs of the orders to be cancelled
      */
-    @RabbitHandler
-    public void handle(Long orderId) {
-        if (orderId == null || orderId <= 0) {
-            LOGGER.warn("Received invalid orderId: {}", orderId);
+    @RabbitListener(queues = "mall.order.cancel", containerFactory = "cancelOrderContainerFactory")
+    public void handle(List<Message> messages) {
+        batchSizeSummary.record(messages.size());
+        long now = System.currentTimeMillis();
+        List<Long> orderIds = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            Object orderId = messageConverter.fromMessage(message);
+            if (!(orderId instanceof Long) || (Long) orderId <= 0) {
+                LOGGER.warn("Received invalid orderId: {}", orderId);
+                continue;
+            }
+            orderIds.add((Long) orderId);
+            Object cancelAt = message.getMessageProperties().getHeader(CancelOrderSender.HEADER_CANCEL_AT);
+            if (cancelAt instanceof Number) {
+                lagTimer.record(Math.max(now - ((Number) cancelAt).longValue(), 0), TimeUnit.MILLISECONDS);
+            }
+        }
+        if (orderIds.isEmpty()) {
             return;
         }
-        portalOrderService.cancelOrder(orderId);
-        LOGGER.info("Processed order cancellation for orderId: {}", orderId);
+        Integer count = portalOrderService.cancelOrders(orderIds);
+        LOGGER.info("Processed order cancellation batch, messages: {}, cancelled: {}", orderIds.size(), count);
     }
 }
@@ -14,6 +14,10 @@ import org.springframework.stereotype.Component;
 @Component
 public class CancelOrderSender {
     private static Logger LOGGER = LoggerFactory.getLogger(CancelOrderSender.class);
+    /**
+     * Header carrying the time the order is due to be cancelled, used to measure consumer lag
+     */
+    public static final String HEADER_CANCEL_AT = "x-cancel-at";
 
     @Autowired
     private AmqpTemplate amqpTemplate;
@@ -35,6 +39,7 @@ public class CancelOrderSender {
                     public Message postProcessMessage(Message message) throws AmqpException {
                         // Set message delay in milliseconds
                         message.getMessageProperties().setExpiration(String.valueOf(delayTimes));
+                        message.getMessageProperties().setHeader(HEADER_CANCEL_AT, System.currentTimeMillis() + delayTimes);
                         return message;
                     }
                 }
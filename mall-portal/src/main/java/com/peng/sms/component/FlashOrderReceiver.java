@@ -0,0 +1,91 @@
+package com.peng.sms.component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.peng.sms.domain.FlashOrderMessage;
+import com.peng.sms.exception.ApiException;
+import com.peng.sms.service.OmsFlashOrderService;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handler creating accepted flash promotion orders in batches
+ * A batch is created in one transaction. When it fails, the orders are retried one by one,
+ * orders failing for a business reason are rejected and other failures redeliver the batch.
+ */
+@Component
+public class FlashOrderReceiver {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlashOrderReceiver.class);
+
+    private final OmsFlashOrderService flashOrderService;
+    private final ObjectMapper objectMapper;
+    private final MessageConverter messageConverter = new SimpleMessageConverter();
+    private final DistributionSummary batchSizeSummary;
+    private final Timer lagTimer;
+
+    @Autowired
+    public FlashOrderReceiver(OmsFlashOrderService flashOrderService, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.flashOrderService = flashOrderService;
+        this.objectMapper = objectMapper;
+        this.batchSizeSummary = DistributionSummary.builder("mall.order.flash.batch.size")
+                .description("Flash promotion orders created per batch")
+                .register(meterRegistry);
+        this.lagTimer = Timer.builder("mall.order.flash.lag")
+                .description("Delay between a flash promotion order being accepted and being picked up for creation")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Handle a batch of accepted flash promotion orders
+     *
+     * @param messages messages carrying the orders in JSON
+     */
+    @RabbitListener(queues = "mall.order.flash", containerFactory = "flashOrderContainerFactory")
+    public void handle(List<Message> messages) {
+        long now = System.currentTimeMillis();
+        List<FlashOrderMessage> messageList = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            Object body = messageConverter.fromMessage(message);
+            try {
+                FlashOrderMessage flashOrderMessage = objectMapper.readValue(String.valueOf(body), FlashOrderMessage.class);
+                messageList.add(flashOrderMessage);
+                if (flashOrderMessage.getCreateTime() != null) {
+                    lagTimer.record(Math.max(now - flashOrderMessage.getCreateTime(), 0), TimeUnit.MILLISECONDS);
+                }
+            } catch (JsonProcessingException e) {
+                LOGGER.warn("Received invalid flash order: {}", body, e);
+            }
+        }
+        if (messageList.isEmpty()) {
+            return;
+        }
+        batchSizeSummary.record(messageList.size());
+        try {
+            int count = flashOrderService.materialize(messageList);
+            LOGGER.info("Processed flash order batch, messages: {}, created: {}", messageList.size(), count);
+        } catch (ApiException e) {
+            LOGGER.warn("Create flash order batch failed, retrying one by one: {}", e.getMessage());
+            for (FlashOrderMessage message : messageList) {
+                try {
+                    flashOrderService.materialize(Collections.singletonList(message));
+                } catch (ApiException ex) {
+                    flashOrderService.reject(message, ex.getMessage());
+                }
+            }
+        }
+    }
+}
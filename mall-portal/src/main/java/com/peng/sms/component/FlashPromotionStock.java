@@ -0,0 +1,204 @@
+package com.peng.sms.component;
+
+import com.peng.sms.mapper.SmsFlashPromotionProductRelationMapper;
+import com.peng.sms.model.SmsFlashPromotion;
+import com.peng.sms.model.SmsFlashPromotionProductRelation;
+import com.peng.sms.model.SmsFlashPromotionProductRelationExample;
+import com.peng.sms.model.SmsFlashPromotionSession;
+import com.peng.sms.util.DateUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Flash promotion stock and per-member purchase counts kept in Redis
+ * The products of a session are loaded into memory and their remaining counts into Redis when the session is about to start,
+ * one Lua call then takes stock and checks the member's limit, so accepting or rejecting a flash order never touches MySQL.
+ * Products found sold out are remembered for a moment, further attempts on them are rejected without a Redis call.
+ */
+@Component
+public class FlashPromotionStock {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlashPromotionStock.class);
+    public static final long ACQUIRED = 1L;
+    public static final long SOLD_OUT = 0L;
+    public static final long OVER_LIMIT = -2L;
+    private static final long NOT_LOADED = -1L;
+    private static final long PRELOAD_AHEAD_MILLIS = 60 * 1000;
+    private static final long SOLD_OUT_MILLIS = 1000;
+    private static final DefaultRedisScript<Long> LOAD_SCRIPT = script("lua/flash_stock_load.lua");
+    private static final DefaultRedisScript<Long> ACQUIRE_SCRIPT = script("lua/flash_stock_acquire.lua");
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT = script("lua/flash_stock_release.lua");
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private FlashPromotionTimeline flashPromotionTimeline;
+    @Autowired
+    private SmsFlashPromotionProductRelationMapper relationMapper;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.flashStock}")
+    private String REDIS_KEY_FLASH_STOCK;
+    @Value("${redis.key.flashBought}")
+    private String REDIS_KEY_FLASH_BOUGHT;
+    @Value("${redis.expire.flashStock}")
+    private Long REDIS_EXPIRE_FLASH_STOCK;
+
+    /**
+     * Products of loaded sessions by product ID, keyed by day, promotion and session
+     */
+    private final Map<String, Map<Long, SmsFlashPromotionProductRelation>> catalogMap = new ConcurrentHashMap<>();
+    /**
+     * Relation ID to the time until which it is treated as sold out
+     */
+    private final Map<Long, Long> soldOutMap = new ConcurrentHashMap<>();
+
+    /**
+     * Get the flash promotion product running at the given time, null if the product is not in the current session
+     */
+    public SmsFlashPromotionProductRelation getRelation(Long productId, Date date) {
+        SmsFlashPromotion promotion = flashPromotionTimeline.getPromotion(date);
+        SmsFlashPromotionSession session = flashPromotionTimeline.getSession(date);
+        if (promotion == null || session == null) {
+            return null;
+        }
+        Map<Long, SmsFlashPromotionProductRelation> catalog = catalogMap.get(getCatalogKey(promotion, session, date));
+        if (catalog == null) {
+            catalog = load(promotion, session, date);
+        }
+        return catalog.get(productId);
+    }
+
+    /**
+     * Take stock of the flash promotion product for the member
+     *
+     * @return {@link #ACQUIRED}, {@link #SOLD_OUT} or {@link #OVER_LIMIT}
+     */
+    public long acquire(SmsFlashPromotionProductRelation relation, Long memberId, int quantity) {
+        Long soldOutUntil = soldOutMap.get(relation.getId());
+        if (soldOutUntil != null && soldOutUntil > System.currentTimeMillis()) {
+            return SOLD_OUT;
+        }
+        Long result = execAcquire(relation.getId(), memberId, quantity);
+        if (result != null && result == NOT_LOADED) {
+            loadCounters(Collections.singletonList(relation));
+            result = execAcquire(relation.getId(), memberId, quantity);
+        }
+        if (result == null || result == NOT_LOADED || result == SOLD_OUT) {
+            soldOutMap.put(relation.getId(), System.currentTimeMillis() + SOLD_OUT_MILLIS);
+            return SOLD_OUT;
+        }
+        return result;
+    }
+
+    /**
+     * Give back stock taken for an order that could not be queued or created
+     */
+    public void release(Long relationId, Long memberId, int quantity) {
+        try {
+            stringRedisTemplate.execute(RELEASE_SCRIPT, Arrays.asList(getStockKey(relationId), getBoughtKey(relationId)),
+                    String.valueOf(memberId), String.valueOf(quantity));
+            soldOutMap.remove(relationId);
+        } catch (DataAccessException e) {
+            LOGGER.error("Release flash promotion stock failed, relationId: {}, memberId: {}, quantity: {}", relationId, memberId, quantity, e);
+        }
+    }
+
+    /**
+     * Load the running session and the one starting within the next minute, and drop sessions that are over
+     */
+    @Scheduled(fixedDelay = 5 * 1000)
+    public void preload() {
+        long now = System.currentTimeMillis();
+        Set<String> activeKeys = new HashSet<>();
+        for (Date date : Arrays.asList(new Date(now), new Date(now + PRELOAD_AHEAD_MILLIS))) {
+            try {
+                SmsFlashPromotion promotion = flashPromotionTimeline.getPromotion(date);
+                SmsFlashPromotionSession session = flashPromotionTimeline.getSession(date);
+                if (promotion == null || session == null) {
+                    continue;
+                }
+                String key = getCatalogKey(promotion, session, date);
+                activeKeys.add(key);
+                if (!catalogMap.containsKey(key)) {
+                    load(promotion, session, date);
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("Preload flash promotion stock failed, retrying next round", e);
+            }
+        }
+        catalogMap.keySet().retainAll(activeKeys);
+        soldOutMap.values().removeIf(until -> until <= now);
+    }
+
+    /**
+     * Load the products of a session into memory and their remaining counts into Redis
+     */
+    private synchronized Map<Long, SmsFlashPromotionProductRelation> load(SmsFlashPromotion promotion, SmsFlashPromotionSession session, Date date) {
+        String key = getCatalogKey(promotion, session, date);
+        Map<Long, SmsFlashPromotionProductRelation> catalog = catalogMap.get(key);
+        if (catalog != null) {
+            return catalog;
+        }
+        SmsFlashPromotionProductRelationExample example = new SmsFlashPromotionProductRelationExample();
+        example.createCriteria()
+                .andFlashPromotionIdEqualTo(promotion.getId())
+                .andFlashPromotionSessionIdEqualTo(session.getId());
+        List<SmsFlashPromotionProductRelation> relationList = relationMapper.selectByExample(example);
+        loadCounters(relationList);
+        catalog = new HashMap<>();
+        for (SmsFlashPromotionProductRelation relation : relationList) {
+            catalog.put(relation.getProductId(), relation);
+        }
+        catalog = Collections.unmodifiableMap(catalog);
+        catalogMap.put(key, catalog);
+        LOGGER.info("Loaded flash promotion session {} of promotion {}, products: {}", session.getId(), promotion.getId(), relationList.size());
+        return catalog;
+    }
+
+    /**
+     * Load remaining counts from MySQL, counts already in Redis are kept since they include orders still being created
+     */
+    private void loadCounters(List<SmsFlashPromotionProductRelation> relationList) {
+        for (SmsFlashPromotionProductRelation relation : relationList) {
+            int count = relation.getFlashPromotionCount() == null ? 0 : relation.getFlashPromotionCount();
+            int limit = relation.getFlashPromotionLimit() == null ? 0 : relation.getFlashPromotionLimit();
+            stringRedisTemplate.execute(LOAD_SCRIPT, Collections.singletonList(getStockKey(relation.getId())),
+                    String.valueOf(count), String.valueOf(limit), String.valueOf(REDIS_EXPIRE_FLASH_STOCK));
+        }
+    }
+
+    private Long execAcquire(Long relationId, Long memberId, int quantity) {
+        return stringRedisTemplate.execute(ACQUIRE_SCRIPT, Arrays.asList(getStockKey(relationId), getBoughtKey(relationId)),
+                String.valueOf(memberId), String.valueOf(quantity), String.valueOf(REDIS_EXPIRE_FLASH_STOCK));
+    }
+
+    private String getCatalogKey(SmsFlashPromotion promotion, SmsFlashPromotionSession session, Date date) {
+        return DateUtil.toLocalDate(date) + ":" + promotion.getId() + ":" + session.getId();
+    }
+
+    private String getStockKey(Long relationId) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_FLASH_STOCK + ":" + relationId;
+    }
+
+    private String getBoughtKey(Long relationId) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_FLASH_BOUGHT + ":" + relationId;
+    }
+
+    private static DefaultRedisScript<Long> script(String path) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(path));
+        script.setResultType(Long.class);
+        return script;
+    }
+}
@@ -0,0 +1,216 @@
+package com.peng.sms.component;
+
+import com.peng.sms.dao.HomeDao;
+import com.peng.sms.domain.FlashPromotionProduct;
+import com.peng.sms.mapper.SmsFlashPromotionMapper;
+import com.peng.sms.mapper.SmsFlashPromotionSessionMapper;
+import com.peng.sms.model.SmsFlashPromotion;
+import com.peng.sms.model.SmsFlashPromotionExample;
+import com.peng.sms.model.SmsFlashPromotionSession;
+import com.peng.sms.model.SmsFlashPromotionSessionExample;
+import com.peng.sms.util.DateUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.*;
+
+/**
+ * In-memory timeline of today's flash promotion and its sessions
+ * The timeline is an immutable snapshot rebuilt in the background, lookups never touch the database.
+ */
+@Component
+public class FlashPromotionTimeline {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlashPromotionTimeline.class);
+
+    @Autowired
+    private SmsFlashPromotionMapper flashPromotionMapper;
+    @Autowired
+    private SmsFlashPromotionSessionMapper promotionSessionMapper;
+    @Autowired
+    private HomeDao homeDao;
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * Get the flash promotion running on the given date
+     */
+    public SmsFlashPromotion getPromotion(Date date) {
+        return getSnapshot(date).promotion;
+    }
+
+    /**
+     * Get the flash promotion session running at the given time
+     */
+    public SmsFlashPromotionSession getSession(Date date) {
+        Snapshot current = getSnapshot(date);
+        int time = DateUtil.toLocalTime(date).toSecondOfDay();
+        // Sessions do not overlap, so only the last session starting no later than the given time can contain it
+        int index = upperBound(current.startSeconds, time) - 1;
+        if (index >= 0 && current.endSeconds[index] >= time) {
+            return current.sessions.get(index);
+        }
+        return null;
+    }
+
+    /**
+     * Get the first flash promotion session starting after the given time
+     */
+    public SmsFlashPromotionSession getNextSession(Date date) {
+        Snapshot current = getSnapshot(new Date());
+        int time = DateUtil.toLocalTime(date).toSecondOfDay();
+        int index = upperBound(current.startSeconds, time);
+        if (index < current.sessions.size()) {
+            return current.sessions.get(index);
+        }
+        return null;
+    }
+
+    /**
+     * Get the products of a session belonging to the current flash promotion
+     * A copy is returned since callers put the list into cached results
+     */
+    public List<FlashPromotionProduct> getProductList(Long sessionId) {
+        List<FlashPromotionProduct> productList = getSnapshot(new Date()).productMap.get(sessionId);
+        return productList == null ? new ArrayList<>() : new ArrayList<>(productList);
+    }
+
+    /**
+     * Get the next time after the given date at which a session starts or ends, null if none is left today
+     */
+    public Date getNextBoundary(Date date) {
+        Snapshot current = getSnapshot(date);
+        int time = DateUtil.toLocalTime(date).toSecondOfDay();
+        int next = Integer.MAX_VALUE;
+        for (int i = 0; i < current.sessions.size(); i++) {
+            if (current.startSeconds[i] > time) {
+                next = Math.min(next, current.startSeconds[i]);
+            }
+            if (current.endSeconds[i] >= time) {
+                // Sessions stay open until the end of their last second
+                next = Math.min(next, current.endSeconds[i] + 1);
+            }
+        }
+        if (next == Integer.MAX_VALUE || next >= 24 * 60 * 60) {
+            return null;
+        }
+        LocalDateTime boundary = LocalDateTime.of(current.date, LocalTime.ofSecondOfDay(next));
+        return Date.from(boundary.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    /**
+     * Rebuild the timeline every minute so changes made by the admin system are picked up
+     */
+    @Scheduled(fixedDelay = 60 * 1000)
+    public void refresh() {
+        try {
+            rebuild(LocalDate.now());
+        } catch (RuntimeException e) {
+            LOGGER.warn("Rebuild flash promotion timeline failed, keep serving current snapshot", e);
+        }
+    }
+
+    private Snapshot getSnapshot(Date date) {
+        LocalDate day = DateUtil.toLocalDate(date);
+        Snapshot current = snapshot;
+        if (current != null && current.date.equals(day)) {
+            return current;
+        }
+        synchronized (this) {
+            current = snapshot;
+            if (current != null && current.date.equals(day)) {
+                return current;
+            }
+            try {
+                return rebuild(day);
+            } catch (RuntimeException e) {
+                if (current != null) {
+                    LOGGER.warn("Rebuild flash promotion timeline failed, serving snapshot of {}", current.date, e);
+                    return current;
+                }
+                throw e;
+            }
+        }
+    }
+
+    private Snapshot rebuild(LocalDate day) {
+        Date currDate = Date.from(day.atStartOfDay(ZoneId.systemDefault()).toInstant());
+        SmsFlashPromotionExample example = new SmsFlashPromotionExample();
+        example.createCriteria()
+                .andStatusEqualTo(1)
+                .andStartDateLessThanOrEqualTo(currDate)
+                .andEndDateGreaterThanOrEqualTo(currDate);
+        List<SmsFlashPromotion> flashPromotionList = flashPromotionMapper.selectByExample(example);
+        SmsFlashPromotion promotion = flashPromotionList.isEmpty() ? null : flashPromotionList.get(0);
+
+        SmsFlashPromotionSessionExample sessionExample = new SmsFlashPromotionSessionExample();
+        sessionExample.setOrderByClause("start_time asc");
+        List<SmsFlashPromotionSession> sessionList = new ArrayList<>();
+        for (SmsFlashPromotionSession session : promotionSessionMapper.selectByExample(sessionExample)) {
+            if (session.getStartTime() != null && session.getEndTime() != null) {
+                sessionList.add(session);
+            }
+        }
+        sessionList.sort(Comparator.comparingInt(session -> DateUtil.toLocalTime(session.getStartTime()).toSecondOfDay()));
+
+        Map<Long, List<FlashPromotionProduct>> productMap = new HashMap<>();
+        if (promotion != null) {
+            for (SmsFlashPromotionSession session : sessionList) {
+                List<FlashPromotionProduct> productList = homeDao.getFlashPromotionProducts(promotion.getId(), session.getId());
+                productMap.put(session.getId(), productList);
+            }
+        }
+        Snapshot rebuilt = new Snapshot(day, promotion, sessionList, productMap);
+        snapshot = rebuilt;
+        return rebuilt;
+    }
+
+    /**
+     * Index of the first element greater than the key
+     */
+    private static int upperBound(int[] array, int key) {
+        int low = 0;
+        int high = array.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (array[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Immutable view of one day's flash promotion
+     */
+    private static final class Snapshot {
+        private final LocalDate date;
+        private final SmsFlashPromotion promotion;
+        private final List<SmsFlashPromotionSession> sessions;
+        private final int[] startSeconds;
+        private final int[] endSeconds;
+        private final Map<Long, List<FlashPromotionProduct>> productMap;
+
+        private Snapshot(LocalDate date, SmsFlashPromotion promotion, List<SmsFlashPromotionSession> sessions,
+                         Map<Long, List<FlashPromotionProduct>> productMap) {
+            this.date = date;
+            this.promotion = promotion;
+            this.sessions = Collections.unmodifiableList(sessions);
+            this.startSeconds = new int[sessions.size()];
+            this.endSeconds = new int[sessions.size()];
+            for (int i = 0; i < sessions.size(); i++) {
+                startSeconds[i] = DateUtil.toLocalTime(sessions.get(i).getStartTime()).toSecondOfDay();
+                endSeconds[i] = DateUtil.toLocalTime(sessions.get(i).getEndTime()).toSecondOfDay();
+            }
+            this.productMap = Collections.unmodifiableMap(productMap);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.peng.sms.component;
+
+import com.peng.sms.domain.FlashQueueTicket;
+import com.peng.sms.model.SmsFlashPromotionSession;
+import com.peng.sms.util.DateUtil;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Waiting room admitting members to a flash promotion session at a fixed rate
+ * Members draw a position from a Redis counter when they arrive, from shortly before the session starts until it ends.
+ * Positions up to burst + rate * seconds since the session start are admitted, which every node computes from the clock alone,
+ * and admitted members get a short-lived HMAC signed pass that flash promotion orders are checked against in memory.
+ * Flash promotion requests also go through a per-node bulkhead, so a session cannot take all request threads from other traffic.
+ */
+@Component
+public class FlashWaitingRoom {
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int MIN_SECRET_LENGTH = 32;
+    private static final DefaultRedisScript<Long> ENTER_SCRIPT = script("lua/flash_queue_enter.lua");
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private FlashPromotionTimeline flashPromotionTimeline;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.flashQueue}")
+    private String REDIS_KEY_FLASH_QUEUE;
+    @Value("${redis.expire.flashQueue}")
+    private Long REDIS_EXPIRE_FLASH_QUEUE;
+    @Value("${flash.admitRate}")
+    private Integer ADMIT_RATE;
+    @Value("${flash.admitBurst}")
+    private Integer ADMIT_BURST;
+    @Value("${flash.queueAhead}")
+    private Long QUEUE_AHEAD;
+    @Value("${flash.passExpire}")
+    private Long PASS_EXPIRE;
+    @Value("${flash.passSecret}")
+    private String PASS_SECRET;
+    @Value("${flash.maxConcurrency}")
+    private Integer MAX_CONCURRENCY;
+
+    private Semaphore bulkhead;
+    private ThreadLocal<Mac> macHolder;
+
+    @PostConstruct
+    public void init() {
+        if (PASS_SECRET == null || PASS_SECRET.trim().length() < MIN_SECRET_LENGTH) {
+            throw new IllegalStateException("flash.passSecret must be set to at least " + MIN_SECRET_LENGTH + " characters, e.g. through FLASH_PASS_SECRET");
+        }
+        bulkhead = new Semaphore(MAX_CONCURRENCY);
+        SecretKeySpec key = new SecretKeySpec(PASS_SECRET.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM);
+        macHolder = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Init flash pass signature failed", e);
+            }
+        });
+    }
+
+    /**
+     * Take or look up the member's position in the waiting room of the running or upcoming session
+     *
+     * @return null when no session is running or about to start
+     */
+    public FlashQueueTicket enter(Long memberId) {
+        long now = System.currentTimeMillis();
+        SmsFlashPromotionSession session = flashPromotionTimeline.getSession(new Date(now));
+        if (session == null) {
+            session = flashPromotionTimeline.getSession(new Date(now + QUEUE_AHEAD * 1000));
+        }
+        if (session == null) {
+            return null;
+        }
+        long sessionStart = getSessionStart(session, now);
+        String queueKey = getQueueKey(session, now);
+        Long position = stringRedisTemplate.execute(ENTER_SCRIPT, Arrays.asList(queueKey, queueKey + ":seq"),
+                String.valueOf(memberId), String.valueOf(REDIS_EXPIRE_FLASH_QUEUE));
+        FlashQueueTicket ticket = new FlashQueueTicket();
+        ticket.setSessionId(session.getId());
+        ticket.setPosition(position);
+        long admitted = getAdmitted(sessionStart, now);
+        if (position != null && position <= admitted) {
+            ticket.setAdmitted(true);
+            ticket.setPassToken(sign(memberId, session.getId(), now + PASS_EXPIRE * 1000));
+            ticket.setWaitSeconds(0L);
+        } else {
+            ticket.setAdmitted(false);
+            long ahead = position == null ? ADMIT_BURST : position - Math.max(admitted, 0);
+            long untilStart = Math.max(sessionStart - now, 0) / 1000;
+            ticket.setWaitSeconds(Math.max(untilStart + ahead / Math.max(ADMIT_RATE, 1), 1));
+        }
+        return ticket;
+    }
+
+    /**
+     * Check that the pass was issued to the member for the running session and has not expired
+     */
+    public boolean verifyPass(String passToken, Long memberId) {
+        if (passToken == null) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        SmsFlashPromotionSession session = flashPromotionTimeline.getSession(new Date(now));
+        if (session == null) {
+            return false;
+        }
+        int index = passToken.lastIndexOf('.');
+        if (index <= 0) {
+            return false;
+        }
+        String payload = passToken.substring(0, index);
+        String[] parts = payload.split("\\.");
+        if (parts.length != 3 || !parts[0].equals(String.valueOf(memberId)) || !parts[1].equals(String.valueOf(session.getId()))) {
+            return false;
+        }
+        long expireAt;
+        try {
+            expireAt = Long.parseLong(parts[2]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (expireAt < now) {
+            return false;
+        }
+        byte[] expected = signature(payload).getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(expected, passToken.substring(index + 1).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Take a slot of the flash promotion bulkhead without waiting, must be paired with {@link #leave()} when true
+     */
+    public boolean tryAcquire() {
+        return bulkhead.tryAcquire();
+    }
+
+    public void leave() {
+        bulkhead.release();
+    }
+
+    /**
+     * Highest position admitted at the given time, nobody is admitted before the session starts
+     */
+    private long getAdmitted(long sessionStart, long now) {
+        if (now < sessionStart) {
+            return 0;
+        }
+        return ADMIT_BURST + (now - sessionStart) * ADMIT_RATE / 1000;
+    }
+
+    /**
+     * Start time of the session today, the timeline only holds today's sessions
+     */
+    private long getSessionStart(SmsFlashPromotionSession session, long now) {
+        LocalDateTime start = LocalDateTime.of(DateUtil.toLocalDate(new Date(now)), DateUtil.toLocalTime(session.getStartTime()));
+        return start.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private String sign(Long memberId, Long sessionId, long expireAt) {
+        String payload = memberId + "." + sessionId + "." + expireAt;
+        return payload + "." + signature(payload);
+    }
+
+    private String signature(String payload) {
+        byte[] digest = macHolder.get().doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+    }
+
+    private String getQueueKey(SmsFlashPromotionSession session, long now) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_FLASH_QUEUE + ":" + DateUtil.toLocalDate(new Date(now)) + ":" + session.getId();
+    }
+
+    private static DefaultRedisScript<Long> script(String path) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(path));
+        script.setResultType(Long.class);
+        return script;
+    }
+}
@@ -0,0 +1,153 @@
+package com.peng.sms.component;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel keyed by ID
+ * Adds and removes are queued and applied by the single worker thread, so both are O(1) for the caller and lock-free.
+ * Timers further away than one revolution stay in their bucket and count down the remaining rounds.
+ */
+public class HashedTimingWheel {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HashedTimingWheel.class);
+
+    private final String name;
+    private final long tickMillis;
+    private final int mask;
+    private final List<Map<Long, Timer>> buckets;
+    private final Map<Long, Timer> timers = new HashMap<>();
+    private final Queue<Runnable> pendingOps = new ConcurrentLinkedQueue<>();
+    private final Consumer<Long> expireHandler;
+    private volatile boolean running;
+    private Thread worker;
+    private long startTime;
+    private long tick;
+
+    /**
+     * @param tickMillis    duration of one tick, timers fire at most one tick late
+     * @param wheelSize     number of buckets, rounded up to a power of two
+     * @param expireHandler called from the worker thread with the ID of each expired timer, must not block
+     */
+    public HashedTimingWheel(String name, long tickMillis, int wheelSize, Consumer<Long> expireHandler) {
+        this.name = name;
+        this.tickMillis = tickMillis;
+        int size = Integer.highestOneBit(Math.max(wheelSize, 2) - 1) << 1;
+        this.mask = size - 1;
+        this.buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(new HashMap<>());
+        }
+        this.expireHandler = expireHandler;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        startTime = System.currentTimeMillis();
+        worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Schedule the ID to expire at the given time, replacing an existing timer of the same ID
+     */
+    public void add(Long id, long deadline) {
+        pendingOps.add(() -> {
+            removeTimer(id);
+            long ticks = Math.max((deadline - startTime + tickMillis - 1) / tickMillis, tick);
+            Timer timer = new Timer(id, deadline, (ticks - tick) / buckets.size(), (int) (ticks & mask));
+            buckets.get(timer.bucket).put(id, timer);
+            timers.put(id, timer);
+        });
+    }
+
+    /**
+     * Remove the timer of the ID if it has not expired yet
+     */
+    public void remove(Long id) {
+        pendingOps.add(() -> removeTimer(id));
+    }
+
+    private void removeTimer(Long id) {
+        Timer timer = timers.remove(id);
+        if (timer != null) {
+            buckets.get(timer.bucket).remove(id);
+        }
+    }
+
+    private void run() {
+        while (running) {
+            long next = startTime + (tick + 1) * tickMillis;
+            long sleep = next - System.currentTimeMillis();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        return;
+                    }
+                }
+            }
+            try {
+                Runnable op;
+                while ((op = pendingOps.poll()) != null) {
+                    op.run();
+                }
+                expireBucket(buckets.get((int) (tick & mask)));
+            } catch (RuntimeException e) {
+                LOGGER.error("Timing wheel {} tick failed", name, e);
+            }
+            tick++;
+        }
+    }
+
+    private void expireBucket(Map<Long, Timer> bucket) {
+        long now = System.currentTimeMillis();
+        Iterator<Timer> iterator = bucket.values().iterator();
+        while (iterator.hasNext()) {
+            Timer timer = iterator.next();
+            if (timer.rounds > 0) {
+                timer.rounds--;
+                continue;
+            }
+            if (timer.deadline > now + tickMillis) {
+                continue;
+            }
+            iterator.remove();
+            timers.remove(timer.id);
+            try {
+                expireHandler.accept(timer.id);
+            } catch (RuntimeException e) {
+                LOGGER.error("Timing wheel {} expire handler failed, id: {}", name, timer.id, e);
+            }
+        }
+    }
+
+    private static final class Timer {
+        private final Long id;
+        private final long deadline;
+        private long rounds;
+        private final int bucket;
+
+        private Timer(Long id, long deadline, long rounds, int bucket) {
+            this.id = id;
+            this.deadline = deadline;
+            this.rounds = rounds;
+            this.bucket = bucket;
+        }
+    }
+}
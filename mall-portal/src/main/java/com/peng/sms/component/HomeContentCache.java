@@ -0,0 +1,171 @@
+package com.peng.sms.component;
+
+import com.peng.sms.domain.HomeContentResult;
+import com.peng.sms.service.RedisService;
+import lombok.Getter;
+import lombok.Setter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Two-level cache for the assembled homepage content
+ * Level 1 is an in-process snapshot, level 2 is shared through Redis.
+ * Snapshots are refreshed in the background before they expire, requests only wait for MySQL on a cold start.
+ */
+@Component
+public class HomeContentCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HomeContentCache.class);
+
+    @Autowired
+    private RedisService redisService;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.homeContent}")
+    private String REDIS_KEY_HOME_CONTENT;
+    @Value("${redis.expire.homeContent}")
+    private Long REDIS_EXPIRE_HOME_CONTENT;
+    @Value("${redis.expire.homeContentRefresh}")
+    private Long REDIS_EXPIRE_HOME_CONTENT_REFRESH;
+
+    private volatile Snapshot local;
+    private final Object loadLock = new Object();
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+    /**
+     * Get homepage content, loading it with the given loader only when no usable snapshot exists
+     * An expired snapshot is reloaded by one caller while the others keep getting it, callers only wait
+     * for the load when there is no snapshot at all.
+     *
+     * @param loader     loads the content from MySQL
+     * @param boundaryFn returns the next time the content changes by itself (e.g. a flash session boundary), may return null
+     */
+    public HomeContentResult get(Supplier<HomeContentResult> loader, Function<HomeContentResult, Date> boundaryFn) {
+        long now = System.currentTimeMillis();
+        Snapshot snapshot = local;
+        if (snapshot != null && now < snapshot.getExpireAt()) {
+            return snapshot.getContent();
+        }
+        if (snapshot != null) {
+            //已有过期快照时只由一个线程重新加载，其他线程继续返回过期快照
+            if (!refreshing.compareAndSet(false, true)) {
+                return snapshot.getContent();
+            }
+            try {
+                return reload(loader, boundaryFn, now).getContent();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Load homepage content failed, serving expired snapshot", e);
+                return snapshot.getContent();
+            } finally {
+                refreshing.set(false);
+            }
+        }
+        synchronized (loadLock) {
+            snapshot = local;
+            if (snapshot != null) {
+                return snapshot.getContent();
+            }
+            return reload(loader, boundaryFn, now).getContent();
+        }
+    }
+
+    /**
+     * Refresh the snapshot ahead of expiry, only one caller refreshes at a time
+     */
+    public void refreshIfDue(Supplier<HomeContentResult> loader, Function<HomeContentResult, Date> boundaryFn) {
+        Snapshot snapshot = local;
+        long now = System.currentTimeMillis();
+        if (snapshot != null && now < snapshot.getRefreshAt()) {
+            return;
+        }
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            //其他节点已刷新时直接使用Redis中的快照
+            Snapshot remote = getRemote();
+            if (remote != null && now < remote.getRefreshAt()) {
+                local = remote;
+                return;
+            }
+            load(loader, boundaryFn);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Refresh homepage content failed, keep serving current snapshot", e);
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    /**
+     * Drop both cache levels, the next request or refresh reloads the content
+     */
+    public void evict() {
+        local = null;
+        redisService.del(getKey());
+    }
+
+    /**
+     * Take the snapshot from Redis when another node loaded it, otherwise load it from MySQL
+     */
+    private Snapshot reload(Supplier<HomeContentResult> loader, Function<HomeContentResult, Date> boundaryFn, long now) {
+        Snapshot remote = getRemote();
+        if (remote != null && now < remote.getExpireAt()) {
+            local = remote;
+            return remote;
+        }
+        return load(loader, boundaryFn);
+    }
+
+    private Snapshot load(Supplier<HomeContentResult> loader, Function<HomeContentResult, Date> boundaryFn) {
+        HomeContentResult content = loader.get();
+        long now = System.currentTimeMillis();
+        long refreshAt = now + REDIS_EXPIRE_HOME_CONTENT_REFRESH * 1000;
+        //秒杀场次切换时提前刷新
+        Date boundary = boundaryFn.apply(content);
+        if (boundary != null && boundary.getTime() > now && boundary.getTime() < refreshAt) {
+            refreshAt = boundary.getTime();
+        }
+        Snapshot snapshot = new Snapshot();
+        snapshot.setContent(content);
+        snapshot.setRefreshAt(refreshAt);
+        snapshot.setExpireAt(Math.max(refreshAt, now + REDIS_EXPIRE_HOME_CONTENT * 1000));
+        local = snapshot;
+        try {
+            redisService.set(getKey(), snapshot, REDIS_EXPIRE_HOME_CONTENT);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Write homepage content to Redis failed", e);
+        }
+        return snapshot;
+    }
+
+    private Snapshot getRemote() {
+        try {
+            return (Snapshot) redisService.get(getKey());
+        } catch (RuntimeException e) {
+            LOGGER.warn("Read homepage content from Redis failed", e);
+            return null;
+        }
+    }
+
+    private String getKey() {
+        return REDIS_DATABASE + ":" + REDIS_KEY_HOME_CONTENT;
+    }
+
+    /**
+     * Cached homepage content with its refresh and expire time in milliseconds
+     */
+    @Getter
+    @Setter
+    public static class Snapshot {
+        private HomeContentResult content;
+        private long refreshAt;
+        private long expireAt;
+    }
+}
@@ -0,0 +1,353 @@
+package com.peng.sms.component;
+
+import com.peng.sms.api.CommonPage;
+import com.peng.sms.dao.PortalOrderDao;
+import com.peng.sms.domain.OmsOrderDetail;
+import com.peng.sms.mapper.OmsOrderItemMapper;
+import com.peng.sms.model.OmsOrderItem;
+import com.peng.sms.model.OmsOrderItemExample;
+import com.peng.sms.util.PageCursor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.CollectionUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis read model of the order history of members
+ * Each member has a hash of order documents (order with its items) and one sorted set of order IDs per status
+ * plus one for all statuses, scored by order ID so the newest orders come first. The model of a member is built
+ * on first access from the newest orders only, pages beyond them are read from MySQL.
+ * Every status transition rewrites the affected documents after commit and bumps a per-member version,
+ * so a build that loaded its snapshot before the transition is rejected instead of overwriting it.
+ * Transitions made outside the portal (shipping in the admin system) arrive through {@link CacheInvalidateReceiver}.
+ */
+@Component
+public class MemberOrderReadModel {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemberOrderReadModel.class);
+    private static final String INDEX_ALL = "all";
+    /**
+     * Order status: 0->pending payment; 1->pending shipment; 2->shipped; 3->completed; 4->closed; 5->invalid
+     */
+    private static final int MAX_STATUS = 5;
+    /**
+     * Lowest covered order ID of a model holding all orders of the member
+     */
+    private static final long COMPLETE = 0L;
+    private static final int BUILD_ATTEMPTS = 3;
+    private static final String MODE_BUILD = "build";
+    private static final String MODE_REFRESH = "refresh";
+    private static final DefaultRedisScript<Long> WRITE_SCRIPT = script("lua/member_order_write.lua");
+    private static final RedisSerializer<Long> RESULT_SERIALIZER = new GenericToStringSerializer<>(Long.class);
+
+    @Autowired
+    private PortalOrderDao portalOrderDao;
+    @Autowired
+    private OmsOrderItemMapper orderItemMapper;
+    @Autowired
+    private OrderStatusCounter orderStatusCounter;
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+    @Autowired
+    private RedisSerializer<Object> redisSerializer;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.memberOrder}")
+    private String REDIS_KEY_MEMBER_ORDER;
+    @Value("${redis.expire.memberOrder}")
+    private Long REDIS_EXPIRE_MEMBER_ORDER;
+    @Value("${order.readModelSize}")
+    private Integer READ_MODEL_SIZE;
+
+    /**
+     * Get a page of the member's orders, newest first
+     *
+     * @param status null for all statuses
+     */
+    public CommonPage<OmsOrderDetail> list(Long memberId, Integer status, Integer pageNum, Integer pageSize) {
+        pageNum = Math.max(pageNum, 1);
+        long start = (long) (pageNum - 1) * pageSize;
+        Long floor = ensureLoaded(memberId);
+        List<OmsOrderDetail> orderList = null;
+        Long total = null;
+        if (floor != null) {
+            String indexKey = getIndexKey(memberId, status);
+            Long size = stringRedisTemplate.opsForZSet().zCard(indexKey);
+            size = size == null ? 0L : size;
+            //只含最近订单的模型在整页都在模型中时才能使用
+            if (floor == COMPLETE || size >= start + pageSize) {
+                Set<String> idSet = stringRedisTemplate.opsForZSet().reverseRange(indexKey, start, start + pageSize - 1);
+                orderList = getDocuments(memberId, idSet);
+                total = floor == COMPLETE ? size : null;
+            }
+        }
+        if (orderList == null) {
+            orderList = portalOrderDao.getMemberOrderList(memberId, status, null, start, pageSize);
+            fillItems(orderList);
+        }
+        if (total == null) {
+            total = countOrders(memberId, status);
+        }
+        CommonPage<OmsOrderDetail> page = new CommonPage<>();
+        page.setPageNum(pageNum);
+        page.setPageSize(pageSize);
+        page.setTotal(total);
+        page.setTotalPage(pageSize > 0 ? (int) ((total + pageSize - 1) / pageSize) : 0);
+        page.setList(orderList);
+        return page;
+    }
+
+    /**
+     * Get a page of the member's orders by keyset pagination, newest first
+     *
+     * @param cursor continuation token of the previous page, null for the first page
+     */
+    public CommonPage<OmsOrderDetail> listByCursor(Long memberId, Integer status, String cursor, Integer pageSize) {
+        PageCursor.checkPageSize(pageSize);
+        PageCursor pageCursor = PageCursor.decode(cursor);
+        Long beforeId = pageCursor == null ? null : pageCursor.getId();
+        Long floor = ensureLoaded(memberId);
+        if (floor != null) {
+            double max = beforeId == null ? Double.POSITIVE_INFINITY : beforeId - 1;
+            Set<String> idSet = stringRedisTemplate.opsForZSet()
+                    .reverseRangeByScore(getIndexKey(memberId, status), Double.NEGATIVE_INFINITY, max, 0, pageSize + 1);
+            if (floor == COMPLETE || (idSet != null && idSet.size() > pageSize)) {
+                return PageCursor.page(getDocuments(memberId, idSet), pageSize, order -> new PageCursor(null, order.getId()));
+            }
+        }
+        List<OmsOrderDetail> orderList = portalOrderDao.getMemberOrderList(memberId, status, beforeId, 0L, pageSize + 1);
+        fillItems(orderList);
+        return PageCursor.page(orderList, pageSize, order -> new PageCursor(null, order.getId()));
+    }
+
+    /**
+     * Get one order of the member with its items
+     *
+     * @return null if the order is not in the model of the member
+     */
+    public OmsOrderDetail get(Long memberId, Long orderId) {
+        if (ensureLoaded(memberId) == null) {
+            return null;
+        }
+        Object value = redisTemplate.opsForHash().get(getOrderKey(memberId), orderId.toString());
+        return value instanceof OmsOrderDetail ? (OmsOrderDetail) value : null;
+    }
+
+    /**
+     * Rewrite the documents of the orders once the current transaction commits
+     */
+    public void refreshAfterCommit(Collection<Long> orderIds) {
+        if (CollectionUtils.isEmpty(orderIds)) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(orderIds);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    refresh(ids);
+                }
+            });
+        } else {
+            refresh(ids);
+        }
+    }
+
+    /**
+     * Reload the orders from MySQL into the models that are already built, a failure drops the affected models
+     */
+    private void refresh(List<Long> orderIds) {
+        List<OmsOrderDetail> orderList = portalOrderDao.getOrderList(null, orderIds);
+        Map<Long, List<OmsOrderDetail>> memberOrderMap = new HashMap<>();
+        for (OmsOrderDetail order : orderList) {
+            memberOrderMap.computeIfAbsent(order.getMemberId(), k -> new ArrayList<>()).add(order);
+        }
+        fillItems(orderList);
+        for (Map.Entry<Long, List<OmsOrderDetail>> entry : memberOrderMap.entrySet()) {
+            Long memberId = entry.getKey();
+            try {
+                //模型未构建时只递增版本号，使正在进行的构建失效
+                write(memberId, MODE_REFRESH, null, COMPLETE, entry.getValue());
+            } catch (DataAccessException e) {
+                LOGGER.warn("Refresh member order read model failed, dropping it, memberId: {}", memberId, e);
+                evict(memberId);
+            }
+        }
+    }
+
+    /**
+     * Build the model of the member from its newest orders unless it exists
+     *
+     * @return lowest order ID covered by the model, {@link #COMPLETE} when it holds all orders,
+     * null when the model could not be built because transitions kept changing the orders
+     */
+    private Long ensureLoaded(Long memberId) {
+        String loaded = stringRedisTemplate.opsForValue().get(getLoadedKey(memberId));
+        if (loaded != null) {
+            return Long.valueOf(loaded);
+        }
+        for (int attempt = 0; attempt < BUILD_ATTEMPTS; attempt++) {
+            //先读版本号再读数据库，构建期间有状态变更时写入会被拒绝
+            String version = stringRedisTemplate.opsForValue().get(getVersionKey(memberId));
+            List<OmsOrderDetail> orderList = portalOrderDao.getMemberOrderList(memberId, null, null, 0L, READ_MODEL_SIZE + 1);
+            long floor = COMPLETE;
+            if (orderList.size() > READ_MODEL_SIZE) {
+                orderList = new ArrayList<>(orderList.subList(0, READ_MODEL_SIZE));
+                floor = orderList.get(READ_MODEL_SIZE - 1).getId();
+            }
+            fillItems(orderList);
+            if (write(memberId, MODE_BUILD, version == null ? "0" : version, floor, orderList)) {
+                return floor;
+            }
+        }
+        LOGGER.info("Member order read model changed during every build attempt, reading from MySQL, memberId: {}", memberId);
+        return null;
+    }
+
+    /**
+     * Count the member's orders that are not deleted from the status counters
+     */
+    private long countOrders(Long memberId, Integer status) {
+        Map<Integer, Long> countMap = orderStatusCounter.get(memberId);
+        if (status != null) {
+            return countMap.getOrDefault(status, 0L);
+        }
+        long total = 0;
+        for (Long count : countMap.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Load the items of the orders with one query and group them by order
+     */
+    private void fillItems(List<OmsOrderDetail> orderList) {
+        if (orderList.isEmpty()) {
+            return;
+        }
+        Map<Long, OmsOrderDetail> orderMap = new HashMap<>();
+        for (OmsOrderDetail order : orderList) {
+            order.setOrderItemList(new ArrayList<>());
+            orderMap.put(order.getId(), order);
+        }
+        OmsOrderItemExample example = new OmsOrderItemExample();
+        example.createCriteria().andOrderIdIn(new ArrayList<>(orderMap.keySet()));
+        example.setOrderByClause("id asc");
+        for (OmsOrderItem orderItem : orderItemMapper.selectByExample(example)) {
+            OmsOrderDetail order = orderMap.get(orderItem.getOrderId());
+            if (order != null) {
+                order.getOrderItemList().add(orderItem);
+            }
+        }
+    }
+
+    /**
+     * Write documents and move them to the index of their status in one script call, deleted orders are removed
+     *
+     * @param version version read before loading the orders, only used to build
+     * @param floor   lowest order ID covered, only used to build
+     * @return false when a build was rejected or a refresh found no model
+     */
+    private boolean write(Long memberId, String mode, String version, long floor, List<OmsOrderDetail> orderList) {
+        List<String> keys = new ArrayList<>();
+        keys.add(getLoadedKey(memberId));
+        keys.add(getVersionKey(memberId));
+        keys.add(getOrderKey(memberId));
+        keys.add(getIndexKey(memberId, null));
+        for (int status = 0; status <= MAX_STATUS; status++) {
+            keys.add(getIndexKey(memberId, status));
+        }
+        List<byte[]> args = new ArrayList<>(4 + orderList.size() * 4);
+        args.add(bytes(mode));
+        args.add(bytes(version == null ? "" : version));
+        args.add(bytes(String.valueOf(REDIS_EXPIRE_MEMBER_ORDER)));
+        args.add(bytes(String.valueOf(floor)));
+        for (OmsOrderDetail order : orderList) {
+            boolean deleted = Integer.valueOf(1).equals(order.getDeleteStatus());
+            args.add(bytes(order.getId().toString()));
+            args.add(bytes(String.valueOf(order.getStatus())));
+            args.add(bytes(deleted ? "1" : "0"));
+            args.add(deleted ? new byte[0] : redisSerializer.serialize(order));
+        }
+        Long result = redisTemplate.execute(WRITE_SCRIPT, RedisSerializer.byteArray(), RESULT_SERIALIZER, keys, args.toArray());
+        return result != null && result == 1L;
+    }
+
+    private List<OmsOrderDetail> getDocuments(Long memberId, Set<String> idSet) {
+        List<OmsOrderDetail> orderList = new ArrayList<>();
+        if (CollectionUtils.isEmpty(idSet)) {
+            return orderList;
+        }
+        List<Object> valueList = redisTemplate.opsForHash().multiGet(getOrderKey(memberId), new ArrayList<>(idSet));
+        for (Object value : valueList) {
+            if (value instanceof OmsOrderDetail) {
+                orderList.add((OmsOrderDetail) value);
+            }
+        }
+        return orderList;
+    }
+
+    /**
+     * Drop the model of the member, bumping the version first so a build in progress cannot bring it back
+     */
+    private void evict(Long memberId) {
+        try {
+            stringRedisTemplate.opsForValue().increment(getVersionKey(memberId));
+            stringRedisTemplate.expire(getVersionKey(memberId), REDIS_EXPIRE_MEMBER_ORDER, TimeUnit.SECONDS);
+            List<String> keys = new ArrayList<>();
+            keys.add(getLoadedKey(memberId));
+            keys.add(getOrderKey(memberId));
+            keys.add(getIndexKey(memberId, null));
+            for (int status = 0; status <= MAX_STATUS; status++) {
+                keys.add(getIndexKey(memberId, status));
+            }
+            stringRedisTemplate.delete(keys);
+        } catch (DataAccessException e) {
+            LOGGER.warn("Evict member order read model failed, memberId: {}", memberId, e);
+        }
+    }
+
+    private String getLoadedKey(Long memberId) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_MEMBER_ORDER + ":" + memberId + ":loaded";
+    }
+
+    private String getVersionKey(Long memberId) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_MEMBER_ORDER + ":" + memberId + ":version";
+    }
+
+    private String getOrderKey(Long memberId) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_MEMBER_ORDER + ":" + memberId;
+    }
+
+    private String getIndexKey(Long memberId, Integer status) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_MEMBER_ORDER + ":" + memberId + ":" + (status == null ? INDEX_ALL : status);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static DefaultRedisScript<Long> script(String path) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(path));
+        script.setResultType(Long.class);
+        return script;
+    }
+}
@@ -0,0 +1,18 @@
+package com.peng.sms.component;
+
+/**
+ * Schedules the cancellation of orders left unpaid past their timeout
+ * The implementation is chosen with order.cancelScheduler, timingWheel by default or rabbit for the delay queue.
+ */
+public interface OrderCancelScheduler {
+
+    /**
+     * Cancel the order after the delay unless it has been paid by then
+     */
+    void schedule(Long orderId, long delayMillis);
+
+    /**
+     * Withdraw the pending cancellation of a paid or cancelled order, if the implementation supports it
+     */
+    void unschedule(Long orderId);
+}
@@ -0,0 +1,41 @@
+package com.peng.sms.component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.peng.sms.domain.OmsOrderOutbox;
+import com.peng.sms.service.OmsOrderOutboxService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Handler for order events relayed from the outbox
+ */
+@Component
+public class OrderEventReceiver {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OrderEventReceiver.class);
+
+    @Autowired
+    private OmsOrderOutboxService orderOutboxService;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Handle an incoming order event
+     *
+     * @param message the outbox event in JSON
+     */
+    @RabbitListener(queues = "mall.order.event")
+    public void handle(String message) {
+        OmsOrderOutbox outbox;
+        try {
+            outbox = objectMapper.readValue(message, OmsOrderOutbox.class);
+        } catch (JsonProcessingException e) {
+            LOGGER.warn("Received invalid order event: {}", message, e);
+            return;
+        }
+        orderOutboxService.handle(outbox);
+    }
+}
@@ -0,0 +1,46 @@
+package com.peng.sms.component;
+
+import com.peng.sms.service.OmsOrderOutboxService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Relay publishing order outbox events to RabbitMQ
+ */
+@Component
+public class OrderOutboxRelay {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OrderOutboxRelay.class);
+
+    @Autowired
+    private OmsOrderOutboxService orderOutboxService;
+    @Value("${order.outboxBatchSize}")
+    private Integer OUTBOX_BATCH_SIZE;
+
+    /**
+     * Publish pending events batch by batch until the outbox is drained
+     */
+    @Scheduled(fixedDelayString = "${order.outboxRelayInterval}")
+    public void relay() {
+        try {
+            int count;
+            do {
+                count = orderOutboxService.relayBatch();
+            } while (count >= OUTBOX_BATCH_SIZE);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Relay order outbox events failed, retrying next round", e);
+        }
+    }
+
+    /**
+     * Delete handled events every day at 3 a.m.
+     */
+    @Scheduled(cron = "0 0 3 * * ?")
+    public void cleanup() {
+        int count = orderOutboxService.deleteHandled();
+        LOGGER.info("Deleted handled order outbox events: {}", count);
+    }
+}
@@ -0,0 +1,117 @@
+package com.peng.sms.component;
+
+import com.peng.sms.service.RedisService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Order number generator handing out sequence numbers from segments leased from Redis
+ * One INCRBY on the daily key leases a whole segment, numbers inside a segment are taken with a CAS,
+ * so only one order per segment pays for the Redis round trip.
+ * Order number: yyyyMMdd + 2-digit source type + 2-digit pay type + sequence padded to 6 digits.
+ */
+@Component
+public class OrderSnGenerator {
+    private static final long DAY_KEY_EXPIRE = 2 * 24 * 60 * 60;
+
+    @Autowired
+    private RedisService redisService;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.orderId}")
+    private String REDIS_KEY_ORDER_ID;
+    @Value("${order.snSegmentSize}")
+    private Integer SN_SEGMENT_SIZE;
+
+    private volatile Segment segment;
+
+    /**
+     * Generate an order number
+     */
+    public String generate(Integer sourceType, Integer payType) {
+        long now = System.currentTimeMillis();
+        while (true) {
+            Segment current = segment;
+            if (current != null && now < current.dayEnd) {
+                long sequence = current.next.getAndIncrement();
+                if (sequence <= current.end) {
+                    return format(current.date, sourceType, payType, sequence);
+                }
+            }
+            lease(current, now);
+        }
+    }
+
+    /**
+     * Lease a new segment unless another thread already replaced the exhausted one
+     */
+    private synchronized void lease(Segment exhausted, long now) {
+        if (segment != exhausted) {
+            return;
+        }
+        LocalDate day = LocalDate.now();
+        String date = formatDate(day);
+        String key = REDIS_DATABASE + ":" + REDIS_KEY_ORDER_ID + date;
+        long end = redisService.incr(key, SN_SEGMENT_SIZE);
+        if (end == SN_SEGMENT_SIZE) {
+            //当天第一次租用时设置过期时间
+            redisService.expire(key, DAY_KEY_EXPIRE);
+        }
+        long dayEnd = day.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        segment = new Segment(date, end - SN_SEGMENT_SIZE + 1, end, dayEnd);
+    }
+
+    private static String format(char[] date, Integer sourceType, Integer payType, long sequence) {
+        StringBuilder sb = new StringBuilder(20);
+        sb.append(date);
+        //未指定来源或支付方式时按0处理，避免拆箱时空指针，订单号保持固定长度
+        appendPadded(sb, sourceType == null ? 0 : sourceType, 2);
+        appendPadded(sb, payType == null ? 0 : payType, 2);
+        appendPadded(sb, sequence, 6);
+        return sb.toString();
+    }
+
+    private static String formatDate(LocalDate day) {
+        StringBuilder sb = new StringBuilder(8);
+        appendPadded(sb, day.getYear(), 4);
+        appendPadded(sb, day.getMonthValue(), 2);
+        appendPadded(sb, day.getDayOfMonth(), 2);
+        return sb.toString();
+    }
+
+    /**
+     * Append a number left padded with zeros, longer numbers are appended in full like String.format does
+     */
+    private static void appendPadded(StringBuilder sb, long value, int width) {
+        if (value >= 0) {
+            for (long limit = 10, digits = 1; digits < width; digits++, limit *= 10) {
+                if (value < limit) {
+                    sb.append('0');
+                }
+            }
+        }
+        sb.append(value);
+    }
+
+    /**
+     * Sequence numbers [next, end] of one day
+     */
+    private static final class Segment {
+        private final char[] date;
+        private final AtomicLong next;
+        private final long end;
+        private final long dayEnd;
+
+        private Segment(String date, long start, long end, long dayEnd) {
+            this.date = date.toCharArray();
+            this.next = new AtomicLong(start);
+            this.end = end;
+            this.dayEnd = dayEnd;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.peng.sms.component;
+
+import com.peng.sms.dao.PortalOrderDao;
+import com.peng.sms.model.OmsOrder;
+import com.peng.sms.model.OmsOrderOperateHistory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.CollectionUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Order status state machine
+ * Every transition is one conditional update on the expected current status, so concurrent callers
+ * (payment callbacks, cancel timers, members) cannot overwrite each other; the winner appends the
+ * operate history in the same transaction. The member order read model is refreshed after commit.
+ */
+@Component
+public class OrderStateMachine {
+    /**
+     * Operator of transitions triggered by the member
+     */
+    public static final String OPERATE_MAN_MEMBER = "用户";
+    /**
+     * Operator of transitions triggered by the system
+     */
+    public static final String OPERATE_MAN_SYSTEM = "系统";
+    /**
+     * Statuses in which members can delete orders: completed and closed
+     */
+    private static final int[] DELETABLE_STATUSES = {3, 4};
+
+    @Autowired
+    private PortalOrderDao portalOrderDao;
+    @Autowired
+    private MemberOrderReadModel memberOrderReadModel;
+    @Autowired
+    private OrderStatusCounter orderStatusCounter;
+
+    /**
+     * Declared order status transitions
+     * Status: 0->pending payment; 1->pending shipment; 2->shipped; 3->completed; 4->closed; 5->invalid
+     */
+    public enum Transition {
+        PAY(0, 1, "订单支付"),
+        CANCEL(0, 4, "订单取消"),
+        CONFIRM_RECEIVE(2, 3, "确认收货");
+
+        private final int fromStatus;
+        private final int toStatus;
+        private final String note;
+
+        Transition(int fromStatus, int toStatus, String note) {
+            this.fromStatus = fromStatus;
+            this.toStatus = toStatus;
+            this.note = note;
+        }
+    }
+
+    /**
+     * Apply a transition to one order
+     *
+     * @param memberId owner of the order, null to skip the owner check
+     * @param changes  columns changed together with the status, may be null
+     * @return false if the order is not in the source status of the transition, or not owned by the member
+     */
+    public boolean fire(Long orderId, Long memberId, Transition transition, OmsOrder changes, String operateMan) {
+        OmsOrder record = changes == null ? new OmsOrder() : changes;
+        Date now = new Date();
+        record.setStatus(transition.toStatus);
+        record.setModifyTime(now);
+        if (portalOrderDao.updateOrderStatusIf(orderId, memberId, transition.fromStatus, record) == 0) {
+            return false;
+        }
+        portalOrderDao.insertOperateHistoryList(Collections.singletonList(buildHistory(orderId, transition, operateMan, now)));
+        memberOrderReadModel.refreshAfterCommit(Collections.singletonList(orderId));
+        if (memberId != null) {
+            orderStatusCounter.moveAfterCommit(memberId, transition.fromStatus, transition.toStatus);
+        } else {
+            orderStatusCounter.moveAfterCommit(Collections.singletonList(orderId), transition.fromStatus, transition.toStatus);
+        }
+        return true;
+    }
+
+    /**
+     * Apply a transition to a batch of orders that the caller has locked in the source status
+     *
+     * @return number of orders moved
+     */
+    public int fireAll(List<Long> orderIds, Transition transition, String operateMan) {
+        if (CollectionUtils.isEmpty(orderIds)) {
+            return 0;
+        }
+        Date now = new Date();
+        int count = portalOrderDao.updateOrderStatusListIf(orderIds, transition.fromStatus, transition.toStatus, now);
+        List<OmsOrderOperateHistory> historyList = new ArrayList<>(orderIds.size());
+        for (Long orderId : orderIds) {
+            historyList.add(buildHistory(orderId, transition, operateMan, now));
+        }
+        portalOrderDao.insertOperateHistoryList(historyList);
+        memberOrderReadModel.refreshAfterCommit(orderIds);
+        orderStatusCounter.moveAfterCommit(orderIds, transition.fromStatus, transition.toStatus);
+        return count;
+    }
+
+    /**
+     * Mark a completed or closed order of the member as deleted, the status is left as is
+     *
+     * @return false if the order cannot be deleted
+     */
+    public boolean delete(Long orderId, Long memberId) {
+        Date now = new Date();
+        for (int status : DELETABLE_STATUSES) {
+            if (portalOrderDao.deleteOrderIf(orderId, memberId, status, now) > 0) {
+                memberOrderReadModel.refreshAfterCommit(Collections.singletonList(orderId));
+                orderStatusCounter.moveAfterCommit(memberId, status, null);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static OmsOrderOperateHistory buildHistory(Long orderId, Transition transition, String operateMan, Date now) {
+        OmsOrderOperateHistory history = new OmsOrderOperateHistory();
+        history.setOrderId(orderId);
+        history.setOperateMan(operateMan);
+        history.setCreateTime(now);
+        history.setOrderStatus(transition.toStatus);
+        history.setNote(transition.note);
+        return history;
+    }
+}
@@ -0,0 +1,230 @@
+package com.peng.sms.component;
+
+import com.peng.sms.dao.PortalOrderDao;
+import com.peng.sms.domain.OrderStatusCount;
+import com.peng.sms.model.OmsOrder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.CollectionUtils;
+
+import java.util.*;
+
+/**
+ * Per-member order counts by status kept in a Redis hash
+ * Counters are built from MySQL on first read and moved with HINCRBY in a Lua script after every
+ * portal status transition commits. Every move bumps a per-member version which is read before counting,
+ * so a build that a transition overtook is not written; a nightly job recomputes them from MySQL member by member in chunks
+ * to correct drift and pick up transitions made by the admin system.
+ */
+@Component
+public class OrderStatusCounter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OrderStatusCounter.class);
+    private static final DefaultRedisScript<Long> MOVE_SCRIPT = script("lua/order_status_count_move.lua");
+    private static final DefaultRedisScript<Long> LOAD_SCRIPT = script("lua/order_status_count_load.lua");
+    /**
+     * Order status: 0->pending payment; 1->pending shipment; 2->shipped; 3->completed; 4->closed; 5->invalid
+     */
+    private static final int MAX_STATUS = 5;
+    private static final int REBUILD_CHUNK_SIZE = 500;
+
+    @Autowired
+    private PortalOrderDao portalOrderDao;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.orderStatusCount}")
+    private String REDIS_KEY_ORDER_STATUS_COUNT;
+    @Value("${redis.expire.orderStatusCount}")
+    private Long REDIS_EXPIRE_ORDER_STATUS_COUNT;
+
+    /**
+     * Get the number of orders of the member per status, deleted orders are not counted
+     *
+     * @return status to number of orders, statuses without orders are included with 0
+     */
+    public Map<Integer, Long> get(Long memberId) {
+        //先读版本号再读数据库，统计期间有状态变更时不写入计数器
+        String version = stringRedisTemplate.opsForValue().get(getVersionKey(memberId));
+        Map<Object, Object> hash = stringRedisTemplate.opsForHash().entries(getKey(memberId));
+        Map<Integer, Long> countMap = emptyCountMap();
+        if (hash.isEmpty()) {
+            Map<Long, Map<Integer, Long>> memberCountMap = count(Collections.singletonList(memberId));
+            countMap = memberCountMap.get(memberId);
+            load(memberId, version, countMap);
+            return countMap;
+        }
+        for (Map.Entry<Object, Object> entry : hash.entrySet()) {
+            countMap.put(Integer.valueOf(entry.getKey().toString()), Math.max(Long.parseLong(entry.getValue().toString()), 0L));
+        }
+        return countMap;
+    }
+
+    /**
+     * Move one order of the member between statuses once the current transaction commits
+     *
+     * @param fromStatus status the order left, null for a new order
+     * @param toStatus   status the order entered, null for a deleted order
+     */
+    public void moveAfterCommit(Long memberId, Integer fromStatus, Integer toStatus) {
+        afterCommit(() -> move(Collections.singletonList(memberId), fromStatus, toStatus));
+    }
+
+    /**
+     * Move orders between statuses once the current transaction commits, their members are looked up by order ID
+     */
+    public void moveAfterCommit(List<Long> orderIds, Integer fromStatus, Integer toStatus) {
+        if (CollectionUtils.isEmpty(orderIds)) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(orderIds);
+        afterCommit(() -> {
+            List<Long> memberIds = new ArrayList<>();
+            for (OmsOrder order : portalOrderDao.getOrderMemberList(ids)) {
+                memberIds.add(order.getMemberId());
+            }
+            move(memberIds, fromStatus, toStatus);
+        });
+    }
+
+    /**
+     * Recompute the counters of every member with orders every night
+     */
+    @Scheduled(cron = "0 30 3 * * ?")
+    public void rebuild() {
+        int memberCount = 0;
+        Long afterMemberId = null;
+        while (true) {
+            List<Long> memberIds = portalOrderDao.getOrderMemberIds(afterMemberId, REBUILD_CHUNK_SIZE);
+            if (CollectionUtils.isEmpty(memberIds)) {
+                break;
+            }
+            List<String> versionKeys = new ArrayList<>(memberIds.size());
+            for (Long memberId : memberIds) {
+                versionKeys.add(getVersionKey(memberId));
+            }
+            List<String> versions = stringRedisTemplate.opsForValue().multiGet(versionKeys);
+            int index = 0;
+            for (Map.Entry<Long, Map<Integer, Long>> entry : count(memberIds).entrySet()) {
+                load(entry.getKey(), versions == null ? null : versions.get(index++), entry.getValue());
+            }
+            memberCount += memberIds.size();
+            afterMemberId = memberIds.get(memberIds.size() - 1);
+            if (memberIds.size() < REBUILD_CHUNK_SIZE) {
+                break;
+            }
+        }
+        LOGGER.info("Rebuilt order status counters, members: {}", memberCount);
+    }
+
+    /**
+     * Count the orders of the members per status in MySQL
+     */
+    private Map<Long, Map<Integer, Long>> count(List<Long> memberIds) {
+        Map<Long, Map<Integer, Long>> memberCountMap = new LinkedHashMap<>();
+        for (Long memberId : memberIds) {
+            memberCountMap.put(memberId, emptyCountMap());
+        }
+        for (OrderStatusCount statusCount : portalOrderDao.countOrderStatus(memberIds)) {
+            memberCountMap.get(statusCount.getMemberId()).put(statusCount.getStatus(), statusCount.getCount());
+        }
+        return memberCountMap;
+    }
+
+    /**
+     * Write the counters of the member unless a transition moved them after the version was read
+     *
+     * @param version version read before counting, null when there was none
+     */
+    private void load(Long memberId, String version, Map<Integer, Long> countMap) {
+        List<String> args = new ArrayList<>();
+        args.add(REDIS_EXPIRE_ORDER_STATUS_COUNT.toString());
+        args.add(version == null ? "0" : version);
+        for (Map.Entry<Integer, Long> entry : countMap.entrySet()) {
+            args.add(entry.getKey().toString());
+            args.add(entry.getValue().toString());
+        }
+        try {
+            Long loaded = stringRedisTemplate.execute(LOAD_SCRIPT, Arrays.asList(getKey(memberId), getVersionKey(memberId)), args.toArray());
+            if (loaded == null || loaded == 0) {
+                LOGGER.debug("Order status counters moved while counting, skip loading, memberId: {}", memberId);
+            }
+        } catch (DataAccessException e) {
+            LOGGER.warn("Load order status counters failed, memberId: {}", memberId, e);
+        }
+    }
+
+    private void move(List<Long> memberIds, Integer fromStatus, Integer toStatus) {
+        if (memberIds.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(memberIds.size() * 2);
+        List<String> countKeys = new ArrayList<>(memberIds.size());
+        List<String> args = new ArrayList<>(memberIds.size() * 2 + 1);
+        args.add(REDIS_EXPIRE_ORDER_STATUS_COUNT.toString());
+        for (Long memberId : memberIds) {
+            keys.add(getKey(memberId));
+            keys.add(getVersionKey(memberId));
+            countKeys.add(getKey(memberId));
+            args.add(fromStatus == null ? "" : fromStatus.toString());
+            args.add(toStatus == null ? "" : toStatus.toString());
+        }
+        try {
+            stringRedisTemplate.execute(MOVE_SCRIPT, keys, args.toArray());
+        } catch (DataAccessException e) {
+            //计数器更新失败时删除，下次读取时从数据库重建
+            LOGGER.warn("Move order status counters failed, dropping them", e);
+            try {
+                stringRedisTemplate.delete(countKeys);
+            } catch (DataAccessException ex) {
+                LOGGER.warn("Drop order status counters failed, they are corrected by the nightly rebuild", ex);
+            }
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private static Map<Integer, Long> emptyCountMap() {
+        Map<Integer, Long> countMap = new LinkedHashMap<>();
+        for (int status = 0; status <= MAX_STATUS; status++) {
+            countMap.put(status, 0L);
+        }
+        return countMap;
+    }
+
+    private String getKey(Long memberId) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_ORDER_STATUS_COUNT + ":" + memberId;
+    }
+
+    private String getVersionKey(Long memberId) {
+        return getKey(memberId) + ":version";
+    }
+
+    private static DefaultRedisScript<Long> script(String path) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(path));
+        script.setResultType(Long.class);
+        return script;
+    }
+}
@@ -0,0 +1,152 @@
+package com.peng.sms.component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.peng.sms.domain.PaymentNotifyMessage;
+import com.peng.sms.domain.QueueEnum;
+import com.peng.sms.service.OmsPortalOrderService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deduplicates verified payment notifications and hands them to a durable queue
+ * Alipay retries a notification until it sees "success", often several times while the first one is still being handled.
+ * A notification is only answered with "success" once it is in RabbitMQ, so a node going down never loses a payment.
+ * Repeats within a short window are dropped in memory, and a Redis key per trade number, written after the order
+ * is changed to paid, drops later retries across nodes without touching the order tables.
+ */
+@Component
+public class PaymentNotifyDispatcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PaymentNotifyDispatcher.class);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private OmsPortalOrderService portalOrderService;
+    @Autowired
+    private AmqpTemplate amqpTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.payNotify}")
+    private String REDIS_KEY_PAY_NOTIFY;
+    @Value("${redis.expire.payNotify}")
+    private Long REDIS_EXPIRE_PAY_NOTIFY;
+    @Value("${order.payNotifyDedupeWindow}")
+    private Long PAY_NOTIFY_DEDUPE_WINDOW;
+
+    /**
+     * Trade number to the end of its in-memory dedupe window
+     */
+    private final Map<String, Long> recentMap = new ConcurrentHashMap<>();
+
+    /**
+     * Accept a successful payment notification
+     *
+     * @param tradeNo Alipay transaction number
+     * @param orderSn merchant order number
+     * @return false when the notification could not be queued and should be retried by Alipay
+     */
+    public boolean dispatch(String tradeNo, String orderSn, Integer payType) {
+        if (!markRecent(tradeNo)) {
+            LOGGER.debug("Drop repeated payment notification within dedupe window, trade_no: {}", tradeNo);
+            return true;
+        }
+        if (isHandled(tradeNo)) {
+            LOGGER.info("Drop payment notification already handled, trade_no: {}, out_trade_no: {}", tradeNo, orderSn);
+            return true;
+        }
+        PaymentNotifyMessage message = new PaymentNotifyMessage();
+        message.setTradeNo(tradeNo);
+        message.setOrderSn(orderSn);
+        message.setPayType(payType);
+        message.setCreateTime(System.currentTimeMillis());
+        try {
+            amqpTemplate.convertAndSend(QueueEnum.QUEUE_ORDER_PAY.getExchange(), QueueEnum.QUEUE_ORDER_PAY.getRouteKey(),
+                    objectMapper.writeValueAsString(message));
+        } catch (AmqpException | JsonProcessingException e) {
+            LOGGER.warn("Queue payment notification failed, let Alipay retry, trade_no: {}", tradeNo, e);
+            recentMap.remove(tradeNo);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Apply a queued notification to its order, failures are thrown so the message is delivered again
+     * A payment for an order closed before it arrived is logged as an error for refunding and not marked handled.
+     */
+    public void process(PaymentNotifyMessage message) {
+        if (isHandled(message.getTradeNo())) {
+            LOGGER.info("Skip payment notification already handled, trade_no: {}", message.getTradeNo());
+            return;
+        }
+        if (!portalOrderService.paySuccessByOrderSn(message.getOrderSn(), message.getPayType())) {
+            // Not marked handled, so every retry of a payment that needs refunding is logged again
+            LOGGER.error("Payment notification for a closed order has to be refunded, trade_no: {}, out_trade_no: {}",
+                    message.getTradeNo(), message.getOrderSn());
+            return;
+        }
+        markHandled(message.getTradeNo(), message.getOrderSn());
+        LOGGER.info("Payment notification handled, trade_no: {}, out_trade_no: {}", message.getTradeNo(), message.getOrderSn());
+    }
+
+    /**
+     * Drop dedupe entries whose window has passed
+     */
+    @Scheduled(fixedDelay = 60 * 1000)
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        recentMap.values().removeIf(until -> until <= now);
+    }
+
+    /**
+     * Open the dedupe window of the trade number unless an earlier notification still holds it
+     */
+    private boolean markRecent(String tradeNo) {
+        long now = System.currentTimeMillis();
+        long until = now + PAY_NOTIFY_DEDUPE_WINDOW;
+        Long current = recentMap.putIfAbsent(tradeNo, until);
+        if (current == null) {
+            return true;
+        }
+        return current <= now && recentMap.replace(tradeNo, current, until);
+    }
+
+    /**
+     * Whether the payment was applied before, the order status check of paySuccess still guards the transition when Redis is unavailable
+     */
+    private boolean isHandled(String tradeNo) {
+        try {
+            return Boolean.TRUE.equals(stringRedisTemplate.hasKey(getKey(tradeNo)));
+        } catch (DataAccessException e) {
+            LOGGER.warn("Check payment notification in Redis failed, trade_no: {}", tradeNo, e);
+            return false;
+        }
+    }
+
+    private void markHandled(String tradeNo, String orderSn) {
+        try {
+            stringRedisTemplate.opsForValue().set(getKey(tradeNo), orderSn, Duration.ofSeconds(REDIS_EXPIRE_PAY_NOTIFY));
+        } catch (DataAccessException e) {
+            LOGGER.warn("Mark payment notification handled in Redis failed, trade_no: {}", tradeNo, e);
+        }
+    }
+
+    private String getKey(String tradeNo) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_PAY_NOTIFY + ":" + tradeNo;
+    }
+}
@@ -0,0 +1,56 @@
+package com.peng.sms.component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.peng.sms.domain.PaymentNotifyMessage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handler applying queued payment notifications to their orders
+ * The message is acknowledged after the order is paid, a failure leaves it in the queue to be delivered again.
+ */
+@Component
+public class PaymentNotifyReceiver {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PaymentNotifyReceiver.class);
+
+    private final PaymentNotifyDispatcher paymentNotifyDispatcher;
+    private final ObjectMapper objectMapper;
+    private final Timer lagTimer;
+
+    @Autowired
+    public PaymentNotifyReceiver(PaymentNotifyDispatcher paymentNotifyDispatcher, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.paymentNotifyDispatcher = paymentNotifyDispatcher;
+        this.objectMapper = objectMapper;
+        this.lagTimer = Timer.builder("mall.payment.notify.lag")
+                .description("Delay between a payment notification being accepted and being applied to its order")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Handle a queued payment notification
+     *
+     * @param body notification in JSON
+     */
+    @RabbitListener(queues = "mall.order.pay")
+    public void handle(String body) {
+        PaymentNotifyMessage message;
+        try {
+            message = objectMapper.readValue(body, PaymentNotifyMessage.class);
+        } catch (JsonProcessingException e) {
+            LOGGER.warn("Received invalid payment notification: {}", body, e);
+            return;
+        }
+        paymentNotifyDispatcher.process(message);
+        if (message.getCreateTime() != null) {
+            lagTimer.record(Math.max(System.currentTimeMillis() - message.getCreateTime(), 0), TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.peng.sms.component;
+
+import cn.hutool.core.util.IdUtil;
+import com.peng.sms.dao.PortalOrderDao;
+import com.peng.sms.model.OmsOrder;
+import com.peng.sms.service.AlipayService;
+import com.peng.sms.service.OmsPortalOrderService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reconciles unpaid orders against the payment gateway, for payments whose notification never arrived
+ * Unpaid orders within the configured age range are streamed in ID order, each chunk is queried concurrently
+ * on a bounded pool behind a rate limiter, and the orders found paid are changed to paid in one transaction.
+ * Only one node reconciles at a time, it holds a lease renewed after every chunk and gives it up when the run ends.
+ * Every order is queried with exponential backoff, the interval doubling after each check, and at most
+ * order.reconcileMaxChecks times, so an order that stays unpaid costs a bounded number of gateway queries.
+ * The gateway is reached through {@link AlipayService}, so replacing the AlipayClient bean with a local stub
+ * exercises the whole job without Alipay.
+ */
+@Component
+public class PaymentReconciler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PaymentReconciler.class);
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT = script("lua/lease_renew.lua");
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT = script("lua/lease_release.lua");
+
+    @Autowired
+    private PortalOrderDao portalOrderDao;
+    @Autowired
+    private AlipayService alipayService;
+    @Autowired
+    private OmsPortalOrderService portalOrderService;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    @Qualifier("paymentReconcileExecutor")
+    private ThreadPoolTaskExecutor paymentReconcileExecutor;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.payReconcile}")
+    private String REDIS_KEY_PAY_RECONCILE;
+    @Value("${order.reconcileInterval}")
+    private Long RECONCILE_INTERVAL;
+    @Value("${order.reconcileMinAge}")
+    private Integer RECONCILE_MIN_AGE;
+    @Value("${order.reconcileMaxAge}")
+    private Integer RECONCILE_MAX_AGE;
+    @Value("${order.reconcileBatchSize}")
+    private Integer RECONCILE_BATCH_SIZE;
+    @Value("${order.reconcileMaxChecks}")
+    private Integer RECONCILE_MAX_CHECKS;
+    @Value("${order.reconcileLeaseTime}")
+    private Long RECONCILE_LEASE_TIME;
+
+    private final RateLimiter rateLimiter;
+    private final Counter paidCounter;
+    private final Counter unpaidCounter;
+    private final Counter failedCounter;
+    private final Timer lagTimer;
+    private final Timer runTimer;
+
+    @Autowired
+    public PaymentReconciler(@Value("${order.reconcileRateLimit}") Integer rateLimit, MeterRegistry meterRegistry) {
+        this.rateLimiter = new RateLimiter(rateLimit);
+        this.paidCounter = queryCounter(meterRegistry, "paid");
+        this.unpaidCounter = queryCounter(meterRegistry, "unpaid");
+        this.failedCounter = queryCounter(meterRegistry, "failed");
+        this.lagTimer = Timer.builder("mall.payment.reconcile.lag")
+                .description("Age of orders found paid by reconciliation, how long the payment went unnoticed")
+                .register(meterRegistry);
+        this.runTimer = Timer.builder("mall.payment.reconcile.run")
+                .description("Duration of one reconciliation run")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Reconcile all unpaid orders in the age range
+     *
+     * @return number of orders changed to paid
+     */
+    @Scheduled(fixedDelayString = "${order.reconcileInterval}", initialDelayString = "${order.reconcileInterval}")
+    public int reconcile() {
+        String token = IdUtil.fastSimpleUUID();
+        if (!tryLease(token)) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        int checked = 0;
+        int paid = 0;
+        Long afterId = null;
+        try {
+            while (true) {
+                List<OmsOrder> orderList = portalOrderDao.getUnpaidOrderList(RECONCILE_MIN_AGE, RECONCILE_MAX_AGE, afterId, RECONCILE_BATCH_SIZE);
+                if (orderList.isEmpty()) {
+                    break;
+                }
+                Map<Long, CheckState> stateMap = getCheckStateMap(orderList);
+                List<OmsOrder> dueList = new ArrayList<>(orderList.size());
+                long now = System.currentTimeMillis();
+                for (OmsOrder order : orderList) {
+                    if (stateMap.get(order.getId()).isDue(now, RECONCILE_MAX_CHECKS)) {
+                        dueList.add(order);
+                    }
+                }
+                if (!dueList.isEmpty()) {
+                    paid += reconcileBatch(dueList, stateMap);
+                    checked += dueList.size();
+                }
+                afterId = orderList.get(orderList.size() - 1).getId();
+                if (orderList.size() < RECONCILE_BATCH_SIZE) {
+                    break;
+                }
+                if (!renewLease(token)) {
+                    LOGGER.warn("Payment reconciliation lease lost, stop after order {}", afterId);
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Payment reconciliation stopped after order {}", afterId, e);
+        } finally {
+            releaseLease(token);
+            runTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        if (checked > 0) {
+            LOGGER.info("Payment reconciliation finished, checked: {}, paid: {}", checked, paid);
+        }
+        return paid;
+    }
+
+    /**
+     * Query the gateway for a chunk of orders concurrently and apply the payments found
+     */
+    private int reconcileBatch(List<OmsOrder> orderList, Map<Long, CheckState> stateMap) {
+        List<CompletableFuture<String>> futures = new ArrayList<>(orderList.size());
+        for (OmsOrder order : orderList) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                rateLimiter.acquire();
+                return alipayService.queryTradeStatus(order.getOrderSn());
+            }, paymentReconcileExecutor).exceptionally(e -> {
+                LOGGER.warn("Query payment of order failed, orderSn: {}", order.getOrderSn(), e);
+                return null;
+            }));
+        }
+        long now = System.currentTimeMillis();
+        List<String> paidOrderSnList = new ArrayList<>();
+        for (int i = 0; i < orderList.size(); i++) {
+            OmsOrder order = orderList.get(i);
+            String tradeStatus = futures.get(i).join();
+            if (tradeStatus == null) {
+                //交易不存在时查询也返回失败，同样计入次数，保证每个订单的查询次数有上限
+                failedCounter.increment();
+            } else if ("TRADE_SUCCESS".equals(tradeStatus) || "TRADE_FINISHED".equals(tradeStatus)) {
+                paidCounter.increment();
+                paidOrderSnList.add(order.getOrderSn());
+                if (order.getCreateTime() != null) {
+                    lagTimer.record(Math.max(now - order.getCreateTime().getTime(), 0), TimeUnit.MILLISECONDS);
+                }
+            } else {
+                unpaidCounter.increment();
+            }
+        }
+        saveCheckStates(orderList, stateMap, now);
+        if (paidOrderSnList.isEmpty()) {
+            return 0;
+        }
+        LOGGER.warn("Found paid orders without payment notification: {}", paidOrderSnList);
+        try {
+            return portalOrderService.paySuccessByOrderSnList(paidOrderSnList, 1);
+        } catch (RuntimeException e) {
+            //整批失败时逐个处理，避免一个订单拖累整批
+            LOGGER.warn("Apply reconciled payments in batch failed, apply one by one", e);
+            int count = 0;
+            for (String orderSn : paidOrderSnList) {
+                try {
+                    //已关闭订单的付款由订单服务记录错误等待退款，不计入
+                    if (portalOrderService.paySuccessByOrderSn(orderSn, 1)) {
+                        count++;
+                    }
+                } catch (RuntimeException ex) {
+                    LOGGER.error("Apply reconciled payment failed, orderSn: {}", orderSn, ex);
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Get the check count and next check time of the orders, orders never checked or unknown when Redis is unavailable are due
+     */
+    private Map<Long, CheckState> getCheckStateMap(List<OmsOrder> orderList) {
+        List<String> keys = new ArrayList<>(orderList.size());
+        for (OmsOrder order : orderList) {
+            keys.add(getCheckKey(order.getId()));
+        }
+        List<String> values = null;
+        try {
+            values = stringRedisTemplate.opsForValue().multiGet(keys);
+        } catch (DataAccessException e) {
+            LOGGER.warn("Read payment reconciliation checks failed, query all orders", e);
+        }
+        Map<Long, CheckState> stateMap = new HashMap<>();
+        for (int i = 0; i < orderList.size(); i++) {
+            String value = values == null ? null : values.get(i);
+            stateMap.put(orderList.get(i).getId(), CheckState.parse(value));
+        }
+        return stateMap;
+    }
+
+    /**
+     * Count one more check of the queried orders and push their next check back, the wait doubles after every check
+     */
+    private void saveCheckStates(List<OmsOrder> orderList, Map<Long, CheckState> stateMap, long now) {
+        Duration expire = Duration.ofMinutes(RECONCILE_MAX_AGE);
+        for (OmsOrder order : orderList) {
+            CheckState state = stateMap.get(order.getId());
+            int count = state.count + 1;
+            long backoff = RECONCILE_INTERVAL << Math.min(count - 1, 20);
+            try {
+                stringRedisTemplate.opsForValue().set(getCheckKey(order.getId()), count + ":" + (now + backoff), expire);
+            } catch (DataAccessException e) {
+                LOGGER.warn("Save payment reconciliation check failed, orderId: {}", order.getId(), e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Take the reconciliation lease, reconcile anyway when Redis is unavailable since applying payments is idempotent
+     */
+    private boolean tryLease(String token) {
+        try {
+            return Boolean.TRUE.equals(stringRedisTemplate.opsForValue()
+                    .setIfAbsent(getLeaseKey(), token, Duration.ofMillis(RECONCILE_LEASE_TIME)));
+        } catch (DataAccessException e) {
+            LOGGER.warn("Take payment reconciliation lease failed", e);
+            return true;
+        }
+    }
+
+    /**
+     * Extend the lease for the next chunk, false when another node has taken it over
+     */
+    private boolean renewLease(String token) {
+        try {
+            Long result = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(getLeaseKey()),
+                    token, String.valueOf(RECONCILE_LEASE_TIME));
+            return result != null && result == 1;
+        } catch (DataAccessException e) {
+            LOGGER.warn("Renew payment reconciliation lease failed", e);
+            return true;
+        }
+    }
+
+    private void releaseLease(String token) {
+        try {
+            stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(getLeaseKey()), token);
+        } catch (DataAccessException e) {
+            LOGGER.warn("Release payment reconciliation lease failed, it expires on its own", e);
+        }
+    }
+
+    private String getLeaseKey() {
+        return REDIS_DATABASE + ":" + REDIS_KEY_PAY_RECONCILE + ":lease";
+    }
+
+    private String getCheckKey(Long orderId) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_PAY_RECONCILE + ":check:" + orderId;
+    }
+
+    private static DefaultRedisScript<Long> script(String path) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(path));
+        script.setResultType(Long.class);
+        return script;
+    }
+
+    private static Counter queryCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("mall.payment.reconcile.queries")
+                .description("Payment gateway queries of reconciliation by result, paid over all is the hit rate")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Number of gateway queries made for an order and the earliest time of the next one, stored as "count:nextCheckTime"
+     */
+    private static final class CheckState {
+        private static final CheckState NONE = new CheckState(0, 0);
+
+        private final int count;
+        private final long nextCheckTime;
+
+        private CheckState(int count, long nextCheckTime) {
+            this.count = count;
+            this.nextCheckTime = nextCheckTime;
+        }
+
+        private static CheckState parse(String value) {
+            if (value == null) {
+                return NONE;
+            }
+            int index = value.indexOf(':');
+            try {
+                return new CheckState(Integer.parseInt(value.substring(0, index)), Long.parseLong(value.substring(index + 1)));
+            } catch (RuntimeException e) {
+                return NONE;
+            }
+        }
+
+        private boolean isDue(long now, int maxChecks) {
+            return count < maxChecks && nextCheckTime <= now;
+        }
+    }
+
+    /**
+     * Spaces permits evenly, each caller reserves the next free slot and waits for it
+     */
+    private static final class RateLimiter {
+        private final long intervalNanos;
+        private final AtomicLong nextSlot = new AtomicLong(System.nanoTime());
+
+        private RateLimiter(int permitsPerSecond) {
+            this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(permitsPerSecond, 1);
+        }
+
+        private void acquire() {
+            long now = System.nanoTime();
+            long slot = nextSlot.getAndAccumulate(now, (next, current) -> Math.max(next, current) + intervalNanos);
+            long wait = Math.max(slot, now) - now;
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.peng.sms.component;
+
+import com.peng.sms.domain.PmsProductCategoryNode;
+import com.peng.sms.mapper.PmsProductCategoryMapper;
+import com.peng.sms.model.PmsProductCategory;
+import com.peng.sms.model.PmsProductCategoryExample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * In-memory index of the product category tree
+ * The whole table is loaded into an immutable snapshot with a parent to children adjacency map,
+ * a rebuilt snapshot replaces the current one atomically.
+ */
+@Component
+public class ProductCategoryIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProductCategoryIndex.class);
+
+    @Autowired
+    private PmsProductCategoryMapper productCategoryMapper;
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * Get the category tree starting from the first-level categories
+     */
+    public List<PmsProductCategoryNode> getTree() {
+        return getSnapshot().tree;
+    }
+
+    /**
+     * Get the visible subcategories of a category sorted by sort descending
+     *
+     * @param parentId 0 for the first-level categories
+     */
+    public List<PmsProductCategory> getVisibleChildren(Long parentId) {
+        List<PmsProductCategory> children = getSnapshot().visibleChildrenMap.get(parentId);
+        return children == null ? new ArrayList<>() : new ArrayList<>(children);
+    }
+
+    /**
+     * Get the IDs of a category and all categories below it
+     */
+    public Set<Long> getDescendantIds(Long categoryId) {
+        Snapshot current = getSnapshot();
+        Set<Long> descendantIds = new LinkedHashSet<>();
+        Deque<Long> queue = new ArrayDeque<>();
+        queue.add(categoryId);
+        while (!queue.isEmpty()) {
+            Long id = queue.poll();
+            if (!descendantIds.add(id)) {
+                continue;
+            }
+            for (PmsProductCategory child : current.childrenMap.getOrDefault(id, Collections.emptyList())) {
+                queue.add(child.getId());
+            }
+        }
+        return descendantIds;
+    }
+
+    /**
+     * Rebuild the index every minute so changes made by the admin system are picked up
+     */
+    @Scheduled(fixedDelay = 60 * 1000)
+    public void refresh() {
+        try {
+            rebuild();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Rebuild product category index failed, keep serving current snapshot", e);
+        }
+    }
+
+    private Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            current = snapshot;
+            return current != null ? current : rebuild();
+        }
+    }
+
+    private Snapshot rebuild() {
+        List<PmsProductCategory> allList = productCategoryMapper.selectByExample(new PmsProductCategoryExample());
+        Snapshot rebuilt = new Snapshot(allList);
+        snapshot = rebuilt;
+        return rebuilt;
+    }
+
+    /**
+     * Immutable view of the category table
+     */
+    private static final class Snapshot {
+        private final Map<Long, List<PmsProductCategory>> childrenMap = new HashMap<>();
+        private final Map<Long, List<PmsProductCategory>> visibleChildrenMap = new HashMap<>();
+        private final List<PmsProductCategoryNode> tree;
+
+        private Snapshot(List<PmsProductCategory> allList) {
+            for (PmsProductCategory category : allList) {
+                childrenMap.computeIfAbsent(category.getParentId(), k -> new ArrayList<>()).add(category);
+            }
+            for (Map.Entry<Long, List<PmsProductCategory>> entry : childrenMap.entrySet()) {
+                List<PmsProductCategory> visibleList = new ArrayList<>();
+                for (PmsProductCategory category : entry.getValue()) {
+                    if (Integer.valueOf(1).equals(category.getShowStatus())) {
+                        visibleList.add(category);
+                    }
+                }
+                visibleList.sort(Comparator.comparing(PmsProductCategory::getSort, Comparator.nullsLast(Comparator.reverseOrder())));
+                visibleChildrenMap.put(entry.getKey(), visibleList);
+            }
+            this.tree = Collections.unmodifiableList(buildNodes(0L, new HashSet<>()));
+        }
+
+        private List<PmsProductCategoryNode> buildNodes(Long parentId, Set<Long> path) {
+            List<PmsProductCategoryNode> nodes = new ArrayList<>();
+            for (PmsProductCategory category : childrenMap.getOrDefault(parentId, Collections.emptyList())) {
+                //防止错误数据形成环导致无限递归
+                if (!path.add(category.getId())) {
+                    continue;
+                }
+                PmsProductCategoryNode node = new PmsProductCategoryNode();
+                BeanUtils.copyProperties(category, node);
+                node.setChildren(Collections.unmodifiableList(buildNodes(category.getId(), path)));
+                path.remove(category.getId());
+                nodes.add(node);
+            }
+            return nodes;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.peng.sms.component;
+
+import com.github.pagehelper.Page;
+import com.peng.sms.mapper.PmsProductMapper;
+import com.peng.sms.model.PmsProduct;
+import com.peng.sms.model.PmsProductExample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * In-memory inverted index for product search
+ * Name, subtitle, keywords and brand name of every product that is not deleted are indexed by character unigrams and bigrams,
+ * so a keyword is answered by intersecting posting lists and verifying the candidates instead of scanning pms_product.
+ * The index is an immutable snapshot rebuilt periodically. Changed products are kept in a small overlay next to it,
+ * searched by scanning and taking precedence over their snapshot documents, so an update costs one row read.
+ * Rebuilds and updates swap in a new state atomically, a rebuild folds the overlay into the new snapshot.
+ */
+@Component
+public class ProductSearchIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProductSearchIndex.class);
+    private static final char FIELD_SEPARATOR = '\u0001';
+    private static final int[] EMPTY = new int[0];
+    /**
+     * Changed products kept in the overlay before an update rebuilds the snapshot
+     */
+    private static final int MAX_OVERLAY_SIZE = 1000;
+
+    @Autowired
+    private PmsProductMapper productMapper;
+
+    private volatile State state;
+
+    /**
+     * Search products, matching every whitespace separated term of the keyword as a case-insensitive substring
+     *
+     * @param productCategoryIds categories to filter by, null for all categories
+     * @param sort               0->by relevance; 1->by new arrivals; 2->by sales; 3->price low to high; 4->price high to low
+     * @return one page of products carrying the total count, the same shape PageHelper returns
+     */
+    public Page<PmsProduct> search(String keyword, Long brandId, Collection<Long> productCategoryIds, Integer pageNum, Integer pageSize, Integer sort) {
+        State current = getState();
+        List<String> terms = tokenizeKeyword(keyword);
+        List<Doc> matchList = new ArrayList<>();
+        for (int ordinal : current.snapshot.candidates(terms)) {
+            Doc doc = current.snapshot.docs[ordinal];
+            if (!current.overlay.containsKey(doc.product.getId()) && doc.accepts(terms, brandId, productCategoryIds)) {
+                matchList.add(doc);
+            }
+        }
+        for (Doc doc : current.overlay.values()) {
+            if (doc != Doc.REMOVED && doc.accepts(terms, brandId, productCategoryIds)) {
+                matchList.add(doc);
+            }
+        }
+        matchList.sort(getComparator(sort, terms));
+
+        Page<PmsProduct> page = new Page<>(pageNum, pageSize);
+        page.setTotal(matchList.size());
+        int start = pageNum > 0 ? (pageNum - 1) * pageSize : 0;
+        for (int i = start; i < matchList.size() && i < start + pageSize; i++) {
+            page.add(matchList.get(i).product);
+        }
+        return page;
+    }
+
+    /**
+     * Rebuild the whole index from pms_product
+     *
+     * @return number of indexed products
+     */
+    public synchronized int reindex() {
+        PmsProductExample example = new PmsProductExample();
+        example.createCriteria().andDeleteStatusEqualTo(0);
+        List<PmsProduct> productList = productMapper.selectByExample(example);
+        Snapshot rebuilt = new Snapshot(productList);
+        state = new State(rebuilt, Collections.emptyMap());
+        LOGGER.info("Rebuilt product search index, products: {}, terms: {}", rebuilt.docs.length, rebuilt.postings.size());
+        return rebuilt.docs.length;
+    }
+
+    /**
+     * Re-read products after they change, deleted products are dropped from the index
+     */
+    public synchronized void update(Collection<Long> productIds) {
+        State current = state;
+        if (current == null || productIds.isEmpty()) {
+            return;
+        }
+        Map<Long, Doc> overlay = new HashMap<>(current.overlay);
+        for (Long productId : productIds) {
+            overlay.put(productId, Doc.REMOVED);
+        }
+        PmsProductExample example = new PmsProductExample();
+        example.createCriteria().andIdIn(new ArrayList<>(productIds)).andDeleteStatusEqualTo(0);
+        for (PmsProduct product : productMapper.selectByExample(example)) {
+            overlay.put(product.getId(), new Doc(product));
+        }
+        if (overlay.size() > MAX_OVERLAY_SIZE) {
+            reindex();
+            return;
+        }
+        state = new State(current.snapshot, Collections.unmodifiableMap(overlay));
+    }
+
+    /**
+     * Rebuild the index every 10 minutes as a safety net for changes that were not pushed through {@link #update(Collection)}
+     */
+    @Scheduled(fixedDelay = 10 * 60 * 1000)
+    public void refresh() {
+        try {
+            reindex();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Rebuild product search index failed, keep serving current snapshot", e);
+        }
+    }
+
+    private State getState() {
+        State current = state;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (state == null) {
+                reindex();
+            }
+            return state;
+        }
+    }
+
+    private Comparator<Doc> getComparator(Integer sort, List<String> terms) {
+        Comparator<Doc> byId = Comparator.comparing(doc -> doc.product.getId());
+        if (sort == null) {
+            return byId;
+        }
+        switch (sort) {
+            case 1:
+                return byId.reversed();
+            case 2:
+                return Comparator.<Doc, Integer>comparing(doc -> doc.product.getSale(), Comparator.nullsLast(Comparator.reverseOrder())).thenComparing(byId);
+            case 3:
+                return Comparator.<Doc, BigDecimal>comparing(doc -> doc.product.getPrice(), Comparator.nullsFirst(Comparator.naturalOrder())).thenComparing(byId);
+            case 4:
+                return Comparator.<Doc, BigDecimal>comparing(doc -> doc.product.getPrice(), Comparator.nullsLast(Comparator.reverseOrder())).thenComparing(byId);
+            default:
+                // Relevance: products whose name contains more of the terms come first
+                return Comparator.<Doc>comparingInt(doc -> -doc.nameMatchCount(terms)).thenComparing(byId);
+        }
+    }
+
+    private static List<String> tokenizeKeyword(String keyword) {
+        List<String> terms = new ArrayList<>();
+        if (keyword == null) {
+            return terms;
+        }
+        for (String term : keyword.toLowerCase(Locale.ROOT).trim().split("\\s+")) {
+            if (!term.isEmpty()) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * A product with its normalized searchable text
+     */
+    private static final class Doc {
+        /**
+         * Overlay marker of a product that is no longer searchable
+         */
+        private static final Doc REMOVED = new Doc(new PmsProduct());
+
+        private final PmsProduct product;
+        private final String name;
+        private final String text;
+
+        private Doc(PmsProduct product) {
+            this.product = product;
+            this.name = normalize(product.getName());
+            this.text = name + FIELD_SEPARATOR + normalize(product.getSubTitle()) + FIELD_SEPARATOR
+                    + normalize(product.getKeywords()) + FIELD_SEPARATOR + normalize(product.getBrandName());
+        }
+
+        private boolean accepts(List<String> terms, Long brandId, Collection<Long> productCategoryIds) {
+            if (brandId != null && !brandId.equals(product.getBrandId())) {
+                return false;
+            }
+            if (productCategoryIds != null && !productCategoryIds.contains(product.getProductCategoryId())) {
+                return false;
+            }
+            return matches(terms);
+        }
+
+        private boolean matches(List<String> terms) {
+            for (String term : terms) {
+                if (!text.contains(term)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int nameMatchCount(List<String> terms) {
+            int count = 0;
+            for (String term : terms) {
+                if (name.contains(term)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Snapshot with the products changed since it was built
+     */
+    private static final class State {
+        private final Snapshot snapshot;
+        /**
+         * Product ID to its current document, {@link Doc#REMOVED} for products dropped from the index
+         */
+        private final Map<Long, Doc> overlay;
+
+        private State(Snapshot snapshot, Map<Long, Doc> overlay) {
+            this.snapshot = snapshot;
+            this.overlay = overlay;
+        }
+    }
+
+    /**
+     * Immutable index: documents ordered by product ID and term to sorted document ordinal postings
+     */
+    private static final class Snapshot {
+        private final Doc[] docs;
+        private final Map<String, int[]> postings;
+
+        private Snapshot(List<PmsProduct> productList) {
+            List<PmsProduct> sortedList = new ArrayList<>(productList);
+            sortedList.sort(Comparator.comparing(PmsProduct::getId));
+            this.docs = new Doc[sortedList.size()];
+            Map<String, List<Integer>> termDocs = new HashMap<>();
+            for (int i = 0; i < docs.length; i++) {
+                docs[i] = new Doc(sortedList.get(i));
+                Set<String> docTerms = new HashSet<>();
+                String text = docs[i].text;
+                for (int j = 0; j < text.length(); j++) {
+                    char c = text.charAt(j);
+                    if (c == FIELD_SEPARATOR) {
+                        continue;
+                    }
+                    docTerms.add(String.valueOf(c));
+                    if (j + 1 < text.length() && text.charAt(j + 1) != FIELD_SEPARATOR) {
+                        docTerms.add(text.substring(j, j + 2));
+                    }
+                }
+                for (String term : docTerms) {
+                    termDocs.computeIfAbsent(term, k -> new ArrayList<>()).add(i);
+                }
+            }
+            this.postings = new HashMap<>(termDocs.size() * 2);
+            for (Map.Entry<String, List<Integer>> entry : termDocs.entrySet()) {
+                List<Integer> ordinals = entry.getValue();
+                int[] array = new int[ordinals.size()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = ordinals.get(i);
+                }
+                postings.put(entry.getKey(), array);
+            }
+        }
+
+        /**
+         * Ordinals of documents that contain every gram of every term, still to be verified by {@link Doc#matches(List)}
+         */
+        private int[] candidates(List<String> terms) {
+            if (terms.isEmpty()) {
+                int[] all = new int[docs.length];
+                for (int i = 0; i < all.length; i++) {
+                    all[i] = i;
+                }
+                return all;
+            }
+            int[] result = null;
+            for (String term : terms) {
+                List<String> grams = new ArrayList<>();
+                if (term.length() == 1) {
+                    grams.add(term);
+                } else {
+                    for (int i = 0; i + 1 < term.length(); i++) {
+                        grams.add(term.substring(i, i + 2));
+                    }
+                }
+                for (String gram : grams) {
+                    int[] posting = postings.getOrDefault(gram, EMPTY);
+                    result = result == null ? posting : intersect(result, posting);
+                    if (result.length == 0) {
+                        return EMPTY;
+                    }
+                }
+            }
+            return result;
+        }
+
+        private static int[] intersect(int[] a, int[] b) {
+            int[] result = new int[Math.min(a.length, b.length)];
+            int i = 0, j = 0, k = 0;
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j]) {
+                    i++;
+                } else if (a[i] > b[j]) {
+                    j++;
+                } else {
+                    result[k++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+            return Arrays.copyOf(result, k);
+        }
+    }
+}
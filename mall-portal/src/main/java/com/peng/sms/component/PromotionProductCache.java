@@ -0,0 +1,171 @@
+package com.peng.sms.component;
+
+import com.peng.sms.mapper.PmsProductFullReductionMapper;
+import com.peng.sms.mapper.PmsProductLadderMapper;
+import com.peng.sms.mapper.PmsProductMapper;
+import com.peng.sms.model.*;
+import com.peng.sms.service.RedisService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Versioned in-process cache of product promotion rules
+ * Each product keeps a snapshot of its promotion type, gifts, ladders and full reductions.
+ * Bumping the version in Redis invalidates the snapshots on every node, which happens when a product notice
+ * arrives through {@link CacheInvalidateReceiver}; the expiry only bounds how long a missed notice goes unnoticed.
+ * SKU prices and stock are not cached here, they are read by primary key for each calculation.
+ */
+@Component
+public class PromotionProductCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PromotionProductCache.class);
+
+    @Autowired
+    private PmsProductMapper productMapper;
+    @Autowired
+    private PmsProductLadderMapper productLadderMapper;
+    @Autowired
+    private PmsProductFullReductionMapper productFullReductionMapper;
+    @Autowired
+    private RedisService redisService;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.promotionProductVersion}")
+    private String REDIS_KEY_PROMOTION_PRODUCT_VERSION;
+    @Value("${redis.expire.promotionProduct}")
+    private Long REDIS_EXPIRE_PROMOTION_PRODUCT;
+
+    private final Map<Long, Snapshot> snapshotMap = new ConcurrentHashMap<>();
+    private volatile long lastVersion;
+
+    /**
+     * Get promotion snapshots of the given products, products that do not exist are absent from the result
+     */
+    public Map<Long, Snapshot> getSnapshotMap(Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return new HashMap<>();
+        }
+        long version = getVersion();
+        long now = System.currentTimeMillis();
+        Map<Long, Snapshot> result = new HashMap<>();
+        List<Long> missIds = new ArrayList<>();
+        for (Long productId : new LinkedHashSet<>(productIds)) {
+            Snapshot snapshot = snapshotMap.get(productId);
+            if (snapshot != null && snapshot.version == version && now < snapshot.expireAt) {
+                result.put(productId, snapshot);
+            } else {
+                missIds.add(productId);
+            }
+        }
+        if (!missIds.isEmpty()) {
+            for (Snapshot snapshot : load(missIds, version, now)) {
+                snapshotMap.put(snapshot.getProduct().getId(), snapshot);
+                result.put(snapshot.getProduct().getId(), snapshot);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Invalidate all snapshots, called when products or their promotion settings change
+     */
+    public void evict() {
+        snapshotMap.clear();
+        try {
+            redisService.incr(getVersionKey(), 1);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Bump promotion product version failed, other nodes refresh after expiry", e);
+        }
+    }
+
+    /**
+     * Load snapshots with one query per table instead of joining ladders and full reductions onto each SKU
+     */
+    private List<Snapshot> load(List<Long> productIds, long version, long now) {
+        PmsProductExample productExample = new PmsProductExample();
+        productExample.createCriteria().andIdIn(productIds);
+        List<PmsProduct> productList = productMapper.selectByExample(productExample);
+        if (productList.isEmpty()) {
+            return Collections.emptyList();
+        }
+        PmsProductLadderExample ladderExample = new PmsProductLadderExample();
+        ladderExample.createCriteria().andProductIdIn(productIds);
+        ladderExample.setOrderByClause("id asc");
+        Map<Long, List<PmsProductLadder>> ladderMap = new HashMap<>();
+        for (PmsProductLadder ladder : productLadderMapper.selectByExample(ladderExample)) {
+            ladderMap.computeIfAbsent(ladder.getProductId(), k -> new ArrayList<>()).add(ladder);
+        }
+        PmsProductFullReductionExample fullReductionExample = new PmsProductFullReductionExample();
+        fullReductionExample.createCriteria().andProductIdIn(productIds);
+        fullReductionExample.setOrderByClause("id asc");
+        Map<Long, List<PmsProductFullReduction>> fullReductionMap = new HashMap<>();
+        for (PmsProductFullReduction fullReduction : productFullReductionMapper.selectByExample(fullReductionExample)) {
+            fullReductionMap.computeIfAbsent(fullReduction.getProductId(), k -> new ArrayList<>()).add(fullReduction);
+        }
+        long expireAt = now + REDIS_EXPIRE_PROMOTION_PRODUCT * 1000;
+        List<Snapshot> result = new ArrayList<>(productList.size());
+        for (PmsProduct product : productList) {
+            List<PmsProductLadder> ladderList = ladderMap.getOrDefault(product.getId(), new ArrayList<>());
+            List<PmsProductFullReduction> fullReductionList = fullReductionMap.getOrDefault(product.getId(), new ArrayList<>());
+            //按门槛从高到低排序，计算时取第一个满足条件的优惠
+            ladderList.sort((o1, o2) -> o2.getCount() - o1.getCount());
+            fullReductionList.sort((o1, o2) -> o2.getFullPrice().subtract(o1.getFullPrice()).intValue());
+            result.add(new Snapshot(product, ladderList, fullReductionList, version, expireAt));
+        }
+        return result;
+    }
+
+    /**
+     * Read the current version, falling back to the last known one when Redis is unavailable
+     */
+    private long getVersion() {
+        try {
+            Object value = redisService.get(getVersionKey());
+            lastVersion = value == null ? 0L : Long.parseLong(value.toString());
+        } catch (RuntimeException e) {
+            LOGGER.warn("Read promotion product version failed, using version {}", lastVersion, e);
+        }
+        return lastVersion;
+    }
+
+    private String getVersionKey() {
+        return REDIS_DATABASE + ":" + REDIS_KEY_PROMOTION_PRODUCT_VERSION;
+    }
+
+    /**
+     * Promotion rules of one product, ladders and full reductions are sorted by threshold descending
+     */
+    public static final class Snapshot {
+        private final PmsProduct product;
+        private final List<PmsProductLadder> productLadderList;
+        private final List<PmsProductFullReduction> productFullReductionList;
+        private final long version;
+        private final long expireAt;
+
+        private Snapshot(PmsProduct product, List<PmsProductLadder> productLadderList,
+                         List<PmsProductFullReduction> productFullReductionList, long version, long expireAt) {
+            this.product = product;
+            this.productLadderList = Collections.unmodifiableList(productLadderList);
+            this.productFullReductionList = Collections.unmodifiableList(productFullReductionList);
+            this.version = version;
+            this.expireAt = expireAt;
+        }
+
+        public PmsProduct getProduct() {
+            return product;
+        }
+
+        public List<PmsProductLadder> getProductLadderList() {
+            return productLadderList;
+        }
+
+        public List<PmsProductFullReduction> getProductFullReductionList() {
+            return productFullReductionList;
+        }
+    }
+}
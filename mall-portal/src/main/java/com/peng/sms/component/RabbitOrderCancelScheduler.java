@@ -0,0 +1,27 @@
+package com.peng.sms.component;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Order cancel scheduler sending per-message TTL messages to the RabbitMQ delay queue
+ * Messages cannot be withdrawn, a paid order is skipped by the receiver when the message arrives.
+ */
+@Component
+@ConditionalOnProperty(name = "order.cancelScheduler", havingValue = "rabbit")
+public class RabbitOrderCancelScheduler implements OrderCancelScheduler {
+
+    @Autowired
+    private CancelOrderSender cancelOrderSender;
+
+    @Override
+    public void schedule(Long orderId, long delayMillis) {
+        cancelOrderSender.sendMessage(orderId, delayMillis);
+    }
+
+    @Override
+    public void unschedule(Long orderId) {
+        // Nothing to do, cancelOrder ignores orders that are no longer unpaid
+    }
+}
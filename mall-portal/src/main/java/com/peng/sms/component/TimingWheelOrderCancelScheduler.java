@@ -0,0 +1,145 @@
+package com.peng.sms.component;
+
+import com.peng.sms.service.OmsPortalOrderService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Set;
+
+/**
+ * Order cancel scheduler backed by an in-process timing wheel and a Redis sorted set
+ * The sorted set (order ID scored by deadline) is the durable, shared list of pending cancellations.
+ * Every node loads the timeouts due soon into its wheel, the node whose ZREM succeeds runs the cancellation,
+ * so timeouts survive restarts and fire exactly once across nodes.
+ */
+@Component
+@ConditionalOnProperty(name = "order.cancelScheduler", havingValue = "timingWheel", matchIfMissing = true)
+public class TimingWheelOrderCancelScheduler implements OrderCancelScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimingWheelOrderCancelScheduler.class);
+    private static final long TICK_MILLIS = 1000;
+    private static final int WHEEL_SIZE = 512;
+    private static final long LOAD_AHEAD_MILLIS = 2 * 60 * 1000;
+    private static final long RETRY_DELAY_MILLIS = 60 * 1000;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Lazy
+    @Autowired
+    private OmsPortalOrderService portalOrderService;
+    @Autowired
+    @Qualifier("orderCancelExecutor")
+    private ThreadPoolTaskExecutor orderCancelExecutor;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.orderCancel}")
+    private String REDIS_KEY_ORDER_CANCEL;
+
+    private HashedTimingWheel timingWheel;
+
+    @PostConstruct
+    public void start() {
+        timingWheel = new HashedTimingWheel("order-cancel-wheel", TICK_MILLIS, WHEEL_SIZE,
+                orderId -> orderCancelExecutor.execute(() -> fire(orderId)));
+        timingWheel.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        timingWheel.stop();
+    }
+
+    @Override
+    public void schedule(Long orderId, long delayMillis) {
+        long deadline = System.currentTimeMillis() + delayMillis;
+        stringRedisTemplate.opsForZSet().add(getKey(), orderId.toString(), deadline);
+        timingWheel.add(orderId, deadline);
+    }
+
+    @Override
+    public void unschedule(Long orderId) {
+        //在事务中调用时等提交后再移除，回滚时保留超时取消
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    remove(orderId);
+                }
+            });
+        } else {
+            remove(orderId);
+        }
+    }
+
+    /**
+     * Load timeouts due within the next two minutes into the wheel, including those scheduled by other or restarted nodes
+     */
+    @Scheduled(fixedDelay = 30 * 1000)
+    public void loadDueTimeouts() {
+        try {
+            Set<ZSetOperations.TypedTuple<String>> dueSet = stringRedisTemplate.opsForZSet()
+                    .rangeByScoreWithScores(getKey(), 0, System.currentTimeMillis() + LOAD_AHEAD_MILLIS);
+            if (dueSet == null) {
+                return;
+            }
+            for (ZSetOperations.TypedTuple<String> due : dueSet) {
+                if (due.getValue() != null && due.getScore() != null) {
+                    timingWheel.add(Long.valueOf(due.getValue()), due.getScore().longValue());
+                }
+            }
+        } catch (DataAccessException e) {
+            LOGGER.warn("Load due order timeouts from Redis failed", e);
+        }
+    }
+
+    private void remove(Long orderId) {
+        timingWheel.remove(orderId);
+        try {
+            stringRedisTemplate.opsForZSet().remove(getKey(), orderId.toString());
+        } catch (DataAccessException e) {
+            LOGGER.warn("Remove order timeout failed, orderId: {}", orderId, e);
+        }
+    }
+
+    /**
+     * Cancel the order if this node is the one claiming the timeout
+     */
+    private void fire(Long orderId) {
+        Long claimed;
+        try {
+            claimed = stringRedisTemplate.opsForZSet().remove(getKey(), orderId.toString());
+        } catch (DataAccessException e) {
+            LOGGER.warn("Claim order timeout failed, retrying later, orderId: {}", orderId, e);
+            timingWheel.add(orderId, System.currentTimeMillis() + RETRY_DELAY_MILLIS);
+            return;
+        }
+        if (claimed == null || claimed == 0) {
+            return;
+        }
+        try {
+            portalOrderService.cancelOrder(orderId);
+            LOGGER.info("Cancelled timed-out order, orderId: {}", orderId);
+        } catch (RuntimeException e) {
+            LOGGER.error("Cancel timed-out order failed, retrying later, orderId: {}", orderId, e);
+            schedule(orderId, RETRY_DELAY_MILLIS);
+        }
+    }
+
+    private String getKey() {
+        return REDIS_DATABASE + ":" + REDIS_KEY_ORDER_CANCEL;
+    }
+}
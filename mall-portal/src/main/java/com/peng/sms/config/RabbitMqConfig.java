@@ -2,6 +2,10 @@ package com.peng.sms.config;
 
 import com.peng.sms.domain.QueueEnum;
 import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -10,6 +14,22 @@ import org.springframework.context.annotation.Configuration;
  */
 @Configuration
 public class RabbitMqConfig {
+    @Value("${order.cancelConsumer.batchSize}")
+    private Integer CANCEL_CONSUMER_BATCH_SIZE;
+    @Value("${order.cancelConsumer.prefetch}")
+    private Integer CANCEL_CONSUMER_PREFETCH;
+    @Value("${order.cancelConsumer.concurrency}")
+    private Integer CANCEL_CONSUMER_CONCURRENCY;
+    @Value("${order.cancelConsumer.maxConcurrency}")
+    private Integer CANCEL_CONSUMER_MAX_CONCURRENCY;
+    @Value("${order.flashConsumer.batchSize}")
+    private Integer FLASH_CONSUMER_BATCH_SIZE;
+    @Value("${order.flashConsumer.prefetch}")
+    private Integer FLASH_CONSUMER_PREFETCH;
+    @Value("${order.flashConsumer.concurrency}")
+    private Integer FLASH_CONSUMER_CONCURRENCY;
+    @Value("${order.flashConsumer.maxConcurrency}")
+    private Integer FLASH_CONSUMER_MAX_CONCURRENCY;
 
     /**
      * Exchange bound to the actual order consumption queue
@@ -53,6 +73,82 @@ public class RabbitMqConfig {
                 .build();
     }
 
+    /**
+     * Exchange bound to the order event queue
+     */
+    @Bean
+    DirectExchange orderEventDirect() {
+        return (DirectExchange) ExchangeBuilder
+                .directExchange(QueueEnum.QUEUE_ORDER_EVENT.getExchange())
+                .durable(true)
+                .build();
+    }
+
+    /**
+     * Order event queue
+     */
+    @Bean
+    public Queue orderEventQueue() {
+        return new Queue(QueueEnum.QUEUE_ORDER_EVENT.getName());
+    }
+
+    /**
+     * Exchange bound to the flash promotion order queue
+     */
+    @Bean
+    DirectExchange orderFlashDirect() {
+        return (DirectExchange) ExchangeBuilder
+                .directExchange(QueueEnum.QUEUE_ORDER_FLASH.getExchange())
+                .durable(true)
+                .build();
+    }
+
+    /**
+     * Flash promotion order queue
+     */
+    @Bean
+    public Queue orderFlashQueue() {
+        return new Queue(QueueEnum.QUEUE_ORDER_FLASH.getName());
+    }
+
+    /**
+     * Exchange bound to the payment notification queue
+     */
+    @Bean
+    DirectExchange orderPayDirect() {
+        return (DirectExchange) ExchangeBuilder
+                .directExchange(QueueEnum.QUEUE_ORDER_PAY.getExchange())
+                .durable(true)
+                .build();
+    }
+
+    /**
+     * Payment notification queue
+     */
+    @Bean
+    public Queue orderPayQueue() {
+        return new Queue(QueueEnum.QUEUE_ORDER_PAY.getName());
+    }
+
+    /**
+     * Exchange bound to the cache invalidation queues
+     */
+    @Bean
+    DirectExchange cacheInvalidateDirect() {
+        return (DirectExchange) ExchangeBuilder
+                .directExchange(QueueEnum.QUEUE_CACHE_INVALIDATE.getExchange())
+                .durable(true)
+                .build();
+    }
+
+    /**
+     * Cache invalidation queue of this node, removed when the node disconnects
+     */
+    @Bean
+    public Queue cacheInvalidateQueue() {
+        return new AnonymousQueue(new Base64UrlNamingStrategy(QueueEnum.QUEUE_CACHE_INVALIDATE.getName() + "."));
+    }
+
     /**
      * Bind the order queue to its exchange
      */
@@ -74,4 +170,84 @@ public class RabbitMqConfig {
                 .to(orderTtlDirect)
                 .with(QueueEnum.QUEUE_TTL_ORDER_CANCEL.getRouteKey());
     }
+
+    /**
+     * Bind the order event queue to its exchange
+     */
+    @Bean
+    Binding orderEventBinding(DirectExchange orderEventDirect, Queue orderEventQueue) {
+        return BindingBuilder
+                .bind(orderEventQueue)
+                .to(orderEventDirect)
+                .with(QueueEnum.QUEUE_ORDER_EVENT.getRouteKey());
+    }
+
+    /**
+     * Bind the flash promotion order queue to its exchange
+     */
+    @Bean
+    Binding orderFlashBinding(DirectExchange orderFlashDirect, Queue orderFlashQueue) {
+        return BindingBuilder
+                .bind(orderFlashQueue)
+                .to(orderFlashDirect)
+                .with(QueueEnum.QUEUE_ORDER_FLASH.getRouteKey());
+    }
+
+    /**
+     * Bind the payment notification queue to its exchange
+     */
+    @Bean
+    Binding orderPayBinding(DirectExchange orderPayDirect, Queue orderPayQueue) {
+        return BindingBuilder
+                .bind(orderPayQueue)
+                .to(orderPayDirect)
+                .with(QueueEnum.QUEUE_ORDER_PAY.getRouteKey());
+    }
+
+    /**
+     * Bind the cache invalidation queue of this node to its exchange
+     */
+    @Bean
+    Binding cacheInvalidateBinding(DirectExchange cacheInvalidateDirect, Queue cacheInvalidateQueue) {
+        return BindingBuilder
+                .bind(cacheInvalidateQueue)
+                .to(cacheInvalidateDirect)
+                .with(QueueEnum.QUEUE_CACHE_INVALIDATE.getRouteKey());
+    }
+
+    /**
+     * Listener container factory delivering order cancellation messages in batches
+     * A batch is handed over when it is full or no more messages arrive within the receive timeout,
+     * and is acknowledged as a whole after the listener returns.
+     */
+    @Bean
+    SimpleRabbitListenerContainerFactory cancelOrderContainerFactory(SimpleRabbitListenerContainerFactoryConfigurer configurer,
+                                                                     ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(CANCEL_CONSUMER_BATCH_SIZE);
+        factory.setPrefetchCount(Math.max(CANCEL_CONSUMER_PREFETCH, CANCEL_CONSUMER_BATCH_SIZE));
+        factory.setConcurrentConsumers(CANCEL_CONSUMER_CONCURRENCY);
+        factory.setMaxConcurrentConsumers(Math.max(CANCEL_CONSUMER_MAX_CONCURRENCY, CANCEL_CONSUMER_CONCURRENCY));
+        return factory;
+    }
+
+    /**
+     * Listener container factory delivering accepted flash promotion orders in batches
+     */
+    @Bean
+    SimpleRabbitListenerContainerFactory flashOrderContainerFactory(SimpleRabbitListenerContainerFactoryConfigurer configurer,
+                                                                    ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(FLASH_CONSUMER_BATCH_SIZE);
+        factory.setPrefetchCount(Math.max(FLASH_CONSUMER_PREFETCH, FLASH_CONSUMER_BATCH_SIZE));
+        factory.setConcurrentConsumers(FLASH_CONSUMER_CONCURRENCY);
+        factory.setMaxConcurrentConsumers(Math.max(FLASH_CONSUMER_MAX_CONCURRENCY, FLASH_CONSUMER_CONCURRENCY));
+        return factory;
+    }
 }
@@ -1,7 +1,14 @@
 package com.peng.sms.config;
 
+import org.slf4j.MDC;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskDecorator;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * Configuration for scheduled tasks
@@ -9,4 +16,89 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 @Configuration
 @EnableScheduling
 public class SpringTaskConfig {
+
+    /**
+     * Executor that fetches the parts of a product detail concurrently
+     * Runs in the caller thread when saturated, so a busy pool degrades to the serial fetch.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor productDetailExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(16);
+        executor.setMaxPoolSize(32);
+        executor.setQueueCapacity(200);
+        executor.setThreadNamePrefix("product-detail-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+
+    /**
+     * Executor that cancels orders expired by the order timeout timing wheel
+     * Rejected timeouts stay in Redis and are picked up again by the next load of due timeouts.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor orderCancelExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(4);
+        executor.setMaxPoolSize(8);
+        executor.setQueueCapacity(10000);
+        executor.setThreadNamePrefix("order-cancel-");
+        return executor;
+    }
+
+    /**
+     * Executor that queries the payment gateway for reconciliation
+     * Runs in the caller thread when saturated, which throttles the reconciliation to the pool size.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor paymentReconcileExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(8);
+        executor.setMaxPoolSize(8);
+        executor.setQueueCapacity(200);
+        executor.setThreadNamePrefix("payment-reconcile-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+
+    /**
+     * Executor that assembles the stages of the order confirmation concurrently
+     * Tasks get the logging context of the submitting thread but not its request, which may have completed
+     * by the time a timed-out stage runs, so stages take the member ID resolved before submission.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor confirmOrderExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(16);
+        executor.setMaxPoolSize(32);
+        executor.setQueueCapacity(200);
+        executor.setThreadNamePrefix("confirm-order-");
+        executor.setTaskDecorator(mdcTaskDecorator());
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+
+    /**
+     * Copy the logging context of the submitting thread into the task
+     */
+    private static TaskDecorator mdcTaskDecorator() {
+        return runnable -> {
+            Map<String, String> mdcContext = MDC.getCopyOfContextMap();
+            return () -> {
+                Map<String, String> previousMdcContext = MDC.getCopyOfContextMap();
+                if (mdcContext != null) {
+                    MDC.setContextMap(mdcContext);
+                }
+                try {
+                    runnable.run();
+                } finally {
+                    if (previousMdcContext != null) {
+                        MDC.setContextMap(previousMdcContext);
+                    } else {
+                        MDC.clear();
+                    }
+                }
+            };
+        };
+    }
 }
@@ -1,5 +1,6 @@
 package com.peng.sms.controller;
 
+import com.peng.sms.api.CommonPage;
 import com.peng.sms.api.CommonResult;
 import com.peng.sms.domain.HomeContentResult;
 import com.peng.sms.model.CmsSubject;
@@ -81,4 +82,34 @@ public class HomeController {
         List<PmsProduct> productList = homeService.newProductList(pageNum, pageSize);
         return CommonResult.success(productList);
     }
+
+    @Operation(summary = "Get recommended products with cursor pagination")
+    @RequestMapping(value = "/recommendProductPage", method = RequestMethod.GET)
+    @ResponseBody
+    public CommonResult<CommonPage<PmsProduct>> recommendProductPage(
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "pageSize", defaultValue = "4") Integer pageSize) {
+        CommonPage<PmsProduct> productPage = homeService.recommendProductPage(cursor, pageSize);
+        return CommonResult.success(productPage);
+    }
+
+    @Operation(summary = "Get popular recommended products with cursor pagination")
+    @RequestMapping(value = "/hotProductPage", method = RequestMethod.GET)
+    @ResponseBody
+    public CommonResult<CommonPage<PmsProduct>> hotProductPage(
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "pageSize", defaultValue = "6") Integer pageSize) {
+        CommonPage<PmsProduct> productPage = homeService.hotProductPage(cursor, pageSize);
+        return CommonResult.success(productPage);
+    }
+
+    @Operation(summary = "Get newly recommended products with cursor pagination")
+    @RequestMapping(value = "/newProductPage", method = RequestMethod.GET)
+    @ResponseBody
+    public CommonResult<CommonPage<PmsProduct>> newProductPage(
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "pageSize", defaultValue = "6") Integer pageSize) {
+        CommonPage<PmsProduct> productPage = homeService.newProductPage(cursor, pageSize);
+        return CommonResult.success(productPage);
+    }
 }
@@ -0,0 +1,77 @@
+package com.peng.sms.controller;
+
+import com.peng.sms.api.CommonResult;
+import com.peng.sms.component.FlashWaitingRoom;
+import com.peng.sms.domain.FlashOrderParam;
+import com.peng.sms.domain.FlashOrderResult;
+import com.peng.sms.domain.FlashQueueTicket;
+import com.peng.sms.service.OmsFlashOrderService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Flash Promotion Order Controller
+ */
+@Controller
+@Tag(name = "OmsFlashOrderController", description = "Flash Promotion Order Management")
+@RequestMapping("/flashOrder")
+public class OmsFlashOrderController {
+
+    @Autowired
+    private OmsFlashOrderService flashOrderService;
+    @Autowired
+    private FlashWaitingRoom flashWaitingRoom;
+
+    @Operation(summary = "Queue for the running or upcoming flash promotion session",
+            description = "Ask again after waitSeconds until admitted, then send the passToken with the order")
+    @RequestMapping(value = "/queue", method = RequestMethod.POST)
+    @ResponseBody
+    public CommonResult<FlashQueueTicket> queue() {
+        if (!flashWaitingRoom.tryAcquire()) {
+            return CommonResult.failed("排队人数过多，请稍后重试");
+        }
+        try {
+            FlashQueueTicket ticket = flashOrderService.enterQueue();
+            if (ticket == null) {
+                return CommonResult.failed("当前没有秒杀场次");
+            }
+            return CommonResult.success(ticket);
+        } finally {
+            flashWaitingRoom.leave();
+        }
+    }
+
+    @Operation(summary = "Place a flash promotion order",
+            description = "Requires the pass of the waiting room. Answered right away, an accepted order is created in the background and its outcome is polled by order number")
+    @RequestMapping(value = "/submit", method = RequestMethod.POST)
+    @ResponseBody
+    public CommonResult<FlashOrderResult> submit(@RequestBody FlashOrderParam param) {
+        if (!flashWaitingRoom.tryAcquire()) {
+            return CommonResult.failed("抢购人数过多，请稍后重试");
+        }
+        try {
+            FlashOrderResult result = flashOrderService.submit(param);
+            if (FlashOrderResult.STATUS_FAILED == result.getStatus()) {
+                return CommonResult.failed(result.getMessage());
+            }
+            return CommonResult.success(result);
+        } finally {
+            flashWaitingRoom.leave();
+        }
+    }
+
+    @Operation(summary = "Get the outcome of a flash promotion order",
+            description = "Status: 0 -> queued; 1 -> created; 2 -> failed")
+    @RequestMapping(value = "/result", method = RequestMethod.GET)
+    @ResponseBody
+    public CommonResult<FlashOrderResult> result(@RequestParam String orderSn) {
+        FlashOrderResult result = flashOrderService.getResult(orderSn);
+        if (result == null) {
+            return CommonResult.failed("订单不存在或已过期");
+        }
+        return CommonResult.success(result);
+    }
+}
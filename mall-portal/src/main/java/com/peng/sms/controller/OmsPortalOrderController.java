@@ -0,0 +1,34 @@
+package com.peng.sms.controller;
+
+import com.peng.sms.api.CommonResult;
+import com.peng.sms.service.OmsPortalOrderService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.Map;
+
+/**
+ * Order Management Controller
+ */
+@Controller
+@Tag(name = "OmsPortalOrderController", description = "Order Management")
+@RequestMapping("/order")
+public class OmsPortalOrderController {
+
+    @Autowired
+    private OmsPortalOrderService portalOrderService;
+
+    @Operation(summary = "Get the number of orders of the current member per status",
+            description = "Status: 0 -> pending payment; 1 -> pending shipment; 2 -> shipped; 3 -> completed; 4 -> closed; 5 -> invalid")
+    @RequestMapping(value = "/statusCount", method = RequestMethod.GET)
+    @ResponseBody
+    public CommonResult<Map<Integer, Long>> statusCount() {
+        Map<Integer, Long> statusCountMap = portalOrderService.statusCount();
+        return CommonResult.success(statusCountMap);
+    }
+}
@@ -35,6 +35,15 @@ public class PortalBrandController {
         return CommonResult.success(brandList);
     }
 
+    @Operation(summary = "Get recommended brands with cursor pagination")
+    @RequestMapping(value = "/recommendPage", method = RequestMethod.GET)
+    @ResponseBody
+    public CommonResult<CommonPage<PmsBrand>> recommendPage(@RequestParam(value = "cursor", required = false) String cursor,
+                                                            @RequestParam(value = "pageSize", defaultValue = "6") Integer pageSize) {
+        CommonPage<PmsBrand> brandPage = homeBrandService.recommendPage(cursor, pageSize);
+        return CommonResult.success(brandPage);
+    }
+
     @Operation(summary = "Get brand details")
     @RequestMapping(value = "/detail/{brandId}", method = RequestMethod.GET)
     @ResponseBody
@@ -1,5 +1,6 @@
 package com.peng.sms.dao;
 
+import com.peng.sms.domain.CursorRow;
 import com.peng.sms.domain.FlashPromotionProduct;
 import com.peng.sms.model.CmsSubject;
 import com.peng.sms.model.PmsBrand;
@@ -36,4 +37,22 @@ public interface HomeDao {
      * Get recommended subjects
      */
     List<CmsSubject> getRecommendedSubjects(@Param("offset") Integer offset, @Param("limit") Integer limit);
+
+    /**
+     * Get recommended brands after the given position, ordered by sort and relation ID descending
+     *
+     * @param cursorSort sort value of the last record of the previous page, null for the first page
+     * @param cursorId   relation ID of the last record of the previous page
+     */
+    List<CursorRow<PmsBrand>> getRecommendedBrandsByCursor(@Param("cursorSort") Integer cursorSort, @Param("cursorId") Long cursorId, @Param("limit") Integer limit);
+
+    /**
+     * Get new products after the given position, ordered by sort and relation ID descending
+     */
+    List<CursorRow<PmsProduct>> getNewProductsByCursor(@Param("cursorSort") Integer cursorSort, @Param("cursorId") Long cursorId, @Param("limit") Integer limit);
+
+    /**
+     * Get hot products after the given position, ordered by sort and relation ID descending
+     */
+    List<CursorRow<PmsProduct>> getHotProductsByCursor(@Param("cursorSort") Integer cursorSort, @Param("cursorId") Long cursorId, @Param("limit") Integer limit);
 }
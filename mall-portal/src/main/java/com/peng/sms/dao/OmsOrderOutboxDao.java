@@ -0,0 +1,40 @@
+package com.peng.sms.dao;
+
+import com.peng.sms.domain.OmsOrderOutbox;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Custom DAO for the order event outbox
+ */
+public interface OmsOrderOutboxDao {
+
+    /**
+     * Insert an event, the generated ID is set back on it
+     */
+    int insert(OmsOrderOutbox outbox);
+
+    /**
+     * Lock the oldest pending events, skipping events locked by other relays
+     */
+    List<OmsOrderOutbox> getPendingListForUpdate(@Param("limit") Integer limit);
+
+    /**
+     * Mark pending events as published
+     */
+    int updatePublished(@Param("ids") List<Long> ids, @Param("publishTime") Date publishTime);
+
+    /**
+     * Mark an event as handled unless it already is
+     *
+     * @return 1 if this call claimed the event, 0 if it was handled before
+     */
+    int updateHandled(@Param("id") Long id);
+
+    /**
+     * Delete handled events created before the given time
+     */
+    int deleteHandledBefore(@Param("time") Date time);
+}
@@ -0,0 +1,17 @@
+package com.peng.sms.dao;
+
+import com.peng.sms.model.OmsCartItem;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * Custom DAO for shopping cart items
+ */
+public interface PortalCartItemDao {
+
+    /**
+     * Batch update quantity and modify date of cart items
+     */
+    int updateQuantityList(@Param("itemList") List<OmsCartItem> itemList);
+}
@@ -1,10 +1,17 @@
 package com.peng.sms.dao;
 
+import com.peng.sms.domain.OmsFlashOrderRelation;
 import com.peng.sms.domain.OmsOrderDetail;
+import com.peng.sms.domain.OrderStatusCount;
+import com.peng.sms.model.OmsOrder;
 import com.peng.sms.model.OmsOrderItem;
+import com.peng.sms.model.OmsOrderOperateHistory;
+import com.peng.sms.model.UmsMember;
 import org.apache.ibatis.annotations.Param;
 
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Custom DAO for frontend orders
@@ -22,19 +29,147 @@ public interface PortalOrderDao {
     int updateSkuStock(@Param("itemList") List<OmsOrderItem> orderItemList);
 
     /**
-     * Get orders that have timed out
+     * Get IDs of timed-out unpaid orders after the given ID, in ascending order
      *
-     * @param minute timeout in minutes
+     * @param minute  timeout in minutes
+     * @param afterId ID of the last order of the previous chunk, null for the first chunk
      */
-    List<OmsOrderDetail> getTimeOutOrders(@Param("minute") Integer minute);
+    List<Long> getTimeOutOrderIds(@Param("minute") Integer minute, @Param("afterId") Long afterId, @Param("limit") Integer limit);
 
     /**
-     * Batch update order status
+     * Lock the unpaid orders among the given IDs and get them with their ordered products
      */
-    int updateOrderStatus(@Param("ids") List<Long> ids, @Param("status") Integer status);
+    List<OmsOrderDetail> getUnpaidOrderDetailsForUpdate(@Param("ids") List<Long> ids);
+
+    /**
+     * Lock the orders with the given order numbers in ID order and get their current status, whatever it is
+     */
+    List<OmsOrderDetail> getOrderListBySnForUpdate(@Param("orderSnList") List<String> orderSnList);
 
     /**
      * Release the locked stock of cancelled orders
      */
     int releaseSkuStockLock(@Param("itemList") List<OmsOrderItem> orderItemList);
+
+    /**
+     * Lock stock only for SKUs whose available stock (stock - lock_stock) covers the ordered quantity
+     *
+     * @return number of SKUs locked, less than the list size means some SKUs were short
+     */
+    int lockSkuStockIfAvailable(@Param("itemList") List<OmsOrderItem> orderItemList);
+
+    /**
+     * Add integration to members in one statement, the integration of each member in the list is the amount to add
+     */
+    int addMemberIntegration(@Param("memberList") List<UmsMember> memberList);
+
+    /**
+     * Deduct integration from a member if the balance covers it
+     *
+     * @return 0 if the balance is not enough
+     */
+    int deductMemberIntegration(@Param("memberId") Long memberId, @Param("integration") Integer integration);
+
+    /**
+     * Move an order to the status of the record if it is still in the given status
+     *
+     * @param memberId owner of the order, null to skip the owner check
+     * @param record   target status and the columns changed with it, null columns are left as is
+     * @return 0 if the order is not in the given status
+     */
+    int updateOrderStatusIf(@Param("orderId") Long orderId, @Param("memberId") Long memberId,
+                            @Param("fromStatus") Integer fromStatus, @Param("record") OmsOrder record);
+
+    /**
+     * Batch move orders that are still in the given status to the target status
+     */
+    int updateOrderStatusListIf(@Param("ids") List<Long> ids, @Param("fromStatus") Integer fromStatus,
+                                @Param("toStatus") Integer toStatus, @Param("modifyTime") Date modifyTime);
+
+    /**
+     * Mark an order of the member in the given status as deleted
+     *
+     * @return 0 if the order does not belong to the member, is in another status, or is already deleted
+     */
+    int deleteOrderIf(@Param("orderId") Long orderId, @Param("memberId") Long memberId, @Param("status") Integer status,
+                      @Param("modifyTime") Date modifyTime);
+
+    /**
+     * Batch insert order operate history
+     */
+    int insertOperateHistoryList(@Param("historyList") List<OmsOrderOperateHistory> historyList);
+
+    /**
+     * Get orders of a member or with the given IDs, including deleted ones, without their ordered products
+     *
+     * @param memberId owner of the orders, null to select by IDs only
+     * @param ids      IDs of the orders, null to select all orders of the member
+     */
+    List<OmsOrderDetail> getOrderList(@Param("memberId") Long memberId, @Param("ids") List<Long> ids);
+
+    /**
+     * Get a page of the orders of a member that are not deleted, newest first, without their ordered products
+     *
+     * @param status   order status, null for all statuses
+     * @param beforeId only orders with a smaller ID, null for the newest orders
+     */
+    List<OmsOrderDetail> getMemberOrderList(@Param("memberId") Long memberId, @Param("status") Integer status,
+                                            @Param("beforeId") Long beforeId, @Param("offset") Long offset,
+                                            @Param("limit") Integer limit);
+
+    /**
+     * Get the ID and member ID of orders
+     */
+    List<OmsOrder> getOrderMemberList(@Param("ids") List<Long> ids);
+
+    /**
+     * Count the orders that are not deleted per member and status
+     */
+    List<OrderStatusCount> countOrderStatus(@Param("memberIds") List<Long> memberIds);
+
+    /**
+     * Get IDs of members having orders after the given member ID, in ascending order
+     *
+     * @param afterMemberId last member ID of the previous chunk, null for the first chunk
+     */
+    List<Long> getOrderMemberIds(@Param("afterMemberId") Long afterMemberId, @Param("limit") Integer limit);
+
+    /**
+     * Get the ID, order number and create time of unpaid orders created within the given age range, in ascending order of ID
+     *
+     * @param minMinute minimum age of the orders in minutes
+     * @param maxMinute maximum age of the orders in minutes
+     * @param afterId   ID of the last order of the previous chunk, null for the first chunk
+     */
+    List<OmsOrder> getUnpaidOrderList(@Param("minMinute") Integer minMinute, @Param("maxMinute") Integer maxMinute,
+                                      @Param("afterId") Long afterId, @Param("limit") Integer limit);
+
+    /**
+     * Batch insert orders in one statement, the generated IDs are set back on the orders
+     */
+    void insertOrderList(@Param("list") List<OmsOrder> list);
+
+    /**
+     * Subtract sold quantities from the remaining count of flash promotion products
+     *
+     * @param countMap flash promotion product relation ID to sold quantity
+     */
+    int deductFlashPromotionCount(@Param("countMap") Map<Long, Integer> countMap);
+
+    /**
+     * Add quantities of cancelled flash orders back to the remaining count of flash promotion products
+     *
+     * @param countMap flash promotion product relation ID to returned quantity
+     */
+    int addFlashPromotionCount(@Param("countMap") Map<Long, Integer> countMap);
+
+    /**
+     * Batch insert the flash promotion products of flash orders
+     */
+    int insertFlashOrderRelationList(@Param("list") List<OmsFlashOrderRelation> list);
+
+    /**
+     * Get the flash promotion products of the given orders, orders that are not flash orders have none
+     */
+    List<OmsFlashOrderRelation> getFlashOrderRelationList(@Param("orderIds") List<Long> orderIds);
 }
@@ -11,7 +11,7 @@ import java.util.List;
 public interface PortalOrderItemDao {
 
     /**
-     * Batch insert order items
+     * Batch insert order items in one statement, the generated IDs are set back on the items
      */
     void insertList(@Param("list") List<OmsOrderItem> list);
 }
@@ -12,5 +12,18 @@ import java.util.List;
 public interface SmsCouponHistoryDao {
     List<SmsCouponHistoryDetail> getDetailList(@Param("memberId") Long memberId);
 
+    /**
+     * Get unused coupons of a member with coupon information only, relations are loaded separately
+     */
+    List<SmsCouponHistoryDetail> getUnusedCouponList(@Param("memberId") Long memberId);
+
     List<SmsCoupon> getCouponList(@Param("memberId") Long memberId, @Param("useStatus") Integer useStatus);
+
+    /**
+     * Mark the earliest unused coupon of the member as used by the order
+     *
+     * @return 0 if the member has no unused coupon of this kind
+     */
+    int useCoupon(@Param("memberId") Long memberId, @Param("couponId") Long couponId,
+                  @Param("orderId") Long orderId, @Param("orderSn") String orderSn);
 }
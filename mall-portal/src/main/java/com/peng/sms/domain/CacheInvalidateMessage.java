@@ -0,0 +1,40 @@
+package com.peng.sms.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * Notice that rows cached by the portal were changed elsewhere, published by the admin system after its transaction commits
+ * Sent in JSON to the mall.cache.direct exchange with routing key mall.cache.invalidate, every portal node receives it.
+ */
+@Getter
+@Setter
+public class CacheInvalidateMessage {
+    /**
+     * Orders changed, ids are order IDs
+     */
+    public static final String TYPE_ORDER = "order";
+    /**
+     * Products, their SKUs or their promotion settings (ladders, full reductions, promotion price) changed, ids are product IDs
+     */
+    public static final String TYPE_PRODUCT = "product";
+    /**
+     * Coupons or their product and category relations changed, ids are coupon IDs
+     */
+    public static final String TYPE_COUPON = "coupon";
+    /**
+     * An administrator asked for the product search index to be rebuilt from pms_product, ids are not used
+     */
+    public static final String TYPE_PRODUCT_REINDEX = "productReindex";
+
+    /**
+     * Kind of the changed rows, one of the TYPE_ constants
+     */
+    private String type;
+    /**
+     * IDs of the changed rows, may be empty for {@link #TYPE_PRODUCT_REINDEX}
+     */
+    private List<Long> ids;
+}
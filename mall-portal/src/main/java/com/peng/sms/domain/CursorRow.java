@@ -0,0 +1,15 @@
+package com.peng.sms.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * A record fetched by keyset pagination together with the sort value and ID it is paged by
+ */
+@Getter
+@Setter
+public class CursorRow<T> {
+    private Integer sort;
+    private Long id;
+    private T item;
+}
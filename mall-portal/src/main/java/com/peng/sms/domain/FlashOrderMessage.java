@@ -0,0 +1,36 @@
+package com.peng.sms.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+
+/**
+ * Flash promotion order accepted against the Redis stock, queued to be created in MySQL
+ */
+@Getter
+@Setter
+public class FlashOrderMessage {
+    /**
+     * Order number handed to the client when the order was accepted
+     */
+    private String orderSn;
+    /**
+     * ID of the flash promotion product relation the stock was taken from
+     */
+    private Long relationId;
+    private Long productId;
+    private Long productSkuId;
+    private Integer quantity;
+    /**
+     * Flash promotion price at the time the order was accepted
+     */
+    private BigDecimal flashPromotionPrice;
+    private Long memberId;
+    private String memberUsername;
+    private Long memberReceiveAddressId;
+    /**
+     * Time the order was accepted, in milliseconds
+     */
+    private Long createTime;
+}
@@ -0,0 +1,27 @@
+package com.peng.sms.domain;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+/**
+ * Parameters passed when placing a flash promotion order
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+public class FlashOrderParam {
+    @Schema(title = "Product ID in the current flash promotion session")
+    private Long productId;
+
+    @Schema(title = "SKU ID of the product")
+    private Long productSkuId;
+
+    @Schema(title = "Quantity, 1 when not given")
+    private Integer quantity;
+
+    @Schema(title = "ID of the shipping address")
+    private Long memberReceiveAddressId;
+
+    @Schema(title = "Pass given by the waiting room once admitted")
+    private String passToken;
+}
@@ -0,0 +1,37 @@
+package com.peng.sms.domain;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Outcome of a flash promotion order, polled by the client after the order was accepted
+ */
+@Getter
+@Setter
+public class FlashOrderResult {
+    public static final int STATUS_QUEUED = 0;
+    public static final int STATUS_CREATED = 1;
+    public static final int STATUS_FAILED = 2;
+
+    @Schema(title = "Order number")
+    private String orderSn;
+
+    @Schema(title = "Status: 0->queued; 1->created; 2->failed")
+    private Integer status;
+
+    @Schema(title = "Order ID once created")
+    private Long orderId;
+
+    @Schema(title = "Reason of the failure")
+    private String message;
+
+    public static FlashOrderResult of(String orderSn, int status, Long orderId, String message) {
+        FlashOrderResult result = new FlashOrderResult();
+        result.setOrderSn(orderSn);
+        result.setStatus(status);
+        result.setOrderId(orderId);
+        result.setMessage(message);
+        return result;
+    }
+}
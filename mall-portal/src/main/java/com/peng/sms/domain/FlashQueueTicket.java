@@ -0,0 +1,27 @@
+package com.peng.sms.domain;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Place of a member in the waiting room of a flash promotion session
+ */
+@Getter
+@Setter
+public class FlashQueueTicket {
+    @Schema(title = "Flash promotion session ID")
+    private Long sessionId;
+
+    @Schema(title = "Position in the waiting room, starting from 1")
+    private Long position;
+
+    @Schema(title = "Whether the member is admitted to place flash promotion orders")
+    private Boolean admitted;
+
+    @Schema(title = "Signed pass to send with flash promotion orders, only given once admitted")
+    private String passToken;
+
+    @Schema(title = "Estimated seconds until admission, the client should ask again after this")
+    private Long waitSeconds;
+}
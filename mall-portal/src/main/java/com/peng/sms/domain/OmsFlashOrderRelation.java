@@ -0,0 +1,21 @@
+package com.peng.sms.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.Serializable;
+
+/**
+ * Flash promotion product a flash order was placed on, written to oms_flash_order_relation with the order
+ */
+@Getter
+@Setter
+public class OmsFlashOrderRelation implements Serializable {
+    private Long orderId;
+    /**
+     * ID of the flash promotion product relation
+     */
+    private Long relationId;
+    private Long memberId;
+    private Integer quantity;
+}
@@ -0,0 +1,42 @@
+package com.peng.sms.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Order event written to oms_order_outbox in the transaction that creates the order
+ */
+@Getter
+@Setter
+public class OmsOrderOutbox implements Serializable {
+    /**
+     * Event type: order created
+     */
+    public static final String EVENT_ORDER_CREATED = "orderCreated";
+    /**
+     * Status: waiting to be published
+     */
+    public static final int STATUS_PENDING = 0;
+    /**
+     * Status: published to the message queue
+     */
+    public static final int STATUS_PUBLISHED = 1;
+    /**
+     * Status: side effects applied by the consumer
+     */
+    public static final int STATUS_HANDLED = 2;
+
+    private Long id;
+    private Long orderId;
+    private String eventType;
+    /**
+     * Event payload in JSON
+     */
+    private String payload;
+    private Integer status;
+    private Date createTime;
+    private Date publishTime;
+}
@@ -0,0 +1,24 @@
+package com.peng.sms.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * Side effects of creating an order that are applied after it commits
+ */
+@Getter
+@Setter
+public class OrderCreatedEvent {
+    private Long orderId;
+    private Long memberId;
+    /**
+     * Cart items the order was placed from, removed from the cart
+     */
+    private List<Long> cartItemIds;
+    /**
+     * Time the order is cancelled if still unpaid, in milliseconds
+     */
+    private Long cancelTime;
+}
@@ -0,0 +1,15 @@
+package com.peng.sms.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Number of orders of a member in one status
+ */
+@Getter
+@Setter
+public class OrderStatusCount {
+    private Long memberId;
+    private Integer status;
+    private Long count;
+}
@@ -0,0 +1,28 @@
+package com.peng.sms.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Verified payment notification queued to be applied to its order
+ */
+@Getter
+@Setter
+public class PaymentNotifyMessage {
+    /**
+     * Alipay transaction number
+     */
+    private String tradeNo;
+    /**
+     * Merchant order number
+     */
+    private String orderSn;
+    /**
+     * 支付方式：1->支付宝；2->微信
+     */
+    private Integer payType;
+    /**
+     * Time the notification was accepted, in milliseconds
+     */
+    private Long createTime;
+}
@@ -15,7 +15,27 @@ public enum QueueEnum {
     /**
      * Message notification TTL queue
      */
-    QUEUE_TTL_ORDER_CANCEL("mall.order.direct.ttl", "mall.order.cancel.ttl", "mall.order.cancel.ttl");
+    QUEUE_TTL_ORDER_CANCEL("mall.order.direct.ttl", "mall.order.cancel.ttl", "mall.order.cancel.ttl"),
+
+    /**
+     * Order event queue fed by the outbox relay
+     */
+    QUEUE_ORDER_EVENT("mall.order.event.direct", "mall.order.event", "mall.order.event"),
+
+    /**
+     * Flash promotion order queue, accepted orders waiting to be created
+     */
+    QUEUE_ORDER_FLASH("mall.order.flash.direct", "mall.order.flash", "mall.order.flash"),
+
+    /**
+     * Payment notification queue, verified notifications waiting to be applied to their orders
+     */
+    QUEUE_ORDER_PAY("mall.order.pay.direct", "mall.order.pay", "mall.order.pay"),
+
+    /**
+     * Cache invalidation queue, each portal node declares its own queue with this name as prefix
+     */
+    QUEUE_CACHE_INVALIDATE("mall.cache.direct", "mall.cache.invalidate", "mall.cache.invalidate");
 
     /**
      * Exchange name
@@ -28,6 +28,14 @@ public interface AlipayService {
      */
     String query(String outTradeNo, String tradeNo);
 
+    /**
+     * Query the Alipay transaction status of an order without changing the order
+     *
+     * @param outTradeNo Merchant order number
+     * @return Alipay transaction status, null when the query fails or the transaction does not exist
+     */
+    String queryTradeStatus(String outTradeNo);
+
     /**
      * Generate a mobile payment page based on the submitted parameters
      */
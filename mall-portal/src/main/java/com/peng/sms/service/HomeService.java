@@ -1,6 +1,7 @@
 package com.peng.sms.service;
 
 
+import com.peng.sms.api.CommonPage;
 import com.peng.sms.domain.HomeContentResult;
 import com.peng.sms.model.CmsSubject;
 import com.peng.sms.model.PmsProduct;
@@ -46,4 +47,25 @@ public interface HomeService {
      * Get newly recommended products with pagination
      */
     List<PmsProduct> newProductList(Integer pageNum, Integer pageSize);
+
+    /**
+     * Get recommended products with cursor pagination
+     *
+     * @param cursor continuation token returned with the previous page, empty for the first page
+     */
+    CommonPage<PmsProduct> recommendProductPage(String cursor, Integer pageSize);
+
+    /**
+     * Get popular recommended products with cursor pagination
+     *
+     * @param cursor continuation token returned with the previous page, empty for the first page
+     */
+    CommonPage<PmsProduct> hotProductPage(String cursor, Integer pageSize);
+
+    /**
+     * Get newly recommended products with cursor pagination
+     *
+     * @param cursor continuation token returned with the previous page, empty for the first page
+     */
+    CommonPage<PmsProduct> newProductPage(String cursor, Integer pageSize);
 }
@@ -0,0 +1,47 @@
+package com.peng.sms.service;
+
+import com.peng.sms.domain.FlashOrderMessage;
+import com.peng.sms.domain.FlashOrderParam;
+import com.peng.sms.domain.FlashOrderResult;
+import com.peng.sms.domain.FlashQueueTicket;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Flash promotion order Service
+ * Orders are accepted or rejected against the Redis stock right away and created in MySQL from a queue in batches.
+ */
+public interface OmsFlashOrderService {
+
+    /**
+     * Take or look up the current member's place in the waiting room of the running or upcoming session
+     *
+     * @return null when no session is running or about to start
+     */
+    FlashQueueTicket enterQueue();
+
+    /**
+     * Take flash promotion stock for the current member holding a waiting room pass and queue the order, answered without touching MySQL
+     */
+    FlashOrderResult submit(FlashOrderParam param);
+
+    /**
+     * Get the outcome of a flash promotion order of the current member, null if it is unknown or expired
+     */
+    FlashOrderResult getResult(String orderSn);
+
+    /**
+     * Create the orders of a batch of accepted flash promotion orders, orders created before are skipped
+     * The whole batch rolls back when any SKU is short, so the caller can retry the orders one by one.
+     *
+     * @return number of created orders
+     */
+    @Transactional
+    int materialize(List<FlashOrderMessage> messageList);
+
+    /**
+     * Fail an accepted flash promotion order that cannot be created and give back its stock
+     */
+    void reject(FlashOrderMessage message, String reason);
+}
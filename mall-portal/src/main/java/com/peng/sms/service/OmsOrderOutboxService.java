@@ -0,0 +1,36 @@
+package com.peng.sms.service;
+
+import com.peng.sms.domain.OmsOrderOutbox;
+import com.peng.sms.domain.OrderCreatedEvent;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Order event outbox Service
+ * Events are written in the order transaction, relayed to RabbitMQ in batches and applied by an idempotent consumer.
+ */
+public interface OmsOrderOutboxService {
+
+    /**
+     * Record the side effects of a created order, must be called inside the order transaction
+     */
+    void addOrderCreated(OrderCreatedEvent event);
+
+    /**
+     * Publish one batch of pending events
+     *
+     * @return number of published events
+     */
+    @Transactional
+    int relayBatch();
+
+    /**
+     * Apply a published event, events that were handled before are ignored
+     */
+    @Transactional
+    void handle(OmsOrderOutbox outbox);
+
+    /**
+     * Delete handled events older than the retention period
+     */
+    int deleteHandled();
+}
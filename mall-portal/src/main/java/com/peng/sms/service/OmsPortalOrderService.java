@@ -33,8 +33,8 @@ public interface OmsPortalOrderService {
 
     /**
      * Automatically cancel overdue orders
+     * Orders are cancelled in chunks, each chunk commits in its own transaction
      */
-    @Transactional
     Integer cancelTimeOutOrder();
 
     /**
@@ -43,6 +43,14 @@ public interface OmsPortalOrderService {
     @Transactional
     void cancelOrder(Long orderId);
 
+    /**
+     * Cancel a batch of overdue orders with grouped statements, orders that are no longer unpaid are skipped
+     *
+     * @return number of cancelled orders
+     */
+    @Transactional
+    Integer cancelOrders(List<Long> orderIds);
+
     /**
      * Send delayed message to cancel an order
      */
@@ -51,6 +59,7 @@ public interface OmsPortalOrderService {
     /**
      * Confirm receipt of an order
      */
+    @Transactional
     void confirmReceiveOrder(Long orderId);
 
     /**
@@ -58,6 +67,20 @@ public interface OmsPortalOrderService {
      */
     CommonPage<OmsOrderDetail> list(Integer status, Integer pageNum, Integer pageSize);
 
+    /**
+     * Get user orders by keyset pagination, newest first
+     *
+     * @param cursor continuation token returned with the previous page, null for the first page
+     */
+    CommonPage<OmsOrderDetail> listByCursor(Integer status, String cursor, Integer pageSize);
+
+    /**
+     * Get the number of user orders per status
+     *
+     * @return status to number of orders: 0->pending payment; 1->pending shipment; 2->shipped; 3->completed; 4->closed; 5->invalid
+     */
+    Map<Integer, Long> statusCount();
+
     /**
      * Get order details by order ID
      */
@@ -66,11 +89,22 @@ public interface OmsPortalOrderService {
     /**
      * User deletes an order by order ID
      */
+    @Transactional
     void deleteOrder(Long orderId);
 
     /**
      * Payment success logic based on orderSn
+     *
+     * @return false if the order was closed before the payment arrived, the payment then has to be refunded
+     */
+    @Transactional
+    boolean paySuccessByOrderSn(String orderSn, Integer payType);
+
+    /**
+     * Payment success logic for a batch of orders paid with the same pay type, orders that are no longer unpaid are skipped
+     *
+     * @return number of orders changed to paid
      */
     @Transactional
-    void paySuccessByOrderSn(String orderSn, Integer payType);
+    Integer paySuccessByOrderSnList(List<String> orderSnList, Integer payType);
 }
@@ -38,4 +38,11 @@ public interface PmsPortalProductService {
      * @return product details
      */
     PmsPortalProductDetail detail(Long id);
+
+    /**
+     * Clear the cached detail of a product, called after the product or its SKUs change
+     *
+     * @param id product ID
+     */
+    void clearDetailCache(Long id);
 }
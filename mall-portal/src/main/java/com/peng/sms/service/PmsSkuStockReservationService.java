@@ -0,0 +1,33 @@
+package com.peng.sms.service;
+
+import com.peng.sms.model.OmsOrderItem;
+
+import java.util.List;
+
+/**
+ * SKU stock reservation service
+ * Keeps available/locked counters per SKU in Redis and writes them back to pms_sku_stock
+ */
+public interface PmsSkuStockReservationService {
+
+    /**
+     * Lock stock for all ordered SKUs atomically, fails the whole order when any SKU is short
+     *
+     * @param orderItemList ordered items, only productSkuId and productQuantity are used
+     */
+    void reserve(List<OmsOrderItem> orderItemList);
+
+    /**
+     * Release the locked stock of cancelled orders
+     *
+     * @return number of SKU rows updated in MySQL
+     */
+    int release(List<OmsOrderItem> orderItemList);
+
+    /**
+     * Deduct the real stock and release the locked stock of paid orders
+     *
+     * @return number of SKU rows updated in MySQL
+     */
+    int deduct(List<OmsOrderItem> orderItemList);
+}
@@ -20,6 +20,15 @@ public interface PortalBrandService {
      */
     List<PmsBrand> recommendList(Integer pageNum, Integer pageSize);
 
+    /**
+     * Get recommended brands with cursor pagination
+     *
+     * @param cursor   continuation token returned with the previous page, empty for the first page
+     * @param pageSize page size
+     * @return page of recommended brands with the token of the next page
+     */
+    CommonPage<PmsBrand> recommendPage(String cursor, Integer pageSize);
+
     /**
      * Get brand details
      *
@@ -38,6 +38,16 @@ public interface UmsMemberCouponService {
      */
     List<SmsCouponHistoryDetail> listCart(List<CartPromotionItem> cartItemList, Integer type);
 
+    /**
+     * Get usable coupons of the given member based on shopping cart information, does not depend on the login session
+     *
+     * @param memberId     member ID
+     * @param cartItemList list of cart promotion items
+     * @param type         type of coupon
+     * @return list of usable coupon details
+     */
+    List<SmsCouponHistoryDetail> listCart(Long memberId, List<CartPromotionItem> cartItemList, Integer type);
+
     /**
      * Get coupons related to a specific product
      *
@@ -53,4 +63,17 @@ public interface UmsMemberCouponService {
      * @return list of coupons
      */
     List<SmsCoupon> list(Integer useStatus);
+
+    /**
+     * Clear the cached unused coupons of a member, called whenever a coupon is claimed, used or returned
+     * Inside a transaction the cache is cleared after commit.
+     *
+     * @param memberId ID of the member
+     */
+    void clearCouponCache(Long memberId);
+
+    /**
+     * Clear the cached unused coupons of all members after coupons or their product relations changed
+     */
+    void clearAllCouponCache();
 }
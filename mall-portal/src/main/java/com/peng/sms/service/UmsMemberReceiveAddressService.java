@@ -43,6 +43,14 @@ public interface UmsMemberReceiveAddressService {
      */
     List<UmsMemberReceiveAddress> list();
 
+    /**
+     * List all delivery addresses of the given member, does not depend on the login session
+     *
+     * @param memberId member ID
+     * @return list of addresses
+     */
+    List<UmsMemberReceiveAddress> list(Long memberId);
+
     /**
      * Get details of a specific address
      *
@@ -4,11 +4,12 @@ import cn.hutool.core.util.StrUtil;
 import com.alibaba.fastjson.JSONObject;
 import com.alipay.api.AlipayApiException;
 import com.alipay.api.AlipayClient;
-import com.alipay.api.internal.util.AlipaySignature;
 import com.alipay.api.request.AlipayTradePagePayRequest;
 import com.alipay.api.request.AlipayTradeQueryRequest;
 import com.alipay.api.request.AlipayTradeWapPayRequest;
 import com.alipay.api.response.AlipayTradeQueryResponse;
+import com.peng.sms.component.AlipayNotifyVerifier;
+import com.peng.sms.component.PaymentNotifyDispatcher;
 import com.peng.sms.config.AlipayConfig;
 import com.peng.sms.domain.AliPayParam;
 import com.peng.sms.mapper.OmsOrderMapper;
@@ -35,6 +36,10 @@ public class AlipayServiceImpl implements AlipayService {
     private OmsOrderMapper orderMapper;
     @Autowired
     private OmsPortalOrderService portalOrderService;
+    @Autowired
+    private AlipayNotifyVerifier alipayNotifyVerifier;
+    @Autowired
+    private PaymentNotifyDispatcher paymentNotifyDispatcher;
 
     @Override
     public String pay(AliPayParam aliPayParam) {
@@ -71,23 +76,19 @@ public class AlipayServiceImpl implements AlipayService {
     @Override
     public String notify(Map<String, String> params) {
         String result = "failure";
-        boolean signVerified = false;
-        try {
-            // Verify the signature using SDK
-            signVerified = AlipaySignature.rsaCheckV1(params, alipayConfig.getAlipayPublicKey(),
-                    alipayConfig.getCharset(), alipayConfig.getSignType());
-        } catch (AlipayApiException e) {
-            log.error("Payment callback signature verification exception!", e);
-            e.printStackTrace();
-        }
+        // Verify the signature with the pre-parsed Alipay public key
+        boolean signVerified = alipayNotifyVerifier.verify(params);
 
         if (signVerified) {
             String tradeStatus = params.get("trade_status");
             if ("TRADE_SUCCESS".equals(tradeStatus)) {
-                result = "success";
                 log.info("notify method called, tradeStatus: {}", tradeStatus);
                 String outTradeNo = params.get("out_trade_no");
-                portalOrderService.paySuccessByOrderSn(outTradeNo, 1);
+                String tradeNo = StrUtil.blankToDefault(params.get("trade_no"), outTradeNo);
+                // Order transition runs from the payment queue, repeated notifications are dropped
+                if (paymentNotifyDispatcher.dispatch(tradeNo, outTradeNo, 1)) {
+                    result = "success";
+                }
             } else {
                 log.warn("Order payment not successful, trade_status: {}", tradeStatus);
             }
@@ -99,6 +100,39 @@ public class AlipayServiceImpl implements AlipayService {
 
     @Override
     public String query(String outTradeNo, String tradeNo) {
+        AlipayTradeQueryResponse response = queryTrade(outTradeNo, tradeNo);
+        if (response == null) {
+            return null;
+        }
+        if (response.isSuccess()) {
+            log.info("Query Alipay bill succeeded!");
+            if ("TRADE_SUCCESS".equals(response.getTradeStatus())) {
+                portalOrderService.paySuccessByOrderSn(outTradeNo, 1);
+            }
+        } else {
+            log.error("Query Alipay bill failed!");
+        }
+
+        // Transaction status: WAIT_BUYER_PAY (created, waiting for buyer),
+        // TRADE_CLOSED (unpaid timeout or refunded),
+        // TRADE_SUCCESS (payment successful),
+        // TRADE_FINISHED (finished, no refund)
+        return response.getTradeStatus();
+    }
+
+    @Override
+    public String queryTradeStatus(String outTradeNo) {
+        AlipayTradeQueryResponse response = queryTrade(outTradeNo, null);
+        if (response == null || !response.isSuccess()) {
+            return null;
+        }
+        return response.getTradeStatus();
+    }
+
+    /**
+     * Query the Alipay transaction, null when the request fails
+     */
+    private AlipayTradeQueryResponse queryTrade(String outTradeNo, String tradeNo) {
         AlipayTradeQueryRequest request = new AlipayTradeQueryRequest();
         // ******Required parameters******
         JSONObject bizContent = new JSONObject();
@@ -114,27 +148,12 @@ public class AlipayServiceImpl implements AlipayService {
         bizContent.put("query_options", queryOptions);
         request.setBizContent(bizContent.toString());
 
-        AlipayTradeQueryResponse response = null;
         try {
-            response = alipayClient.execute(request);
+            return alipayClient.execute(request);
         } catch (AlipayApiException e) {
             log.error("Query Alipay bill exception!", e);
+            return null;
         }
-
-        if (response.isSuccess()) {
-            log.info("Query Alipay bill succeeded!");
-            if ("TRADE_SUCCESS".equals(response.getTradeStatus())) {
-                portalOrderService.paySuccessByOrderSn(outTradeNo, 1);
-            }
-        } else {
-            log.error("Query Alipay bill failed!");
-        }
-
-        // Transaction status: WAIT_BUYER_PAY (created, waiting for buyer),
-        // TRADE_CLOSED (unpaid timeout or refunded),
-        // TRADE_SUCCESS (payment successful),
-        // TRADE_FINISHED (finished, no refund)
-        return response.getTradeStatus();
     }
 
     @Override
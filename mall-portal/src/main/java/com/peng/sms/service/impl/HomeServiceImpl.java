@@ -2,6 +2,10 @@ package com.peng.sms.service.impl;
 
 import com.github.pagehelper.PageHelper;
 
+import com.peng.sms.api.CommonPage;
+import com.peng.sms.component.FlashPromotionTimeline;
+import com.peng.sms.component.HomeContentCache;
+import com.peng.sms.component.ProductCategoryIndex;
 import com.peng.sms.dao.HomeDao;
 import com.peng.sms.domain.FlashPromotionProduct;
 import com.peng.sms.domain.HomeContentResult;
@@ -9,10 +13,10 @@ import com.peng.sms.domain.HomeFlashPromotion;
 import com.peng.sms.mapper.*;
 import com.peng.sms.model.*;
 import com.peng.sms.service.HomeService;
-import com.peng.sms.util.DateUtil;
+import com.peng.sms.util.PageCursor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.util.CollectionUtils;
 
 import java.util.Date;
 import java.util.List;
@@ -28,18 +32,31 @@ public class HomeServiceImpl implements HomeService {
     @Autowired
     private HomeDao homeDao;
     @Autowired
-    private SmsFlashPromotionMapper flashPromotionMapper;
-    @Autowired
-    private SmsFlashPromotionSessionMapper promotionSessionMapper;
+    private FlashPromotionTimeline flashPromotionTimeline;
     @Autowired
     private PmsProductMapper productMapper;
     @Autowired
-    private PmsProductCategoryMapper productCategoryMapper;
+    private ProductCategoryIndex productCategoryIndex;
     @Autowired
     private CmsSubjectMapper subjectMapper;
+    @Autowired
+    private HomeContentCache homeContentCache;
 
     @Override
     public HomeContentResult content() {
+        return homeContentCache.get(this::loadContent, this::getContentBoundary);
+    }
+
+    /**
+     * Refresh the cached homepage content in the background before it expires
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void refreshContentCache() {
+        homeContentCache.refreshIfDue(this::loadContent, this::getContentBoundary);
+    }
+
+    // Assemble homepage content from the database
+    private HomeContentResult loadContent() {
         HomeContentResult result = new HomeContentResult();
         // Get homepage advertisements
         result.setAdvertiseList(getHomeAdvertiseList());
@@ -69,12 +86,7 @@ public class HomeServiceImpl implements HomeService {
 
     @Override
     public List<PmsProductCategory> getProductCateList(Long parentId) {
-        PmsProductCategoryExample example = new PmsProductCategoryExample();
-        example.createCriteria()
-                .andShowStatusEqualTo(1)
-                .andParentIdEqualTo(parentId);
-        example.setOrderByClause("sort desc");
-        return productCategoryMapper.selectByExample(example);
+        return productCategoryIndex.getVisibleChildren(parentId);
     }
 
     @Override
@@ -101,42 +113,70 @@ public class HomeServiceImpl implements HomeService {
         return homeDao.getNewProducts(offset, pageSize);
     }
 
+    @Override
+    public CommonPage<PmsProduct> recommendProductPage(String cursor, Integer pageSize) {
+        PageCursor.checkPageSize(pageSize);
+        PageCursor pageCursor = PageCursor.decode(cursor);
+        // Keyset on id, no COUNT query
+        PageHelper.startPage(1, pageSize + 1, false);
+        PmsProductExample example = new PmsProductExample();
+        PmsProductExample.Criteria criteria = example.createCriteria()
+                .andDeleteStatusEqualTo(0)
+                .andPublishStatusEqualTo(1);
+        if (pageCursor != null) {
+            criteria.andIdGreaterThan(pageCursor.getId());
+        }
+        example.setOrderByClause("id asc");
+        List<PmsProduct> productList = productMapper.selectByExample(example);
+        return PageCursor.page(productList, pageSize, product -> new PageCursor(null, product.getId()));
+    }
+
+    @Override
+    public CommonPage<PmsProduct> hotProductPage(String cursor, Integer pageSize) {
+        PageCursor.checkPageSize(pageSize);
+        PageCursor pageCursor = PageCursor.decode(cursor);
+        return PageCursor.rowPage(homeDao.getHotProductsByCursor(
+                pageCursor == null ? null : pageCursor.getSort(),
+                pageCursor == null ? null : pageCursor.getId(), pageSize + 1), pageSize);
+    }
+
+    @Override
+    public CommonPage<PmsProduct> newProductPage(String cursor, Integer pageSize) {
+        PageCursor.checkPageSize(pageSize);
+        PageCursor pageCursor = PageCursor.decode(cursor);
+        return PageCursor.rowPage(homeDao.getNewProductsByCursor(
+                pageCursor == null ? null : pageCursor.getSort(),
+                pageCursor == null ? null : pageCursor.getId(), pageSize + 1), pageSize);
+    }
+
     private HomeFlashPromotion getHomeFlashPromotion() {
         HomeFlashPromotion homeFlashPromotion = new HomeFlashPromotion();
         // Get current flash promotion
         Date now = new Date();
-        SmsFlashPromotion flashPromotion = getFlashPromotion(now);
+        SmsFlashPromotion flashPromotion = flashPromotionTimeline.getPromotion(now);
         if (flashPromotion != null) {
             // Get current flash promotion session
-            SmsFlashPromotionSession flashPromotionSession = getFlashPromotionSession(now);
+            SmsFlashPromotionSession flashPromotionSession = flashPromotionTimeline.getSession(now);
             if (flashPromotionSession != null) {
                 homeFlashPromotion.setStartTime(flashPromotionSession.getStartTime());
                 homeFlashPromotion.setEndTime(flashPromotionSession.getEndTime());
                 // Get next flash promotion session
-                SmsFlashPromotionSession nextSession = getNextFlashPromotionSession(homeFlashPromotion.getStartTime());
+                SmsFlashPromotionSession nextSession = flashPromotionTimeline.getNextSession(homeFlashPromotion.getStartTime());
                 if(nextSession != null){
                     homeFlashPromotion.setNextStartTime(nextSession.getStartTime());
                     homeFlashPromotion.setNextEndTime(nextSession.getEndTime());
                 }
                 // Get flash sale products
-                List<FlashPromotionProduct> flashProductList = homeDao.getFlashPromotionProducts(flashPromotion.getId(), flashPromotionSession.getId());
+                List<FlashPromotionProduct> flashProductList = flashPromotionTimeline.getProductList(flashPromotionSession.getId());
                 homeFlashPromotion.setProductList(flashProductList);
             }
         }
         return homeFlashPromotion;
     }
 
-    // Get the next flash promotion session after a given date
-    private SmsFlashPromotionSession getNextFlashPromotionSession(Date date) {
-        SmsFlashPromotionSessionExample sessionExample = new SmsFlashPromotionSessionExample();
-        sessionExample.createCriteria()
-                .andStartTimeGreaterThan(date);
-        sessionExample.setOrderByClause("start_time asc");
-        List<SmsFlashPromotionSession> promotionSessionList = promotionSessionMapper.selectByExample(sessionExample);
-        if (!CollectionUtils.isEmpty(promotionSessionList)) {
-            return promotionSessionList.get(0);
-        }
-        return null;
+    // Get the next time the flash promotion on the homepage switches session
+    private Date getContentBoundary(HomeContentResult content) {
+        return flashPromotionTimeline.getNextBoundary(new Date());
     }
 
     private List<SmsHomeAdvertise> getHomeAdvertiseList() {
@@ -145,33 +185,4 @@ public class HomeServiceImpl implements HomeService {
         example.setOrderByClause("sort desc");
         return advertiseMapper.selectByExample(example);
     }
-
-    // Get flash promotion based on date
-    private SmsFlashPromotion getFlashPromotion(Date date) {
-        Date currDate = DateUtil.getDate(date);
-        SmsFlashPromotionExample example = new SmsFlashPromotionExample();
-        example.createCriteria()
-                .andStatusEqualTo(1)
-                .andStartDateLessThanOrEqualTo(currDate)
-                .andEndDateGreaterThanOrEqualTo(currDate);
-        List<SmsFlashPromotion> flashPromotionList = flashPromotionMapper.selectByExample(example);
-        if (!CollectionUtils.isEmpty(flashPromotionList)) {
-            return flashPromotionList.get(0);
-        }
-        return null;
-    }
-
-    // Get flash promotion session based on time
-    private SmsFlashPromotionSession getFlashPromotionSession(Date date) {
-        Date currTime = DateUtil.getTime(date);
-        SmsFlashPromotionSessionExample sessionExample = new SmsFlashPromotionSessionExample();
-        sessionExample.createCriteria()
-                .andStartTimeLessThanOrEqualTo(currTime)
-                .andEndTimeGreaterThanOrEqualTo(currTime);
-        List<SmsFlashPromotionSession> promotionSessionList = promotionSessionMapper.selectByExample(sessionExample);
-        if (!CollectionUtils.isEmpty(promotionSessionList)) {
-            return promotionSessionList.get(0);
-        }
-        return null;
-    }
 }
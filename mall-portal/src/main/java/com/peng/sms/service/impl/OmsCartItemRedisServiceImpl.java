@@ -0,0 +1,337 @@
+package com.peng.sms.service.impl;
+
+import cn.hutool.core.collection.CollUtil;
+import com.peng.sms.dao.PortalCartItemDao;
+import com.peng.sms.dao.PortalProductDao;
+import com.peng.sms.domain.CartProduct;
+import com.peng.sms.domain.CartPromotionItem;
+import com.peng.sms.mapper.OmsCartItemMapper;
+import com.peng.sms.model.OmsCartItem;
+import com.peng.sms.model.OmsCartItemExample;
+import com.peng.sms.model.UmsMember;
+import com.peng.sms.service.OmsCartItemService;
+import com.peng.sms.service.OmsPromotionService;
+import com.peng.sms.service.RedisService;
+import com.peng.sms.service.UmsMemberService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Shopping Cart Management Service Implementation backed by Redis
+ * The live cart of a member is one Redis hash holding the items, their quantities and a product/SKU index.
+ * New items are inserted into MySQL right away to get their ID, quantity changes and deletions are written behind in batches.
+ * Enabled with cart.store=redis.
+ */
+@Service
+@ConditionalOnProperty(name = "cart.store", havingValue = "redis")
+public class OmsCartItemRedisServiceImpl implements OmsCartItemService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OmsCartItemRedisServiceImpl.class);
+    private static final String FIELD_LOADED = "loaded";
+    private static final String FIELD_ITEM = "item:";
+    private static final String FIELD_QUANTITY = "qty:";
+    private static final String FIELD_SKU = "sku:";
+    private static final int FLUSH_BATCH_SIZE = 500;
+    /**
+     * Most dirty marks claimed by one flush, the rest are left for the following runs
+     */
+    private static final int FLUSH_CLAIM_SIZE = 5000;
+
+    @Autowired
+    private OmsCartItemMapper cartItemMapper;
+    @Autowired
+    private PortalCartItemDao cartItemDao;
+    @Autowired
+    private PortalProductDao productDao;
+    @Autowired
+    private OmsPromotionService promotionService;
+    @Autowired
+    private UmsMemberService memberService;
+    @Autowired
+    private RedisService redisService;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.cart}")
+    private String REDIS_KEY_CART;
+    @Value("${redis.key.cartDirty}")
+    private String REDIS_KEY_CART_DIRTY;
+    @Value("${redis.expire.cart}")
+    private Long REDIS_EXPIRE_CART;
+
+    @Override
+    public int add(OmsCartItem cartItem) {
+        UmsMember currentMember = memberService.getCurrentMember();
+        cartItem.setMemberId(currentMember.getId());
+        cartItem.setMemberNickname(currentMember.getNickname());
+        cartItem.setDeleteStatus(0);
+
+        String key = getCartKey(currentMember.getId());
+        Map<Object, Object> cart = loadCart(currentMember.getId());
+        Long existId = getCartItemId(cart, cartItem);
+        if (existId != null) {
+            redisService.hIncr(key, FIELD_QUANTITY + existId, cartItem.getQuantity().longValue());
+            markDirty(currentMember.getId(), existId);
+            redisService.expire(key, REDIS_EXPIRE_CART);
+            return 1;
+        }
+        cartItem.setCreateDate(new Date());
+        int count = cartItemMapper.insert(cartItem);
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(FIELD_ITEM + cartItem.getId(), cartItem);
+        fields.put(FIELD_QUANTITY + cartItem.getId(), cartItem.getQuantity());
+        fields.put(getSkuField(cartItem.getProductId(), cartItem.getProductSkuId()), cartItem.getId());
+        redisService.hSetAll(key, fields, REDIS_EXPIRE_CART);
+        return count;
+    }
+
+    @Override
+    public List<OmsCartItem> list(Long memberId) {
+        Map<Object, Object> cart = loadCart(memberId);
+        List<OmsCartItem> cartItemList = new ArrayList<>();
+        for (Map.Entry<Object, Object> entry : cart.entrySet()) {
+            String field = entry.getKey().toString();
+            if (!field.startsWith(FIELD_ITEM)) {
+                continue;
+            }
+            OmsCartItem cartItem = (OmsCartItem) entry.getValue();
+            Object quantity = cart.get(FIELD_QUANTITY + cartItem.getId());
+            if (quantity != null) {
+                cartItem.setQuantity(((Number) quantity).intValue());
+            }
+            cartItemList.add(cartItem);
+        }
+        //与数据库查询保持相同的主键顺序
+        cartItemList.sort(Comparator.comparing(OmsCartItem::getId));
+        return cartItemList;
+    }
+
+    @Override
+    public List<CartPromotionItem> listPromotion(Long memberId, List<Long> cartIds) {
+        List<OmsCartItem> cartItemList = list(memberId);
+        if (CollUtil.isNotEmpty(cartIds)) {
+            Set<Long> cartIdSet = new HashSet<>(cartIds);
+            cartItemList.removeIf(item -> !cartIdSet.contains(item.getId()));
+        }
+        List<CartPromotionItem> cartPromotionItemList = new ArrayList<>();
+        if (!cartItemList.isEmpty()) {
+            // Calculate promotions for the selected cart items
+            cartPromotionItemList = promotionService.calcCartPromotion(cartItemList);
+        }
+        return cartPromotionItemList;
+    }
+
+    @Override
+    public int updateQuantity(Long id, Long memberId, Integer quantity) {
+        Map<Object, Object> cart = loadCart(memberId);
+        if (!cart.containsKey(FIELD_ITEM + id)) {
+            return 0;
+        }
+        String key = getCartKey(memberId);
+        redisService.hSet(key, FIELD_QUANTITY + id, quantity);
+        markDirty(memberId, id);
+        redisService.expire(key, REDIS_EXPIRE_CART);
+        return 1;
+    }
+
+    @Override
+    public int delete(Long memberId, List<Long> ids) {
+        Map<Object, Object> cart = loadCart(memberId);
+        return removeItems(memberId, cart, ids);
+    }
+
+    @Override
+    public CartProduct getCartProduct(Long productId) {
+        return productDao.getCartProduct(productId);
+    }
+
+    @Override
+    public int updateAttr(OmsCartItem cartItem) {
+        // Delete original cart item
+        UmsMember currentMember = memberService.getCurrentMember();
+        Map<Object, Object> cart = loadCart(currentMember.getId());
+        removeItems(currentMember.getId(), cart, Collections.singletonList(cartItem.getId()));
+
+        // Add the updated cart item as a new entry
+        cartItem.setId(null);
+        add(cartItem);
+        return 1;
+    }
+
+    @Override
+    public int clear(Long memberId) {
+        OmsCartItem record = new OmsCartItem();
+        record.setDeleteStatus(1);
+
+        OmsCartItemExample example = new OmsCartItemExample();
+        example.createCriteria().andMemberIdEqualTo(memberId);
+
+        // Mark all cart items of the member as deleted, pending changes of removed items become no-ops
+        int count = cartItemMapper.updateByExampleSelective(record, example);
+        String key = getCartKey(memberId);
+        redisService.del(key);
+        redisService.hSetAll(key, Collections.singletonMap(FIELD_LOADED, 1), REDIS_EXPIRE_CART);
+        return count;
+    }
+
+    /**
+     * Write pending quantity changes and deletions back to MySQL
+     * The dirty marks are claimed with SPOP so that each is flushed by one node only, marks that could not be
+     * written are put back for the next flush.
+     */
+    @Scheduled(fixedDelayString = "${cart.flushInterval}")
+    public void flushDirty() {
+        List<Object> dirtyList;
+        try {
+            dirtyList = redisService.sPop(getDirtyKey(), FLUSH_CLAIM_SIZE);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Claim dirty cart items failed", e);
+            return;
+        }
+        if (CollUtil.isEmpty(dirtyList)) {
+            return;
+        }
+        //先取出标记再读取最新状态，期间的新修改会重新标记并在下次写回
+        Map<Long, List<Object>> memberDirtyMap = new HashMap<>();
+        for (Object dirty : dirtyList) {
+            memberDirtyMap.computeIfAbsent(Long.valueOf(dirty.toString().split(":")[0]), k -> new ArrayList<>()).add(dirty);
+        }
+        List<Object> requeueList = new ArrayList<>();
+        try {
+            List<OmsCartItem> updateList = new ArrayList<>();
+            List<Long> deleteIds = new ArrayList<>();
+            Date now = new Date();
+            for (Map.Entry<Long, List<Object>> entry : memberDirtyMap.entrySet()) {
+                Map<Object, Object> cart = redisService.hGetAll(getCartKey(entry.getKey()));
+                if (!cart.containsKey(FIELD_LOADED)) {
+                    //购物车已过期或正在重建，保留标记，重新加载后再写回
+                    LOGGER.warn("Cart of member {} not cached at write back, requeued items: {}", entry.getKey(), entry.getValue());
+                    requeueList.addAll(entry.getValue());
+                    continue;
+                }
+                for (Object dirty : entry.getValue()) {
+                    Long id = Long.valueOf(dirty.toString().split(":")[1]);
+                    Object quantity = cart.get(FIELD_QUANTITY + id);
+                    if (cart.containsKey(FIELD_ITEM + id) && quantity != null) {
+                        OmsCartItem cartItem = new OmsCartItem();
+                        cartItem.setId(id);
+                        cartItem.setQuantity(((Number) quantity).intValue());
+                        cartItem.setModifyDate(now);
+                        updateList.add(cartItem);
+                    } else {
+                        deleteIds.add(id);
+                    }
+                }
+            }
+            for (List<OmsCartItem> batch : CollUtil.split(updateList, FLUSH_BATCH_SIZE)) {
+                cartItemDao.updateQuantityList(batch);
+            }
+            for (List<Long> batch : CollUtil.split(deleteIds, FLUSH_BATCH_SIZE)) {
+                OmsCartItem record = new OmsCartItem();
+                record.setDeleteStatus(1);
+                record.setModifyDate(now);
+                OmsCartItemExample example = new OmsCartItemExample();
+                example.createCriteria().andIdIn(batch);
+                cartItemMapper.updateByExampleSelective(record, example);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Write back cart items failed, retrying on next flush", e);
+            requeueList = dirtyList;
+        }
+        if (!requeueList.isEmpty()) {
+            try {
+                redisService.sAdd(getDirtyKey(), requeueList.toArray());
+            } catch (RuntimeException e) {
+                LOGGER.error("Requeue dirty cart items failed, lost items: {}", requeueList, e);
+            }
+        }
+    }
+
+    /**
+     * Get the cart hash of a member, loading it from MySQL when it is not cached
+     */
+    private Map<Object, Object> loadCart(Long memberId) {
+        String key = getCartKey(memberId);
+        Map<Object, Object> cart = redisService.hGetAll(key);
+        if (cart.containsKey(FIELD_LOADED)) {
+            return cart;
+        }
+        OmsCartItemExample example = new OmsCartItemExample();
+        example.createCriteria().andDeleteStatusEqualTo(0).andMemberIdEqualTo(memberId);
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(FIELD_LOADED, 1);
+        for (OmsCartItem cartItem : cartItemMapper.selectByExample(example)) {
+            fields.put(FIELD_ITEM + cartItem.getId(), cartItem);
+            fields.put(FIELD_QUANTITY + cartItem.getId(), cartItem.getQuantity());
+            fields.putIfAbsent(getSkuField(cartItem.getProductId(), cartItem.getProductSkuId()), cartItem.getId());
+        }
+        redisService.hSetAll(key, fields, REDIS_EXPIRE_CART);
+        return new HashMap<>(fields);
+    }
+
+    /**
+     * Remove items from the cart hash and queue their deletion in MySQL
+     */
+    private int removeItems(Long memberId, Map<Object, Object> cart, List<Long> ids) {
+        List<Object> fields = new ArrayList<>();
+        int count = 0;
+        for (Long id : ids) {
+            Object item = cart.get(FIELD_ITEM + id);
+            if (item == null) {
+                continue;
+            }
+            OmsCartItem cartItem = (OmsCartItem) item;
+            fields.add(FIELD_ITEM + id);
+            fields.add(FIELD_QUANTITY + id);
+            String skuField = getSkuField(cartItem.getProductId(), cartItem.getProductSkuId());
+            if (cart.get(skuField) != null && ((Number) cart.get(skuField)).longValue() == id) {
+                fields.add(skuField);
+            }
+            markDirty(memberId, id);
+            count++;
+        }
+        if (!fields.isEmpty()) {
+            redisService.hDel(getCartKey(memberId), fields.toArray());
+        }
+        return count;
+    }
+
+    /**
+     * Get the ID of the cart item with the same product and SKU
+     */
+    private Long getCartItemId(Map<Object, Object> cart, OmsCartItem cartItem) {
+        if (cartItem.getProductSkuId() != null) {
+            Object id = cart.get(getSkuField(cartItem.getProductId(), cartItem.getProductSkuId()));
+            return id == null ? null : ((Number) id).longValue();
+        }
+        // Without a SKU any item of the product matches
+        String prefix = FIELD_SKU + cartItem.getProductId() + ":";
+        for (Map.Entry<Object, Object> entry : cart.entrySet()) {
+            if (entry.getKey().toString().startsWith(prefix)) {
+                return ((Number) entry.getValue()).longValue();
+            }
+        }
+        return null;
+    }
+
+    private void markDirty(Long memberId, Long cartItemId) {
+        redisService.sAdd(getDirtyKey(), memberId + ":" + cartItemId);
+    }
+
+    private String getSkuField(Long productId, Long productSkuId) {
+        return FIELD_SKU + productId + ":" + productSkuId;
+    }
+
+    private String getCartKey(Long memberId) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_CART + ":" + memberId;
+    }
+
+    private String getDirtyKey() {
+        return REDIS_DATABASE + ":" + REDIS_KEY_CART_DIRTY;
+    }
+}
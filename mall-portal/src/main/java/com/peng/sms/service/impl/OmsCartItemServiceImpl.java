@@ -12,6 +12,7 @@ import com.peng.sms.service.OmsCartItemService;
 import com.peng.sms.service.OmsPromotionService;
 import com.peng.sms.service.UmsMemberService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
@@ -22,8 +23,10 @@ import java.util.stream.Collectors;
 
 /**
  * Shopping Cart Management Service Implementation
+ * Default store working directly on oms_cart_item, see {@link OmsCartItemRedisServiceImpl} for the Redis store.
  */
 @Service
+@ConditionalOnProperty(name = "cart.store", havingValue = "db", matchIfMissing = true)
 public class OmsCartItemServiceImpl implements OmsCartItemService {
     @Autowired
     private OmsCartItemMapper cartItemMapper;
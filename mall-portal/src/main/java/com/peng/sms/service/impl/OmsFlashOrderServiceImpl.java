@@ -0,0 +1,408 @@
+package com.peng.sms.service.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.peng.sms.component.FlashPromotionStock;
+import com.peng.sms.component.FlashWaitingRoom;
+import com.peng.sms.component.MemberOrderReadModel;
+import com.peng.sms.component.OrderSnGenerator;
+import com.peng.sms.component.OrderStatusCounter;
+import com.peng.sms.dao.PortalOrderDao;
+import com.peng.sms.dao.PortalOrderItemDao;
+import com.peng.sms.domain.*;
+import com.peng.sms.mapper.*;
+import com.peng.sms.model.*;
+import com.peng.sms.service.OmsFlashOrderService;
+import com.peng.sms.service.OmsOrderOutboxService;
+import com.peng.sms.service.PmsSkuStockReservationService;
+import com.peng.sms.service.UmsMemberService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Flash promotion order Service implementation
+ */
+@Service
+public class OmsFlashOrderServiceImpl implements OmsFlashOrderService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OmsFlashOrderServiceImpl.class);
+    private static final String PROMOTION_NAME = "秒杀特价";
+
+    @Autowired
+    private UmsMemberService memberService;
+    @Autowired
+    private FlashPromotionStock flashPromotionStock;
+    @Autowired
+    private FlashWaitingRoom flashWaitingRoom;
+    @Autowired
+    private OrderSnGenerator orderSnGenerator;
+    @Autowired
+    private AmqpTemplate amqpTemplate;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private OmsOrderMapper orderMapper;
+    @Autowired
+    private PmsSkuStockMapper skuStockMapper;
+    @Autowired
+    private PmsProductMapper productMapper;
+    @Autowired
+    private UmsMemberReceiveAddressMapper addressMapper;
+    @Autowired
+    private OmsOrderSettingMapper orderSettingMapper;
+    @Autowired
+    private PmsSkuStockReservationService skuStockReservationService;
+    @Autowired
+    private PortalOrderDao portalOrderDao;
+    @Autowired
+    private PortalOrderItemDao orderItemDao;
+    @Autowired
+    private OmsOrderOutboxService orderOutboxService;
+    @Autowired
+    private MemberOrderReadModel memberOrderReadModel;
+    @Autowired
+    private OrderStatusCounter orderStatusCounter;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.flashOrder}")
+    private String REDIS_KEY_FLASH_ORDER;
+    @Value("${redis.expire.flashOrder}")
+    private Long REDIS_EXPIRE_FLASH_ORDER;
+
+    @Override
+    public FlashQueueTicket enterQueue() {
+        UmsMember member = memberService.getCurrentMember();
+        return flashWaitingRoom.enter(member.getId());
+    }
+
+    @Override
+    public FlashOrderResult submit(FlashOrderParam param) {
+        int quantity = param.getQuantity() == null ? 1 : param.getQuantity();
+        if (param.getProductId() == null || param.getProductSkuId() == null || quantity <= 0) {
+            return rejectSubmit("invalid", "请选择商品规格和数量");
+        }
+        if (param.getMemberReceiveAddressId() == null) {
+            return rejectSubmit("invalid", "请选择收货地址！");
+        }
+        //未经等候室放行的请求直接拒绝
+        UmsMember member = memberService.getCurrentMember();
+        if (!flashWaitingRoom.verifyPass(param.getPassToken(), member.getId())) {
+            return rejectSubmit("noPass", "请先排队进入秒杀");
+        }
+        Date now = new Date();
+        SmsFlashPromotionProductRelation relation = flashPromotionStock.getRelation(param.getProductId(), now);
+        if (relation == null) {
+            return rejectSubmit("invalid", "该商品不在当前秒杀场次中");
+        }
+        Integer limit = relation.getFlashPromotionLimit();
+        if (limit != null && limit > 0 && quantity > limit) {
+            return rejectSubmit("overLimit", "超出限购数量");
+        }
+        long acquired;
+        try {
+            acquired = flashPromotionStock.acquire(relation, member.getId(), quantity);
+        } catch (DataAccessException e) {
+            LOGGER.warn("Flash promotion stock unavailable, productId: {}", param.getProductId(), e);
+            return rejectSubmit("busy", "抢购人数过多，请稍后重试");
+        }
+        if (acquired == FlashPromotionStock.OVER_LIMIT) {
+            return rejectSubmit("overLimit", "超出限购数量");
+        }
+        if (acquired != FlashPromotionStock.ACQUIRED) {
+            return rejectSubmit("soldOut", "商品已抢完");
+        }
+        //库存已扣减，生成订单号后排队异步创建订单
+        FlashOrderMessage message = new FlashOrderMessage();
+        message.setOrderSn(orderSnGenerator.generate(1, 0));
+        message.setRelationId(relation.getId());
+        message.setProductId(param.getProductId());
+        message.setProductSkuId(param.getProductSkuId());
+        message.setQuantity(quantity);
+        message.setFlashPromotionPrice(relation.getFlashPromotionPrice());
+        message.setMemberId(member.getId());
+        message.setMemberUsername(member.getUsername());
+        message.setMemberReceiveAddressId(param.getMemberReceiveAddressId());
+        message.setCreateTime(now.getTime());
+        FlashOrderResult result = FlashOrderResult.of(message.getOrderSn(), FlashOrderResult.STATUS_QUEUED, null, null);
+        try {
+            saveResult(message.getMemberId(), result);
+            amqpTemplate.convertAndSend(QueueEnum.QUEUE_ORDER_FLASH.getExchange(), QueueEnum.QUEUE_ORDER_FLASH.getRouteKey(), toJson(message));
+        } catch (AmqpException | DataAccessException e) {
+            LOGGER.warn("Queue flash order failed, orderSn: {}", message.getOrderSn(), e);
+            flashPromotionStock.release(relation.getId(), member.getId(), quantity);
+            return rejectSubmit("busy", "抢购人数过多，请稍后重试");
+        }
+        countSubmit("accepted");
+        return result;
+    }
+
+    @Override
+    public FlashOrderResult getResult(String orderSn) {
+        UmsMember member = memberService.getCurrentMember();
+        String json = stringRedisTemplate.opsForValue().get(getResultKey(member.getId(), orderSn));
+        return json == null ? null : fromJson(json, FlashOrderResult.class);
+    }
+
+    @Override
+    public int materialize(List<FlashOrderMessage> messageList) {
+        //按订单号去重，重复投递中已创建的订单直接回写结果
+        Map<String, FlashOrderMessage> messageMap = new LinkedHashMap<>();
+        for (FlashOrderMessage message : messageList) {
+            messageMap.putIfAbsent(message.getOrderSn(), message);
+        }
+        if (messageMap.isEmpty()) {
+            return 0;
+        }
+        OmsOrderExample existExample = new OmsOrderExample();
+        existExample.createCriteria().andOrderSnIn(new ArrayList<>(messageMap.keySet()));
+        for (OmsOrder existOrder : orderMapper.selectByExample(existExample)) {
+            FlashOrderMessage message = messageMap.remove(existOrder.getOrderSn());
+            if (message != null) {
+                afterCommit(() -> saveResultQuietly(message.getMemberId(),
+                        FlashOrderResult.of(message.getOrderSn(), FlashOrderResult.STATUS_CREATED, existOrder.getId(), null)));
+            }
+        }
+        if (messageMap.isEmpty()) {
+            return 0;
+        }
+        //一次查询整批需要的SKU、商品和收货地址
+        Set<Long> skuIds = new HashSet<>();
+        Set<Long> productIds = new HashSet<>();
+        Set<Long> addressIds = new HashSet<>();
+        for (FlashOrderMessage message : messageMap.values()) {
+            skuIds.add(message.getProductSkuId());
+            productIds.add(message.getProductId());
+            addressIds.add(message.getMemberReceiveAddressId());
+        }
+        PmsSkuStockExample skuExample = new PmsSkuStockExample();
+        skuExample.createCriteria().andIdIn(new ArrayList<>(skuIds));
+        Map<Long, PmsSkuStock> skuMap = new HashMap<>();
+        for (PmsSkuStock sku : skuStockMapper.selectByExample(skuExample)) {
+            skuMap.put(sku.getId(), sku);
+        }
+        PmsProductExample productExample = new PmsProductExample();
+        productExample.createCriteria().andIdIn(new ArrayList<>(productIds));
+        Map<Long, PmsProduct> productMap = new HashMap<>();
+        for (PmsProduct product : productMapper.selectByExample(productExample)) {
+            productMap.put(product.getId(), product);
+        }
+        UmsMemberReceiveAddressExample addressExample = new UmsMemberReceiveAddressExample();
+        addressExample.createCriteria().andIdIn(new ArrayList<>(addressIds));
+        Map<Long, UmsMemberReceiveAddress> addressMap = new HashMap<>();
+        for (UmsMemberReceiveAddress address : addressMapper.selectByExample(addressExample)) {
+            addressMap.put(address.getId(), address);
+        }
+        OmsOrderSetting orderSetting = orderSettingMapper.selectByPrimaryKey(1L);
+
+        List<FlashOrderMessage> acceptedList = new ArrayList<>();
+        List<OmsOrder> orderList = new ArrayList<>();
+        List<OmsOrderItem> orderItemList = new ArrayList<>();
+        Map<Long, Integer> countMap = new LinkedHashMap<>();
+        for (FlashOrderMessage message : messageMap.values()) {
+            PmsSkuStock sku = skuMap.get(message.getProductSkuId());
+            PmsProduct product = productMap.get(message.getProductId());
+            if (sku == null || product == null || !product.getId().equals(sku.getProductId())) {
+                afterCommit(() -> reject(message, "商品规格不存在"));
+                continue;
+            }
+            UmsMemberReceiveAddress address = addressMap.get(message.getMemberReceiveAddressId());
+            if (address == null || !message.getMemberId().equals(address.getMemberId())) {
+                afterCommit(() -> reject(message, "收货地址不存在"));
+                continue;
+            }
+            OmsOrderItem orderItem = buildOrderItem(message, product, sku);
+            acceptedList.add(message);
+            orderItemList.add(orderItem);
+            orderList.add(buildOrder(message, orderItem, address, orderSetting));
+            countMap.merge(message.getRelationId(), message.getQuantity(), Integer::sum);
+        }
+        if (orderList.isEmpty()) {
+            return 0;
+        }
+        //整批锁定SKU库存，库存不足时整批回滚，由调用方逐个重试
+        skuStockReservationService.reserve(orderItemList);
+        portalOrderDao.insertOrderList(orderList);
+        List<Long> orderIds = new ArrayList<>(orderList.size());
+        List<OmsFlashOrderRelation> flashOrderRelationList = new ArrayList<>(orderList.size());
+        for (int i = 0; i < orderList.size(); i++) {
+            OmsOrder order = orderList.get(i);
+            orderItemList.get(i).setOrderId(order.getId());
+            orderItemList.get(i).setOrderSn(order.getOrderSn());
+            orderIds.add(order.getId());
+            //记录订单对应的秒杀商品，取消订单时据此返还秒杀库存
+            OmsFlashOrderRelation flashOrderRelation = new OmsFlashOrderRelation();
+            flashOrderRelation.setOrderId(order.getId());
+            flashOrderRelation.setRelationId(acceptedList.get(i).getRelationId());
+            flashOrderRelation.setMemberId(order.getMemberId());
+            flashOrderRelation.setQuantity(acceptedList.get(i).getQuantity());
+            flashOrderRelationList.add(flashOrderRelation);
+        }
+        orderItemDao.insertList(orderItemList);
+        portalOrderDao.insertFlashOrderRelationList(flashOrderRelationList);
+        portalOrderDao.deductFlashPromotionCount(countMap);
+        //登记超时取消，秒杀订单按秒杀订单超时时间关闭
+        for (OmsOrder order : orderList) {
+            OrderCreatedEvent orderCreatedEvent = new OrderCreatedEvent();
+            orderCreatedEvent.setOrderId(order.getId());
+            orderCreatedEvent.setMemberId(order.getMemberId());
+            if (orderSetting != null && orderSetting.getFlashOrderOvertime() != null) {
+                orderCreatedEvent.setCancelTime(System.currentTimeMillis() + orderSetting.getFlashOrderOvertime() * 60 * 1000L);
+            }
+            orderOutboxService.addOrderCreated(orderCreatedEvent);
+            orderStatusCounter.moveAfterCommit(order.getMemberId(), null, order.getStatus());
+        }
+        memberOrderReadModel.refreshAfterCommit(orderIds);
+        afterCommit(() -> {
+            for (int i = 0; i < orderList.size(); i++) {
+                saveResultQuietly(acceptedList.get(i).getMemberId(), FlashOrderResult.of(orderList.get(i).getOrderSn(),
+                        FlashOrderResult.STATUS_CREATED, orderList.get(i).getId(), null));
+            }
+        });
+        return orderList.size();
+    }
+
+    @Override
+    public void reject(FlashOrderMessage message, String reason) {
+        LOGGER.warn("Flash order failed, orderSn: {}, reason: {}", message.getOrderSn(), reason);
+        flashPromotionStock.release(message.getRelationId(), message.getMemberId(), message.getQuantity());
+        saveResultQuietly(message.getMemberId(), FlashOrderResult.of(message.getOrderSn(), FlashOrderResult.STATUS_FAILED, null, reason));
+    }
+
+    private OmsOrderItem buildOrderItem(FlashOrderMessage message, PmsProduct product, PmsSkuStock sku) {
+        BigDecimal price = sku.getPrice() == null ? message.getFlashPromotionPrice() : sku.getPrice();
+        OmsOrderItem orderItem = new OmsOrderItem();
+        orderItem.setProductId(product.getId());
+        orderItem.setProductName(product.getName());
+        orderItem.setProductPic(sku.getPic() == null ? product.getPic() : sku.getPic());
+        orderItem.setProductAttr(sku.getSpData());
+        orderItem.setProductBrand(product.getBrandName());
+        orderItem.setProductSn(product.getProductSn());
+        orderItem.setProductPrice(price);
+        orderItem.setProductQuantity(message.getQuantity());
+        orderItem.setProductSkuId(sku.getId());
+        orderItem.setProductSkuCode(sku.getSkuCode());
+        orderItem.setProductCategoryId(product.getProductCategoryId());
+        //秒杀价与原价的差额作为单件活动优惠，秒杀订单不使用优惠券和积分
+        orderItem.setPromotionAmount(price.subtract(message.getFlashPromotionPrice()).max(BigDecimal.ZERO));
+        orderItem.setPromotionName(PROMOTION_NAME);
+        orderItem.setCouponAmount(BigDecimal.ZERO);
+        orderItem.setIntegrationAmount(BigDecimal.ZERO);
+        orderItem.setRealAmount(message.getFlashPromotionPrice());
+        orderItem.setGiftIntegration(product.getGiftPoint() == null ? 0 : product.getGiftPoint());
+        orderItem.setGiftGrowth(product.getGiftGrowth() == null ? 0 : product.getGiftGrowth());
+        return orderItem;
+    }
+
+    private OmsOrder buildOrder(FlashOrderMessage message, OmsOrderItem orderItem, UmsMemberReceiveAddress address, OmsOrderSetting orderSetting) {
+        BigDecimal quantity = new BigDecimal(orderItem.getProductQuantity());
+        OmsOrder order = new OmsOrder();
+        order.setMemberId(message.getMemberId());
+        order.setMemberUsername(message.getMemberUsername());
+        order.setOrderSn(message.getOrderSn());
+        order.setCreateTime(new Date(message.getCreateTime()));
+        order.setTotalAmount(orderItem.getProductPrice().multiply(quantity));
+        order.setPromotionAmount(orderItem.getPromotionAmount().multiply(quantity));
+        order.setPayAmount(orderItem.getRealAmount().multiply(quantity));
+        order.setPromotionInfo(PROMOTION_NAME);
+        order.setFreightAmount(BigDecimal.ZERO);
+        order.setCouponAmount(BigDecimal.ZERO);
+        order.setIntegrationAmount(BigDecimal.ZERO);
+        order.setDiscountAmount(BigDecimal.ZERO);
+        order.setUseIntegration(0);
+        //支付方式：0->未支付；订单来源：1->app订单；订单状态：0->待付款；订单类型：1->秒杀订单
+        order.setPayType(0);
+        order.setSourceType(1);
+        order.setStatus(0);
+        order.setOrderType(1);
+        order.setConfirmStatus(0);
+        order.setDeleteStatus(0);
+        order.setIntegration(orderItem.getGiftIntegration() * orderItem.getProductQuantity());
+        order.setGrowth(orderItem.getGiftGrowth() * orderItem.getProductQuantity());
+        if (orderSetting != null) {
+            order.setAutoConfirmDay(orderSetting.getConfirmOvertime());
+        }
+        order.setReceiverName(address.getName());
+        order.setReceiverPhone(address.getPhoneNumber());
+        order.setReceiverPostCode(address.getPostCode());
+        order.setReceiverProvince(address.getProvince());
+        order.setReceiverCity(address.getCity());
+        order.setReceiverRegion(address.getRegion());
+        order.setReceiverDetailAddress(address.getDetailAddress());
+        return order;
+    }
+
+    private FlashOrderResult rejectSubmit(String reason, String message) {
+        countSubmit(reason);
+        return FlashOrderResult.of(null, FlashOrderResult.STATUS_FAILED, null, message);
+    }
+
+    private void countSubmit(String result) {
+        meterRegistry.counter("mall.order.flash.submit", "result", result).increment();
+    }
+
+    private void saveResult(Long memberId, FlashOrderResult result) {
+        stringRedisTemplate.opsForValue().set(getResultKey(memberId, result.getOrderSn()), toJson(result),
+                Duration.ofSeconds(REDIS_EXPIRE_FLASH_ORDER));
+    }
+
+    private void saveResultQuietly(Long memberId, FlashOrderResult result) {
+        try {
+            saveResult(memberId, result);
+        } catch (DataAccessException e) {
+            LOGGER.warn("Save flash order result failed, orderSn: {}", result.getOrderSn(), e);
+        }
+    }
+
+    /**
+     * Run the action once the surrounding transaction commits, so a rolled back batch leaves no results behind
+     */
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private String getResultKey(Long memberId, String orderSn) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_FLASH_ORDER + ":" + memberId + ":" + orderSn;
+    }
+
+    private String toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Serialize flash order failed", e);
+        }
+    }
+
+    private <T> T fromJson(String json, Class<T> type) {
+        try {
+            return objectMapper.readValue(json, type);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Parse flash order failed", e);
+        }
+    }
+}
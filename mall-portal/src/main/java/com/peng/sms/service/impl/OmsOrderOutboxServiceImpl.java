@@ -0,0 +1,117 @@
+package com.peng.sms.service.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.peng.sms.component.OrderCancelScheduler;
+import com.peng.sms.dao.OmsOrderOutboxDao;
+import com.peng.sms.domain.OmsOrderOutbox;
+import com.peng.sms.domain.OrderCreatedEvent;
+import com.peng.sms.domain.QueueEnum;
+import com.peng.sms.exception.Asserts;
+import com.peng.sms.service.OmsCartItemService;
+import com.peng.sms.service.OmsOrderOutboxService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.CollectionUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Order event outbox Service implementation
+ */
+@Service
+public class OmsOrderOutboxServiceImpl implements OmsOrderOutboxService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OmsOrderOutboxServiceImpl.class);
+    private static final long HANDLED_RETENTION_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+    @Autowired
+    private OmsOrderOutboxDao orderOutboxDao;
+    @Autowired
+    private AmqpTemplate amqpTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private OmsCartItemService cartItemService;
+    @Autowired
+    private OrderCancelScheduler orderCancelScheduler;
+    @Value("${order.outboxBatchSize}")
+    private Integer OUTBOX_BATCH_SIZE;
+
+    @Override
+    public void addOrderCreated(OrderCreatedEvent event) {
+        OmsOrderOutbox outbox = new OmsOrderOutbox();
+        outbox.setOrderId(event.getOrderId());
+        outbox.setEventType(OmsOrderOutbox.EVENT_ORDER_CREATED);
+        outbox.setPayload(toJson(event));
+        outbox.setStatus(OmsOrderOutbox.STATUS_PENDING);
+        outbox.setCreateTime(new Date());
+        orderOutboxDao.insert(outbox);
+    }
+
+    @Override
+    public int relayBatch() {
+        List<OmsOrderOutbox> outboxList = orderOutboxDao.getPendingListForUpdate(OUTBOX_BATCH_SIZE);
+        if (CollectionUtils.isEmpty(outboxList)) {
+            return 0;
+        }
+        //发送失败时事务回滚，已发送的事件会重发，由消费端去重
+        List<Long> ids = new ArrayList<>(outboxList.size());
+        for (OmsOrderOutbox outbox : outboxList) {
+            amqpTemplate.convertAndSend(QueueEnum.QUEUE_ORDER_EVENT.getExchange(),
+                    QueueEnum.QUEUE_ORDER_EVENT.getRouteKey(), toJson(outbox));
+            ids.add(outbox.getId());
+        }
+        orderOutboxDao.updatePublished(ids, new Date());
+        return ids.size();
+    }
+
+    @Override
+    public void handle(OmsOrderOutbox outbox) {
+        if (orderOutboxDao.updateHandled(outbox.getId()) == 0) {
+            LOGGER.info("Skip handled order event, id: {}", outbox.getId());
+            return;
+        }
+        if (!OmsOrderOutbox.EVENT_ORDER_CREATED.equals(outbox.getEventType())) {
+            LOGGER.warn("Unknown order event type: {}, id: {}", outbox.getEventType(), outbox.getId());
+            return;
+        }
+        OrderCreatedEvent event = fromJson(outbox.getPayload(), OrderCreatedEvent.class);
+        //删除购物车中的下单商品
+        if (!CollectionUtils.isEmpty(event.getCartItemIds())) {
+            cartItemService.delete(event.getMemberId(), event.getCartItemIds());
+        }
+        //登记超时取消，已过期的订单立即取消
+        if (event.getCancelTime() != null) {
+            orderCancelScheduler.schedule(event.getOrderId(), Math.max(event.getCancelTime() - System.currentTimeMillis(), 0));
+        }
+    }
+
+    @Override
+    public int deleteHandled() {
+        return orderOutboxDao.deleteHandledBefore(new Date(System.currentTimeMillis() - HANDLED_RETENTION_MILLIS));
+    }
+
+    private String toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            Asserts.fail("Serialize order event failed");
+            return null;
+        }
+    }
+
+    private <T> T fromJson(String json, Class<T> type) {
+        try {
+            return objectMapper.readValue(json, type);
+        } catch (JsonProcessingException e) {
+            Asserts.fail("Parse order event failed");
+            return null;
+        }
+    }
+}
@@ -1,10 +1,13 @@
 package com.peng.sms.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.collection.CollUtil;
-import com.github.pagehelper.PageHelper;
 import com.peng.sms.api.CommonPage;
-import com.peng.sms.component.CancelOrderSender;
+import com.peng.sms.component.FlashPromotionStock;
+import com.peng.sms.component.MemberOrderReadModel;
+import com.peng.sms.component.OrderCancelScheduler;
+import com.peng.sms.component.OrderSnGenerator;
+import com.peng.sms.component.OrderStateMachine;
+import com.peng.sms.component.OrderStatusCounter;
 import com.peng.sms.dao.PortalOrderDao;
 import com.peng.sms.dao.PortalOrderItemDao;
 import com.peng.sms.dao.SmsCouponHistoryDao;
@@ -13,22 +16,37 @@ import com.peng.sms.exception.Asserts;
 import com.peng.sms.mapper.*;
 import com.peng.sms.model.*;
 import com.peng.sms.service.*;
+import com.peng.sms.util.DeadlineJoiner;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.CollectionUtils;
+import org.springframework.util.StopWatch;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * 前台订单管理Service
  */
 @Service
 public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OmsPortalOrderServiceImpl.class);
+    private static final long SLOW_SAVE_ORDER_MILLIS = 200;
     @Autowired
     private UmsMemberService memberService;
     @Autowired
@@ -40,7 +58,7 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
     @Autowired
     private UmsIntegrationConsumeSettingMapper integrationConsumeSettingMapper;
     @Autowired
-    private PmsSkuStockMapper skuStockMapper;
+    private PmsSkuStockReservationService skuStockReservationService;
     @Autowired
     private SmsCouponHistoryDao couponHistoryDao;
     @Autowired
@@ -50,11 +68,13 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
     @Autowired
     private SmsCouponHistoryMapper couponHistoryMapper;
     @Autowired
-    private RedisService redisService;
-    @Value("${redis.key.orderId}")
-    private String REDIS_KEY_ORDER_ID;
-    @Value("${redis.database}")
-    private String REDIS_DATABASE;
+    private OrderSnGenerator orderSnGenerator;
+    @Autowired
+    private UmsMemberCacheService memberCacheService;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Value("${order.cancelBatchSize}")
+    private Integer CANCEL_BATCH_SIZE;
     @Autowired
     private PortalOrderDao portalOrderDao;
     @Autowired
@@ -62,32 +82,90 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
     @Autowired
     private OmsOrderItemMapper orderItemMapper;
     @Autowired
-    private CancelOrderSender cancelOrderSender;
+    private OrderCancelScheduler orderCancelScheduler;
+    @Autowired
+    private OmsOrderOutboxService orderOutboxService;
+    @Autowired
+    private OrderStateMachine orderStateMachine;
+    @Autowired
+    private MemberOrderReadModel memberOrderReadModel;
+    @Autowired
+    private OrderStatusCounter orderStatusCounter;
+    @Autowired
+    private FlashPromotionStock flashPromotionStock;
+    @Autowired
+    @Qualifier("confirmOrderExecutor")
+    private ThreadPoolTaskExecutor confirmOrderExecutor;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Value("${order.confirmTimeout}")
+    private Long CONFIRM_ORDER_TIMEOUT;
+    private final Map<String, Timer> stageTimerMap = new ConcurrentHashMap<>();
 
     @Override
     public ConfirmOrderResult generateConfirmOrder(List<Long> cartIds) {
         ConfirmOrderResult result = new ConfirmOrderResult();
-        //获取购物车信息
+        long startTime = System.currentTimeMillis();
+        DeadlineJoiner joiner = new DeadlineJoiner("confirm order", startTime + CONFIRM_ORDER_TIMEOUT);
+        //会员在请求线程中解析，各步骤只使用会员ID，不依赖请求上下文，超时后仍在运行的步骤不会访问已结束的请求
         UmsMember currentMember = memberService.getCurrentMember();
-        List<CartPromotionItem> cartPromotionItemList = cartItemService.listPromotion(currentMember.getId(),cartIds);
+        Long memberId = currentMember.getId();
+        //购物车、收货地址和积分使用规则互不依赖，并行获取；优惠券依赖购物车促销信息
+        CompletableFuture<List<CartPromotionItem>> cartFuture = runStage("cartPromotion",
+                () -> cartItemService.listPromotion(memberId, cartIds));
+        CompletableFuture<List<UmsMemberReceiveAddress>> addressFuture = runStage("address",
+                () -> memberReceiveAddressService.list(memberId));
+        CompletableFuture<UmsIntegrationConsumeSetting> settingFuture = runStage("integrationSetting",
+                () -> integrationConsumeSettingMapper.selectByPrimaryKey(1L));
+        CompletableFuture<List<SmsCouponHistoryDetail>> couponFuture = cartFuture.thenCompose(
+                cartPromotionItemList -> runStage("coupon", () -> memberCouponService.listCart(memberId, cartPromotionItemList, 1)));
+        //获取购物车信息，购物车是必需的
+        List<CartPromotionItem> cartPromotionItemList = joiner.join(cartFuture, "cartPromotion");
+        if (cartPromotionItemList == null) {
+            Asserts.fail("获取购物车信息超时，请稍后重试");
+        }
         result.setCartPromotionItemList(cartPromotionItemList);
         //获取用户收货地址列表
-        List<UmsMemberReceiveAddress> memberReceiveAddressList = memberReceiveAddressService.list();
-        result.setMemberReceiveAddressList(memberReceiveAddressList);
+        List<UmsMemberReceiveAddress> memberReceiveAddressList = joiner.join(addressFuture, "address");
+        result.setMemberReceiveAddressList(memberReceiveAddressList == null ? new ArrayList<>() : memberReceiveAddressList);
         //获取用户可用优惠券列表
-        List<SmsCouponHistoryDetail> couponHistoryDetailList = memberCouponService.listCart(cartPromotionItemList, 1);
-        result.setCouponHistoryDetailList(couponHistoryDetailList);
+        List<SmsCouponHistoryDetail> couponHistoryDetailList = joiner.join(couponFuture, "coupon");
+        result.setCouponHistoryDetailList(couponHistoryDetailList == null ? new ArrayList<>() : couponHistoryDetailList);
         //获取用户积分
         result.setMemberIntegration(currentMember.getIntegration());
         //获取积分使用规则
-        UmsIntegrationConsumeSetting integrationConsumeSetting = integrationConsumeSettingMapper.selectByPrimaryKey(1L);
+        UmsIntegrationConsumeSetting integrationConsumeSetting = joiner.join(settingFuture, "integrationSetting");
         result.setIntegrationConsumeSetting(integrationConsumeSetting);
         //计算总金额、活动优惠、应付金额
         ConfirmOrderResult.CalcAmount calcAmount = calcCartAmount(cartPromotionItemList);
         result.setCalcAmount(calcAmount);
+        recordStage("total", System.currentTimeMillis() - startTime);
         return result;
     }
 
+    /**
+     * 在确认订单线程池中执行一个步骤并记录耗时
+     */
+    private <T> CompletableFuture<T> runStage(String stage, Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(() -> {
+            long stageStart = System.currentTimeMillis();
+            try {
+                return supplier.get();
+            } finally {
+                recordStage(stage, System.currentTimeMillis() - stageStart);
+            }
+        }, confirmOrderExecutor);
+    }
+
+    private void recordStage(String stage, long millis) {
+        //每个步骤的计时器只注册一次
+        stageTimerMap.computeIfAbsent(stage, key -> Timer.builder("mall.order.confirm.stage")
+                .description("Latency of the stages assembling the order confirmation")
+                .tag("stage", key)
+                .register(meterRegistry))
+                .record(millis, TimeUnit.MILLISECONDS);
+    }
+
     @Override
     public Map<String, Object> generateOrder(OrderParam orderParam) {
         List<OmsOrderItem> orderItemList = new ArrayList<>();
@@ -130,7 +208,8 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
             }
         } else {
             //使用优惠券
-            SmsCouponHistoryDetail couponHistoryDetail = getUseCoupon(cartPromotionItemList, orderParam.getCouponId());
+            List<SmsCouponHistoryDetail> couponHistoryDetailList = memberCouponService.listCart(cartPromotionItemList, 1);
+            SmsCouponHistoryDetail couponHistoryDetail = getUseCoupon(couponHistoryDetailList, orderParam.getCouponId());
             if (couponHistoryDetail == null) {
                 Asserts.fail("该优惠券不可用");
             }
@@ -146,7 +225,8 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
         } else {
             //使用积分
             BigDecimal totalAmount = calcTotalAmount(orderItemList);
-            BigDecimal integrationAmount = getUseIntegrationAmount(orderParam.getUseIntegration(), totalAmount, currentMember, orderParam.getCouponId() != null);
+            UmsIntegrationConsumeSetting integrationConsumeSetting = integrationConsumeSettingMapper.selectByPrimaryKey(1L);
+            BigDecimal integrationAmount = getUseIntegrationAmount(orderParam.getUseIntegration(), totalAmount, currentMember, orderParam.getCouponId() != null, integrationConsumeSetting);
             if (integrationAmount.compareTo(new BigDecimal(0)) == 0) {
                 Asserts.fail("积分不可用");
             } else {
@@ -160,7 +240,7 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
         //计算order_item的实付金额
         handleRealAmount(orderItemList);
         //进行库存锁定
-        lockStock(cartPromotionItemList);
+        skuStockReservationService.reserve(orderItemList);
         //根据商品合计、运费、活动优惠、优惠券、积分计算应付金额
         OmsOrder order = new OmsOrder();
         order.setDiscountAmount(new BigDecimal(0));
@@ -211,115 +291,273 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
         //计算赠送成长值
         order.setGrowth(calcGiftGrowth(orderItemList));
         //生成订单号
-        order.setOrderSn(generateOrderSn(order));
+        order.setOrderSn(orderSnGenerator.generate(order.getSourceType(), order.getPayType()));
         //设置自动收货天数
         List<OmsOrderSetting> orderSettings = orderSettingMapper.selectByExample(new OmsOrderSettingExample());
         if(CollUtil.isNotEmpty(orderSettings)){
             order.setAutoConfirmDay(orderSettings.get(0).getConfirmOvertime());
         }
         // TODO: 2018/9/3 bill_*,delivery_*
-        //插入order表和order_item表
+        //删除购物车商品和登记超时取消写入发件箱，随订单一起提交，由消费端异步处理
+        OrderCreatedEvent orderCreatedEvent = new OrderCreatedEvent();
+        orderCreatedEvent.setMemberId(currentMember.getId());
+        orderCreatedEvent.setCartItemIds(getCartItemIds(cartPromotionItemList));
+        if (CollUtil.isNotEmpty(orderSettings)) {
+            orderCreatedEvent.setCancelTime(System.currentTimeMillis() + orderSettings.get(0).getNormalOrderOvertime() * 60 * 1000L);
+        }
+        //使用的积分随订单一起保存，取消订单时按此返还
+        order.setUseIntegration(orderParam.getUseIntegration());
+        saveOrder(order, orderItemList, orderCreatedEvent);
+        Map<String, Object> result = new HashMap<>();
+        result.put("order", order);
+        result.put("orderItemList", orderItemList);
+        return result;
+    }
+
+    /**
+     * 在下单事务中写入订单、订单商品、优惠券使用、积分扣减和发件箱事件，任一步失败整体回滚，并记录各步耗时
+     */
+    private void saveOrder(OmsOrder order, List<OmsOrderItem> orderItemList, OrderCreatedEvent orderCreatedEvent) {
+        StopWatch stopWatch = new StopWatch(order.getOrderSn());
+        //插入order表和order_item表，订单商品一条语句批量插入并回填ID
+        stopWatch.start("order");
         orderMapper.insert(order);
+        stopWatch.stop();
+        stopWatch.start("orderItem");
         for (OmsOrderItem orderItem : orderItemList) {
             orderItem.setOrderId(order.getId());
             orderItem.setOrderSn(order.getOrderSn());
         }
         orderItemDao.insertList(orderItemList);
-        //如使用优惠券更新优惠券使用状态
-        if (orderParam.getCouponId() != null) {
-            updateCouponStatus(orderParam.getCouponId(), currentMember.getId(), 1);
-        }
-        //如使用积分需要扣除积分
-        if (orderParam.getUseIntegration() != null) {
-            order.setUseIntegration(orderParam.getUseIntegration());
-            if(currentMember.getIntegration()==null){
-                currentMember.setIntegration(0);
+        stopWatch.stop();
+        //如使用优惠券，按条件更新一张未使用的优惠券，没有可用优惠券时回滚
+        if (order.getCouponId() != null) {
+            stopWatch.start("coupon");
+            if (couponHistoryDao.useCoupon(order.getMemberId(), order.getCouponId(), order.getId(), order.getOrderSn()) == 0) {
+                Asserts.fail("该优惠券不可用");
+            }
+            memberCouponService.clearCouponCache(order.getMemberId());
+            stopWatch.stop();
+        }
+        //如使用积分，在余额足够时扣除积分，否则回滚
+        if (order.getUseIntegration() != null && order.getUseIntegration() > 0) {
+            stopWatch.start("integration");
+            if (portalOrderDao.deductMemberIntegration(order.getMemberId(), order.getUseIntegration()) == 0) {
+                Asserts.fail("积分不足");
             }
-            memberService.updateIntegration(currentMember.getId(), currentMember.getIntegration() - orderParam.getUseIntegration());
+            afterCommit(() -> memberCacheService.delMember(order.getMemberId()));
+            stopWatch.stop();
+        }
+        stopWatch.start("outbox");
+        orderCreatedEvent.setOrderId(order.getId());
+        orderOutboxService.addOrderCreated(orderCreatedEvent);
+        stopWatch.stop();
+        memberOrderReadModel.refreshAfterCommit(Collections.singletonList(order.getId()));
+        orderStatusCounter.moveAfterCommit(order.getMemberId(), null, order.getStatus());
+        if (stopWatch.getTotalTimeMillis() >= SLOW_SAVE_ORDER_MILLIS) {
+            LOGGER.warn("Slow order save: {}", stopWatch.prettyPrint());
+        } else if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Order save: {}", stopWatch.shortSummary());
         }
-        //删除购物车中的下单商品
-        deleteCartItemList(cartPromotionItemList, currentMember);
-        //发送延迟消息取消订单
-        sendDelayMessageCancelOrder(order.getId());
-        Map<String, Object> result = new HashMap<>();
-        result.put("order", order);
-        result.put("orderItemList", orderItemList);
-        return result;
     }
 
     @Override
     public Integer paySuccess(Long orderId, Integer payType) {
-        //修改订单支付状态
-        OmsOrder order = new OmsOrder();
-        order.setId(orderId);
-        order.setStatus(1);
-        order.setPaymentTime(new Date());
-        order.setPayType(payType);
-        orderMapper.updateByPrimaryKeySelective(order);
+        //修改订单支付状态，订单已不是待付款时（已支付或已取消）不再处理
+        OmsOrder changes = new OmsOrder();
+        changes.setPaymentTime(new Date());
+        changes.setPayType(payType);
+        if (!orderStateMachine.fire(orderId, null, OrderStateMachine.Transition.PAY, changes, OrderStateMachine.OPERATE_MAN_SYSTEM)) {
+            return 0;
+        }
         //恢复所有下单商品的锁定库存，扣减真实库存
         OmsOrderDetail orderDetail = portalOrderDao.getDetail(orderId);
-        int count = portalOrderDao.updateSkuStock(orderDetail.getOrderItemList());
+        int count = skuStockReservationService.deduct(orderDetail.getOrderItemList());
+        //已支付订单不再需要超时取消
+        orderCancelScheduler.unschedule(orderId);
         return count;
     }
 
     @Override
     public Integer cancelTimeOutOrder() {
-        Integer count=0;
+        int count = 0;
         OmsOrderSetting orderSetting = orderSettingMapper.selectByPrimaryKey(1L);
-        //查询超时、未支付的订单及订单详情
-        List<OmsOrderDetail> timeOutOrders = portalOrderDao.getTimeOutOrders(orderSetting.getNormalOrderOvertime());
+        //按订单ID分批处理超时订单，每批在独立事务中提交，下一批从上一批的最后一个ID之后继续
+        Long afterId = null;
+        while (true) {
+            List<Long> ids = portalOrderDao.getTimeOutOrderIds(orderSetting.getNormalOrderOvertime(), afterId, CANCEL_BATCH_SIZE);
+            if (CollectionUtils.isEmpty(ids)) {
+                break;
+            }
+            Integer cancelCount = transactionTemplate.execute(status -> cancelTimeOutOrderBatch(ids));
+            count += cancelCount == null ? 0 : cancelCount;
+            afterId = ids.get(ids.size() - 1);
+            if (ids.size() < CANCEL_BATCH_SIZE) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 批量取消一批超时订单，库存、优惠券和积分的返还各合并为一条语句
+     */
+    private int cancelTimeOutOrderBatch(List<Long> ids) {
+        //锁定仍未支付的订单，期间已支付的订单不再取消
+        List<OmsOrderDetail> timeOutOrders = portalOrderDao.getUnpaidOrderDetailsForUpdate(ids);
         if (CollectionUtils.isEmpty(timeOutOrders)) {
-            return count;
+            return 0;
         }
         //修改订单状态为交易取消
-        List<Long> ids = new ArrayList<>();
+        List<Long> cancelIds = new ArrayList<>();
+        List<OmsOrderItem> orderItemList = new ArrayList<>();
+        for (OmsOrderDetail timeOutOrder : timeOutOrders) {
+            cancelIds.add(timeOutOrder.getId());
+            if (timeOutOrder.getOrderItemList() != null) {
+                orderItemList.addAll(timeOutOrder.getOrderItemList());
+            }
+        }
+        orderStateMachine.fireAll(cancelIds, OrderStateMachine.Transition.CANCEL, OrderStateMachine.OPERATE_MAN_SYSTEM);
+        //解除订单商品库存锁定，按SKU合并为一条更新
+        skuStockReservationService.release(orderItemList);
+        //返还秒杀订单占用的秒杀库存
+        List<Long> flashOrderIds = new ArrayList<>();
         for (OmsOrderDetail timeOutOrder : timeOutOrders) {
-            ids.add(timeOutOrder.getId());
+            if (Integer.valueOf(1).equals(timeOutOrder.getOrderType())) {
+                flashOrderIds.add(timeOutOrder.getId());
+            }
         }
-        portalOrderDao.updateOrderStatus(ids, 4);
+        releaseFlashStock(flashOrderIds);
+        //修改优惠券使用状态
+        releaseCoupons(timeOutOrders);
+        //返还使用积分，按会员合并为一条更新
+        Map<Long, Integer> memberIntegrationMap = new LinkedHashMap<>();
         for (OmsOrderDetail timeOutOrder : timeOutOrders) {
-            //解除订单商品库存锁定
-            portalOrderDao.releaseSkuStockLock(timeOutOrder.getOrderItemList());
-            //修改优惠券使用状态
-            updateCouponStatus(timeOutOrder.getCouponId(), timeOutOrder.getMemberId(), 0);
-            //返还使用积分
             if (timeOutOrder.getUseIntegration() != null) {
-                UmsMember member = memberService.getById(timeOutOrder.getMemberId());
-                memberService.updateIntegration(timeOutOrder.getMemberId(), member.getIntegration() + timeOutOrder.getUseIntegration());
+                memberIntegrationMap.merge(timeOutOrder.getMemberId(), timeOutOrder.getUseIntegration(), Integer::sum);
+            }
+        }
+        if (!memberIntegrationMap.isEmpty()) {
+            List<UmsMember> memberList = new ArrayList<>();
+            for (Map.Entry<Long, Integer> entry : memberIntegrationMap.entrySet()) {
+                UmsMember member = new UmsMember();
+                member.setId(entry.getKey());
+                member.setIntegration(entry.getValue());
+                memberList.add(member);
             }
+            portalOrderDao.addMemberIntegration(memberList);
+            //事务提交后再删除会员缓存，避免并发读取把提交前的积分重新写入缓存
+            List<Long> memberIds = new ArrayList<>(memberIntegrationMap.keySet());
+            afterCommit(() -> {
+                for (Long memberId : memberIds) {
+                    memberCacheService.delMember(memberId);
+                }
+            });
         }
         return timeOutOrders.size();
     }
 
-    @Override
-    public void cancelOrder(Long orderId) {
-        //查询未付款的取消订单
-        OmsOrderExample example = new OmsOrderExample();
-        example.createCriteria().andIdEqualTo(orderId).andStatusEqualTo(0).andDeleteStatusEqualTo(0);
-        List<OmsOrder> cancelOrderList = orderMapper.selectByExample(example);
-        if (CollectionUtils.isEmpty(cancelOrderList)) {
+    /**
+     * 返还已取消秒杀订单的秒杀库存，MySQL中的剩余数量随事务提交，Redis中的库存和会员已购数量在提交后返还
+     */
+    private void releaseFlashStock(List<Long> orderIds) {
+        if (orderIds.isEmpty()) {
+            return;
+        }
+        List<OmsFlashOrderRelation> flashOrderRelationList = portalOrderDao.getFlashOrderRelationList(orderIds);
+        if (CollectionUtils.isEmpty(flashOrderRelationList)) {
+            return;
+        }
+        Map<Long, Integer> countMap = new LinkedHashMap<>();
+        for (OmsFlashOrderRelation flashOrderRelation : flashOrderRelationList) {
+            countMap.merge(flashOrderRelation.getRelationId(), flashOrderRelation.getQuantity(), Integer::sum);
+        }
+        portalOrderDao.addFlashPromotionCount(countMap);
+        afterCommit(() -> {
+            for (OmsFlashOrderRelation flashOrderRelation : flashOrderRelationList) {
+                flashPromotionStock.release(flashOrderRelation.getRelationId(), flashOrderRelation.getMemberId(),
+                        flashOrderRelation.getQuantity());
+            }
+        });
+    }
+
+    /**
+     * 在当前事务提交后执行，没有事务时立即执行
+     */
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * 批量返还订单使用的优惠券，每个订单返还一张该会员已使用的同种优惠券
+     */
+    private void releaseCoupons(List<OmsOrderDetail> orderList) {
+        Set<Long> memberIds = new HashSet<>();
+        Set<Long> couponIds = new HashSet<>();
+        for (OmsOrderDetail order : orderList) {
+            if (order.getCouponId() != null) {
+                memberIds.add(order.getMemberId());
+                couponIds.add(order.getCouponId());
+            }
+        }
+        if (couponIds.isEmpty()) {
             return;
         }
-        OmsOrder cancelOrder = cancelOrderList.get(0);
-        if (cancelOrder != null) {
-            //修改订单状态为取消
-            cancelOrder.setStatus(4);
-            orderMapper.updateByPrimaryKeySelective(cancelOrder);
-            OmsOrderItemExample orderItemExample = new OmsOrderItemExample();
-            orderItemExample.createCriteria().andOrderIdEqualTo(orderId);
-            List<OmsOrderItem> orderItemList = orderItemMapper.selectByExample(orderItemExample);
-            //解除订单商品库存锁定
-            if (!CollectionUtils.isEmpty(orderItemList)) {
-                portalOrderDao.releaseSkuStockLock(orderItemList);
+        SmsCouponHistoryExample example = new SmsCouponHistoryExample();
+        example.createCriteria().andMemberIdIn(new ArrayList<>(memberIds))
+                .andCouponIdIn(new ArrayList<>(couponIds)).andUseStatusEqualTo(1);
+        example.setOrderByClause("id asc");
+        Map<String, Deque<SmsCouponHistory>> historyMap = new HashMap<>();
+        for (SmsCouponHistory couponHistory : couponHistoryMapper.selectByExample(example)) {
+            historyMap.computeIfAbsent(couponHistory.getMemberId() + ":" + couponHistory.getCouponId(), k -> new ArrayDeque<>())
+                    .add(couponHistory);
+        }
+        List<Long> historyIds = new ArrayList<>();
+        for (OmsOrderDetail order : orderList) {
+            if (order.getCouponId() == null) {
+                continue;
             }
-            //修改优惠券使用状态
-            updateCouponStatus(cancelOrder.getCouponId(), cancelOrder.getMemberId(), 0);
-            //返还使用积分
-            if (cancelOrder.getUseIntegration() != null) {
-                UmsMember member = memberService.getById(cancelOrder.getMemberId());
-                memberService.updateIntegration(cancelOrder.getMemberId(), member.getIntegration() + cancelOrder.getUseIntegration());
+            Deque<SmsCouponHistory> histories = historyMap.get(order.getMemberId() + ":" + order.getCouponId());
+            if (histories != null && !histories.isEmpty()) {
+                historyIds.add(histories.poll().getId());
             }
         }
+        if (historyIds.isEmpty()) {
+            return;
+        }
+        SmsCouponHistory record = new SmsCouponHistory();
+        record.setUseTime(new Date());
+        record.setUseStatus(0);
+        SmsCouponHistoryExample updateExample = new SmsCouponHistoryExample();
+        updateExample.createCriteria().andIdIn(historyIds);
+        couponHistoryMapper.updateByExampleSelective(record, updateExample);
+        for (Long memberId : memberIds) {
+            memberCouponService.clearCouponCache(memberId);
+        }
+    }
+
+    @Override
+    public void cancelOrder(Long orderId) {
+        //与批量取消共用同一条加锁的取消路径
+        cancelOrders(Collections.singletonList(orderId));
+    }
+
+    @Override
+    public Integer cancelOrders(List<Long> orderIds) {
+        if (CollectionUtils.isEmpty(orderIds)) {
+            return 0;
+        }
+        //按ID排序加锁，避免并发消费者之间死锁
+        return cancelTimeOutOrderBatch(new ArrayList<>(new TreeSet<>(orderIds)));
     }
 
     @Override
@@ -327,24 +565,25 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
         //获取订单超时时间
         OmsOrderSetting orderSetting = orderSettingMapper.selectByPrimaryKey(1L);
         long delayTimes = orderSetting.getNormalOrderOvertime() * 60 * 1000;
-        //发送延迟消息
-        cancelOrderSender.sendMessage(orderId, delayTimes);
+        //登记超时取消
+        orderCancelScheduler.schedule(orderId, delayTimes);
     }
 
     @Override
     public void confirmReceiveOrder(Long orderId) {
         UmsMember member = memberService.getCurrentMember();
+        OmsOrder changes = new OmsOrder();
+        changes.setConfirmStatus(1);
+        changes.setReceiveTime(new Date());
+        if (orderStateMachine.fire(orderId, member.getId(), OrderStateMachine.Transition.CONFIRM_RECEIVE, changes, OrderStateMachine.OPERATE_MAN_MEMBER)) {
+            return;
+        }
+        //确认失败时再查询订单给出原因
         OmsOrder order = orderMapper.selectByPrimaryKey(orderId);
-        if(!member.getId().equals(order.getMemberId())){
+        if(order == null || !member.getId().equals(order.getMemberId())){
             Asserts.fail("不能确认他人订单！");
         }
-        if(order.getStatus()!=2){
-            Asserts.fail("该订单还未发货！");
-        }
-        order.setStatus(3);
-        order.setConfirmStatus(1);
-        order.setReceiveTime(new Date());
-        orderMapper.updateByPrimaryKey(order);
+        Asserts.fail("该订单还未发货！");
     }
 
     @Override
@@ -353,113 +592,117 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
             status = null;
         }
         UmsMember member = memberService.getCurrentMember();
-        PageHelper.startPage(pageNum,pageSize);
-        OmsOrderExample orderExample = new OmsOrderExample();
-        OmsOrderExample.Criteria criteria = orderExample.createCriteria();
-        criteria.andDeleteStatusEqualTo(0)
-                .andMemberIdEqualTo(member.getId());
-        if(status!=null){
-            criteria.andStatusEqualTo(status);
-        }
-        orderExample.setOrderByClause("create_time desc");
-        List<OmsOrder> orderList = orderMapper.selectByExample(orderExample);
-        CommonPage<OmsOrder> orderPage = CommonPage.restPage(orderList);
-        //设置分页信息
-        CommonPage<OmsOrderDetail> resultPage = new CommonPage<>();
-        resultPage.setPageNum(orderPage.getPageNum());
-        resultPage.setPageSize(orderPage.getPageSize());
-        resultPage.setTotal(orderPage.getTotal());
-        resultPage.setTotalPage(orderPage.getTotalPage());
-        if(CollUtil.isEmpty(orderList)){
-            return resultPage;
-        }
-        //设置数据信息
-        List<Long> orderIds = orderList.stream().map(OmsOrder::getId).collect(Collectors.toList());
-        OmsOrderItemExample orderItemExample = new OmsOrderItemExample();
-        orderItemExample.createCriteria().andOrderIdIn(orderIds);
-        List<OmsOrderItem> orderItemList = orderItemMapper.selectByExample(orderItemExample);
-        List<OmsOrderDetail> orderDetailList = new ArrayList<>();
-        for (OmsOrder omsOrder : orderList) {
-            OmsOrderDetail orderDetail = new OmsOrderDetail();
-            BeanUtil.copyProperties(omsOrder,orderDetail);
-            List<OmsOrderItem> relatedItemList = orderItemList.stream().filter(item -> item.getOrderId().equals(orderDetail.getId())).collect(Collectors.toList());
-            orderDetail.setOrderItemList(relatedItemList);
-            orderDetailList.add(orderDetail);
-        }
-        resultPage.setList(orderDetailList);
-        return resultPage;
+        return memberOrderReadModel.list(member.getId(), status, pageNum, pageSize);
+    }
+
+    @Override
+    public CommonPage<OmsOrderDetail> listByCursor(Integer status, String cursor, Integer pageSize) {
+        if(status==-1){
+            status = null;
+        }
+        UmsMember member = memberService.getCurrentMember();
+        return memberOrderReadModel.listByCursor(member.getId(), status, cursor, pageSize);
+    }
+
+    @Override
+    public Map<Integer, Long> statusCount() {
+        UmsMember member = memberService.getCurrentMember();
+        return orderStatusCounter.get(member.getId());
     }
 
     @Override
     public OmsOrderDetail detail(Long orderId) {
-        OmsOrder omsOrder = orderMapper.selectByPrimaryKey(orderId);
+        UmsMember member = memberService.getCurrentMember();
+        OmsOrderDetail orderDetail = memberOrderReadModel.get(member.getId(), orderId);
+        if (orderDetail != null) {
+            return orderDetail;
+        }
+        //读模型中没有时（如已删除的订单）从数据库查询
+        List<OmsOrderDetail> orderList = portalOrderDao.getOrderList(null, Collections.singletonList(orderId));
+        if (CollUtil.isEmpty(orderList)) {
+            return null;
+        }
+        orderDetail = orderList.get(0);
         OmsOrderItemExample example = new OmsOrderItemExample();
         example.createCriteria().andOrderIdEqualTo(orderId);
-        List<OmsOrderItem> orderItemList = orderItemMapper.selectByExample(example);
-        OmsOrderDetail orderDetail = new OmsOrderDetail();
-        BeanUtil.copyProperties(omsOrder,orderDetail);
-        orderDetail.setOrderItemList(orderItemList);
+        orderDetail.setOrderItemList(orderItemMapper.selectByExample(example));
         return orderDetail;
     }
 
     @Override
     public void deleteOrder(Long orderId) {
         UmsMember member = memberService.getCurrentMember();
+        if (orderStateMachine.delete(orderId, member.getId())) {
+            return;
+        }
+        //删除失败时再查询订单给出原因
         OmsOrder order = orderMapper.selectByPrimaryKey(orderId);
-        if(!member.getId().equals(order.getMemberId())){
+        if(order == null || !member.getId().equals(order.getMemberId())){
             Asserts.fail("不能删除他人订单！");
         }
-        if(order.getStatus()==3||order.getStatus()==4){
-            order.setDeleteStatus(1);
-            orderMapper.updateByPrimaryKey(order);
-        }else{
+        if(order.getStatus()!=3&&order.getStatus()!=4){
             Asserts.fail("只能删除已完成或已关闭的订单！");
         }
     }
 
     @Override
-    public void paySuccessByOrderSn(String orderSn, Integer payType) {
-        OmsOrderExample example =  new OmsOrderExample();
-        example.createCriteria()
-                .andOrderSnEqualTo(orderSn)
-                .andStatusEqualTo(0)
-                .andDeleteStatusEqualTo(0);
-        List<OmsOrder> orderList = orderMapper.selectByExample(example);
-        if(CollUtil.isNotEmpty(orderList)){
-            OmsOrder order = orderList.get(0);
-            paySuccess(order.getId(),payType);
+    public boolean paySuccessByOrderSn(String orderSn, Integer payType) {
+        //锁定订单后按当前状态处理，避免与超时取消并发时漏判
+        List<OmsOrderDetail> orderList = portalOrderDao.getOrderListBySnForUpdate(Collections.singletonList(orderSn));
+        if (CollUtil.isEmpty(orderList)) {
+            return true;
+        }
+        OmsOrderDetail order = orderList.get(0);
+        payLockedOrder(order, payType);
+        return !isClosed(order);
+    }
+
+    @Override
+    public Integer paySuccessByOrderSnList(List<String> orderSnList, Integer payType) {
+        if (CollUtil.isEmpty(orderSnList)) {
+            return 0;
+        }
+        //按ID顺序加锁，避免与其他批次之间死锁
+        List<OmsOrderDetail> orderList = portalOrderDao.getOrderListBySnForUpdate(orderSnList);
+        int count = 0;
+        for (OmsOrderDetail order : orderList) {
+            if (payLockedOrder(order, payType)) {
+                count++;
+            }
         }
+        return count;
     }
 
     /**
-     * 生成18位订单编号:8位日期+2位平台号码+2位支付方式+6位以上自增id
+     * 对已加锁的订单应用付款，待付款订单改为已支付；已关闭订单收到付款时记录错误，需人工退款
+     *
+     * @return 订单是否被改为已支付
      */
-    private String generateOrderSn(OmsOrder order) {
-        StringBuilder sb = new StringBuilder();
-        String date = new SimpleDateFormat("yyyyMMdd").format(new Date());
-        String key = REDIS_DATABASE+":"+ REDIS_KEY_ORDER_ID + date;
-        Long increment = redisService.incr(key, 1);
-        sb.append(date);
-        sb.append(String.format("%02d", order.getSourceType()));
-        sb.append(String.format("%02d", order.getPayType()));
-        String incrementStr = increment.toString();
-        if (incrementStr.length() <= 6) {
-            sb.append(String.format("%06d", increment));
-        } else {
-            sb.append(incrementStr);
+    private boolean payLockedOrder(OmsOrderDetail order, Integer payType) {
+        if (isClosed(order)) {
+            LOGGER.error("Payment arrived for a closed order and has to be refunded, orderId: {}, orderSn: {}",
+                    order.getId(), order.getOrderSn());
+            return false;
         }
-        return sb.toString();
+        return Integer.valueOf(0).equals(order.getStatus()) && paySuccess(order.getId(), payType) > 0;
+    }
+
+    /**
+     * 订单是否已关闭或无效
+     */
+    private static boolean isClosed(OmsOrder order) {
+        return Integer.valueOf(4).equals(order.getStatus()) || Integer.valueOf(5).equals(order.getStatus());
     }
 
     /**
-     * 删除下单商品的购物车信息
+     * 获取下单商品的购物车ID
      */
-    private void deleteCartItemList(List<CartPromotionItem> cartPromotionItemList, UmsMember currentMember) {
+    private List<Long> getCartItemIds(List<CartPromotionItem> cartPromotionItemList) {
         List<Long> ids = new ArrayList<>();
         for (CartPromotionItem cartPromotionItem : cartPromotionItemList) {
             ids.add(cartPromotionItem.getId());
         }
-        cartItemService.delete(currentMember.getId(), ids);
+        return ids;
     }
 
     /**
@@ -484,28 +727,6 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
         return sum;
     }
 
-    /**
-     * 将优惠券信息更改为指定状态
-     *
-     * @param couponId  优惠券id
-     * @param memberId  会员id
-     * @param useStatus 0->未使用；1->已使用
-     */
-    private void updateCouponStatus(Long couponId, Long memberId, Integer useStatus) {
-        if (couponId == null) return;
-        //查询第一张优惠券
-        SmsCouponHistoryExample example = new SmsCouponHistoryExample();
-        example.createCriteria().andMemberIdEqualTo(memberId)
-                .andCouponIdEqualTo(couponId).andUseStatusEqualTo(useStatus == 0 ? 1 : 0);
-        List<SmsCouponHistory> couponHistoryList = couponHistoryMapper.selectByExample(example);
-        if (!CollectionUtils.isEmpty(couponHistoryList)) {
-            SmsCouponHistory couponHistory = couponHistoryList.get(0);
-            couponHistory.setUseTime(new Date());
-            couponHistory.setUseStatus(useStatus);
-            couponHistoryMapper.updateByPrimaryKeySelective(couponHistory);
-        }
-    }
-
     private void handleRealAmount(List<OmsOrderItem> orderItemList) {
         for (OmsOrderItem orderItem : orderItemList) {
             //原价-促销优惠-优惠券抵扣-积分抵扣
@@ -592,8 +813,10 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
      * @param totalAmount    订单总金额
      * @param currentMember  使用的用户
      * @param hasCoupon      是否已经使用优惠券
+     * @param integrationConsumeSetting 积分使用规则
      */
-    private BigDecimal getUseIntegrationAmount(Integer useIntegration, BigDecimal totalAmount, UmsMember currentMember, boolean hasCoupon) {
+    private BigDecimal getUseIntegrationAmount(Integer useIntegration, BigDecimal totalAmount, UmsMember currentMember, boolean hasCoupon,
+                                               UmsIntegrationConsumeSetting integrationConsumeSetting) {
         BigDecimal zeroAmount = new BigDecimal(0);
         //判断用户是否有这么多积分
         if (useIntegration.compareTo(currentMember.getIntegration()) > 0) {
@@ -601,7 +824,6 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
         }
         //根据积分使用规则判断是否可用
         //是否可与优惠券共用
-        UmsIntegrationConsumeSetting integrationConsumeSetting = integrationConsumeSettingMapper.selectByPrimaryKey(1L);
         if (hasCoupon && integrationConsumeSetting.getCouponStatus().equals(0)) {
             //不可与优惠券共用
             return zeroAmount;
@@ -695,11 +917,10 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
     /**
      * 获取该用户可以使用的优惠券
      *
-     * @param cartPromotionItemList 购物车优惠列表
-     * @param couponId              使用优惠券id
+     * @param couponHistoryDetailList 可用优惠券列表
+     * @param couponId                使用优惠券id
      */
-    private SmsCouponHistoryDetail getUseCoupon(List<CartPromotionItem> cartPromotionItemList, Long couponId) {
-        List<SmsCouponHistoryDetail> couponHistoryDetailList = memberCouponService.listCart(cartPromotionItemList, 1);
+    private SmsCouponHistoryDetail getUseCoupon(List<SmsCouponHistoryDetail> couponHistoryDetailList, Long couponId) {
         for (SmsCouponHistoryDetail couponHistoryDetail : couponHistoryDetailList) {
             if (couponHistoryDetail.getCoupon().getId().equals(couponId)) {
                 return couponHistoryDetail;
@@ -719,17 +940,6 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
         return totalAmount;
     }
 
-    /**
-     * 锁定下单商品的所有库存
-     */
-    private void lockStock(List<CartPromotionItem> cartPromotionItemList) {
-        for (CartPromotionItem cartPromotionItem : cartPromotionItemList) {
-            PmsSkuStock skuStock = skuStockMapper.selectByPrimaryKey(cartPromotionItem.getProductSkuId());
-            skuStock.setLockStock(skuStock.getLockStock() + cartPromotionItem.getQuantity());
-            skuStockMapper.updateByPrimaryKeySelective(skuStock);
-        }
-    }
-
     /**
      * 判断下单商品是否都有库存
      */
@@ -762,5 +972,4 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
         calcAmount.setPayAmount(totalAmount.subtract(promotionAmount));
         return calcAmount;
     }
-
 }
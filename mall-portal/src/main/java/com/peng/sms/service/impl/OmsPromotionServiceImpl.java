@@ -1,14 +1,10 @@
 package com.peng.sms.service.impl;
 
-import com.peng.sms.dao.PortalProductDao;
+import com.peng.sms.component.PromotionProductCache;
 import com.peng.sms.domain.CartPromotionItem;
-import com.peng.sms.domain.PromotionProduct;
-import com.peng.sms.model.OmsCartItem;
-import com.peng.sms.model.PmsProductFullReduction;
-import com.peng.sms.model.PmsProductLadder;
-import com.peng.sms.model.PmsSkuStock;
+import com.peng.sms.mapper.PmsSkuStockMapper;
+import com.peng.sms.model.*;
 import com.peng.sms.service.OmsPromotionService;
-import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -18,33 +14,38 @@ import java.util.*;
 
 /**
  * Promotion Management Service Implementation
+ * Promotion rules come from the versioned {@link PromotionProductCache}, SKUs of the cart are read by primary key,
+ * so every cart line resolves its product and SKU with a map lookup.
  */
 @Service
 public class OmsPromotionServiceImpl implements OmsPromotionService {
     @Autowired
-    private PortalProductDao portalProductDao;
+    private PromotionProductCache promotionProductCache;
+    @Autowired
+    private PmsSkuStockMapper skuStockMapper;
 
     @Override
     public List<CartPromotionItem> calcCartPromotion(List<OmsCartItem> cartItemList) {
         // 1. Group CartItems by productId (SPU) to calculate promotions per product
         Map<Long, List<OmsCartItem>> productCartMap = groupCartItemBySpu(cartItemList);
-        // 2. Query all promotion information for products
-        List<PromotionProduct> promotionProductList = getPromotionProductList(cartItemList);
+        // 2. Query promotion rules of the products and the SKUs in the cart
+        Map<Long, PromotionProductCache.Snapshot> snapshotMap = promotionProductCache.getSnapshotMap(productCartMap.keySet());
+        Map<Long, PmsSkuStock> skuStockMap = getSkuStockMap(cartItemList);
         // 3. Calculate promotional price based on product promotion type
-        List<CartPromotionItem> cartPromotionItemList = new ArrayList<>();
+        List<CartPromotionItem> cartPromotionItemList = new ArrayList<>(cartItemList.size());
         for (Map.Entry<Long, List<OmsCartItem>> entry : productCartMap.entrySet()) {
             Long productId = entry.getKey();
-            PromotionProduct promotionProduct = getPromotionProductById(productId, promotionProductList);
+            PromotionProductCache.Snapshot snapshot = snapshotMap.get(productId);
+            PmsProduct promotionProduct = snapshot.getProduct();
             List<OmsCartItem> itemList = entry.getValue();
             Integer promotionType = promotionProduct.getPromotionType();
             if (promotionType == 1) {
                 // Single product promotion
                 for (OmsCartItem item : itemList) {
-                    CartPromotionItem cartPromotionItem = new CartPromotionItem();
-                    BeanUtils.copyProperties(item, cartPromotionItem);
+                    CartPromotionItem cartPromotionItem = copyCartItem(item);
                     cartPromotionItem.setPromotionMessage("Single Product Promotion");
                     // Original price - promotional price
-                    PmsSkuStock skuStock = getOriginalPrice(promotionProduct, item.getProductSkuId());
+                    PmsSkuStock skuStock = getOriginalPrice(skuStockMap, productId, item.getProductSkuId());
                     BigDecimal originalPrice = skuStock.getPrice();
                     cartPromotionItem.setPrice(originalPrice);
                     cartPromotionItem.setReduceAmount(originalPrice.subtract(skuStock.getPromotionPrice()));
@@ -56,14 +57,13 @@ public class OmsPromotionServiceImpl implements OmsPromotionService {
             } else if (promotionType == 3) {
                 // Discount promotion
                 int count = getCartItemCount(itemList);
-                PmsProductLadder ladder = getProductLadder(count, promotionProduct.getProductLadderList());
+                PmsProductLadder ladder = getProductLadder(count, snapshot.getProductLadderList());
                 if (ladder != null) {
+                    String message = getLadderPromotionMessage(ladder);
                     for (OmsCartItem item : itemList) {
-                        CartPromotionItem cartPromotionItem = new CartPromotionItem();
-                        BeanUtils.copyProperties(item, cartPromotionItem);
-                        String message = getLadderPromotionMessage(ladder);
+                        CartPromotionItem cartPromotionItem = copyCartItem(item);
                         cartPromotionItem.setPromotionMessage(message);
-                        PmsSkuStock skuStock = getOriginalPrice(promotionProduct, item.getProductSkuId());
+                        PmsSkuStock skuStock = getOriginalPrice(skuStockMap, productId, item.getProductSkuId());
                         BigDecimal originalPrice = skuStock.getPrice();
                         BigDecimal reduceAmount = originalPrice.subtract(ladder.getDiscount().multiply(originalPrice));
                         cartPromotionItem.setReduceAmount(reduceAmount);
@@ -73,20 +73,19 @@ public class OmsPromotionServiceImpl implements OmsPromotionService {
                         cartPromotionItemList.add(cartPromotionItem);
                     }
                 } else {
-                    handleNoReduce(cartPromotionItemList, itemList, promotionProduct);
+                    handleNoReduce(cartPromotionItemList, itemList, promotionProduct, skuStockMap);
                 }
             } else if (promotionType == 4) {
                 // Full reduction promotion
-                BigDecimal totalAmount = getCartItemAmount(itemList, promotionProductList);
-                PmsProductFullReduction fullReduction = getProductFullReduction(totalAmount, promotionProduct.getProductFullReductionList());
+                BigDecimal totalAmount = getCartItemAmount(itemList, skuStockMap, productId);
+                PmsProductFullReduction fullReduction = getProductFullReduction(totalAmount, snapshot.getProductFullReductionList());
                 if (fullReduction != null) {
+                    String message = getFullReductionPromotionMessage(fullReduction);
                     for (OmsCartItem item : itemList) {
-                        CartPromotionItem cartPromotionItem = new CartPromotionItem();
-                        BeanUtils.copyProperties(item, cartPromotionItem);
-                        String message = getFullReductionPromotionMessage(fullReduction);
+                        CartPromotionItem cartPromotionItem = copyCartItem(item);
                         cartPromotionItem.setPromotionMessage(message);
                         // (original price / total price) * reduction amount
-                        PmsSkuStock skuStock = getOriginalPrice(promotionProduct, item.getProductSkuId());
+                        PmsSkuStock skuStock = getOriginalPrice(skuStockMap, productId, item.getProductSkuId());
                         BigDecimal originalPrice = skuStock.getPrice();
                         BigDecimal reduceAmount = originalPrice.divide(totalAmount, RoundingMode.HALF_EVEN).multiply(fullReduction.getReducePrice());
                         cartPromotionItem.setReduceAmount(reduceAmount);
@@ -96,25 +95,62 @@ public class OmsPromotionServiceImpl implements OmsPromotionService {
                         cartPromotionItemList.add(cartPromotionItem);
                     }
                 } else {
-                    handleNoReduce(cartPromotionItemList, itemList, promotionProduct);
+                    handleNoReduce(cartPromotionItemList, itemList, promotionProduct, skuStockMap);
                 }
             } else {
                 // No promotion
-                handleNoReduce(cartPromotionItemList, itemList, promotionProduct);
+                handleNoReduce(cartPromotionItemList, itemList, promotionProduct, skuStockMap);
             }
         }
         return cartPromotionItemList;
     }
 
     /**
-     * Query all promotion-related information for the products
+     * Query the SKUs in the cart by primary key
      */
-    private List<PromotionProduct> getPromotionProductList(List<OmsCartItem> cartItemList) {
-        List<Long> productIdList = new ArrayList<>();
+    private Map<Long, PmsSkuStock> getSkuStockMap(List<OmsCartItem> cartItemList) {
+        Set<Long> skuIds = new HashSet<>();
         for (OmsCartItem cartItem : cartItemList) {
-            productIdList.add(cartItem.getProductId());
+            if (cartItem.getProductSkuId() != null) {
+                skuIds.add(cartItem.getProductSkuId());
+            }
+        }
+        Map<Long, PmsSkuStock> skuStockMap = new HashMap<>();
+        if (skuIds.isEmpty()) {
+            return skuStockMap;
         }
-        return portalProductDao.getPromotionProductList(productIdList);
+        PmsSkuStockExample example = new PmsSkuStockExample();
+        example.createCriteria().andIdIn(new ArrayList<>(skuIds));
+        for (PmsSkuStock skuStock : skuStockMapper.selectByExample(example)) {
+            skuStockMap.put(skuStock.getId(), skuStock);
+        }
+        return skuStockMap;
+    }
+
+    /**
+     * Copy a cart item into a promotion item, field by field instead of reflective bean copying
+     */
+    private CartPromotionItem copyCartItem(OmsCartItem item) {
+        CartPromotionItem cartPromotionItem = new CartPromotionItem();
+        cartPromotionItem.setId(item.getId());
+        cartPromotionItem.setProductId(item.getProductId());
+        cartPromotionItem.setProductSkuId(item.getProductSkuId());
+        cartPromotionItem.setMemberId(item.getMemberId());
+        cartPromotionItem.setQuantity(item.getQuantity());
+        cartPromotionItem.setPrice(item.getPrice());
+        cartPromotionItem.setProductPic(item.getProductPic());
+        cartPromotionItem.setProductName(item.getProductName());
+        cartPromotionItem.setProductSubTitle(item.getProductSubTitle());
+        cartPromotionItem.setProductSkuCode(item.getProductSkuCode());
+        cartPromotionItem.setMemberNickname(item.getMemberNickname());
+        cartPromotionItem.setCreateDate(item.getCreateDate());
+        cartPromotionItem.setModifyDate(item.getModifyDate());
+        cartPromotionItem.setDeleteStatus(item.getDeleteStatus());
+        cartPromotionItem.setProductCategoryId(item.getProductCategoryId());
+        cartPromotionItem.setProductBrand(item.getProductBrand());
+        cartPromotionItem.setProductSn(item.getProductSn());
+        cartPromotionItem.setProductAttr(item.getProductAttr());
+        return cartPromotionItem;
     }
 
     /**
@@ -123,14 +159,7 @@ public class OmsPromotionServiceImpl implements OmsPromotionService {
     private Map<Long, List<OmsCartItem>> groupCartItemBySpu(List<OmsCartItem> cartItemList) {
         Map<Long, List<OmsCartItem>> productCartMap = new TreeMap<>();
         for (OmsCartItem cartItem : cartItemList) {
-            List<OmsCartItem> productCartItemList = productCartMap.get(cartItem.getProductId());
-            if (productCartItemList == null) {
-                productCartItemList = new ArrayList<>();
-                productCartItemList.add(cartItem);
-                productCartMap.put(cartItem.getProductId(), productCartItemList);
-            } else {
-                productCartItemList.add(cartItem);
-            }
+            productCartMap.computeIfAbsent(cartItem.getProductId(), k -> new ArrayList<>()).add(cartItem);
         }
         return productCartMap;
     }
@@ -145,13 +174,13 @@ public class OmsPromotionServiceImpl implements OmsPromotionService {
     /**
      * Handle items that do not meet promotion conditions
      */
-    private void handleNoReduce(List<CartPromotionItem> cartPromotionItemList, List<OmsCartItem> itemList, PromotionProduct promotionProduct) {
+    private void handleNoReduce(List<CartPromotionItem> cartPromotionItemList, List<OmsCartItem> itemList, PmsProduct promotionProduct,
+                                Map<Long, PmsSkuStock> skuStockMap) {
         for (OmsCartItem item : itemList) {
-            CartPromotionItem cartPromotionItem = new CartPromotionItem();
-            BeanUtils.copyProperties(item, cartPromotionItem);
+            CartPromotionItem cartPromotionItem = copyCartItem(item);
             cartPromotionItem.setPromotionMessage("No Promotion");
             cartPromotionItem.setReduceAmount(BigDecimal.ZERO);
-            PmsSkuStock skuStock = getOriginalPrice(promotionProduct, item.getProductSkuId());
+            PmsSkuStock skuStock = getOriginalPrice(skuStockMap, promotionProduct.getId(), item.getProductSkuId());
             if (skuStock != null) {
                 cartPromotionItem.setRealStock(skuStock.getStock() - skuStock.getLockStock());
             }
@@ -162,10 +191,9 @@ public class OmsPromotionServiceImpl implements OmsPromotionService {
     }
 
     /**
-     * Get applicable full reduction based on total amount
+     * Get applicable full reduction based on total amount, the list is sorted by full price descending
      */
     private PmsProductFullReduction getProductFullReduction(BigDecimal totalAmount, List<PmsProductFullReduction> fullReductionList) {
-        fullReductionList.sort((o1, o2) -> o2.getFullPrice().subtract(o1.getFullPrice()).intValue());
         for (PmsProductFullReduction fullReduction : fullReductionList) {
             if (totalAmount.subtract(fullReduction.getFullPrice()).intValue() >= 0) {
                 return fullReduction;
@@ -182,10 +210,9 @@ public class OmsPromotionServiceImpl implements OmsPromotionService {
     }
 
     /**
-     * Get ladder promotion that matches purchase quantity
+     * Get ladder promotion that matches purchase quantity, the list is sorted by count descending
      */
     private PmsProductLadder getProductLadder(int count, List<PmsProductLadder> productLadderList) {
-        productLadderList.sort((o1, o2) -> o2.getCount() - o1.getCount());
         for (PmsProductLadder productLadder : productLadderList) {
             if (count >= productLadder.getCount()) {
                 return productLadder;
@@ -208,36 +235,22 @@ public class OmsPromotionServiceImpl implements OmsPromotionService {
     /**
      * Get total amount of items in cart for a product
      */
-    private BigDecimal getCartItemAmount(List<OmsCartItem> itemList, List<PromotionProduct> promotionProductList) {
+    private BigDecimal getCartItemAmount(List<OmsCartItem> itemList, Map<Long, PmsSkuStock> skuStockMap, Long productId) {
         BigDecimal amount = BigDecimal.ZERO;
         for (OmsCartItem item : itemList) {
-            PromotionProduct promotionProduct = getPromotionProductById(item.getProductId(), promotionProductList);
-            PmsSkuStock skuStock = getOriginalPrice(promotionProduct, item.getProductSkuId());
+            PmsSkuStock skuStock = getOriginalPrice(skuStockMap, productId, item.getProductSkuId());
             amount = amount.add(skuStock.getPrice().multiply(new BigDecimal(item.getQuantity())));
         }
         return amount;
     }
 
     /**
-     * Get original price of product SKU
+     * Get original price of product SKU, SKUs of other products are ignored
      */
-    private PmsSkuStock getOriginalPrice(PromotionProduct promotionProduct, Long productSkuId) {
-        for (PmsSkuStock skuStock : promotionProduct.getSkuStockList()) {
-            if (productSkuId.equals(skuStock.getId())) {
-                return skuStock;
-            }
-        }
-        return null;
-    }
-
-    /**
-     * Get promotion product by productId
-     */
-    private PromotionProduct getPromotionProductById(Long productId, List<PromotionProduct> promotionProductList) {
-        for (PromotionProduct promotionProduct : promotionProductList) {
-            if (productId.equals(promotionProduct.getId())) {
-                return promotionProduct;
-            }
+    private PmsSkuStock getOriginalPrice(Map<Long, PmsSkuStock> skuStockMap, Long productId, Long productSkuId) {
+        PmsSkuStock skuStock = skuStockMap.get(productSkuId);
+        if (skuStock != null && productId.equals(skuStock.getProductId())) {
+            return skuStock;
         }
         return null;
     }
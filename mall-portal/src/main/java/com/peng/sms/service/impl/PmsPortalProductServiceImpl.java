@@ -1,19 +1,29 @@
 package com.peng.sms.service.impl;
 
 import cn.hutool.core.collection.CollUtil;
-import cn.hutool.core.util.StrUtil;
-import com.github.pagehelper.PageHelper;
+import com.peng.sms.component.ProductCategoryIndex;
+import com.peng.sms.component.ProductSearchIndex;
 import com.peng.sms.dao.PortalProductDao;
 import com.peng.sms.domain.PmsPortalProductDetail;
 import com.peng.sms.domain.PmsProductCategoryNode;
+import com.peng.sms.exception.Asserts;
 import com.peng.sms.mapper.*;
 import com.peng.sms.model.*;
 import com.peng.sms.service.PmsPortalProductService;
-import org.springframework.beans.BeanUtils;
+import com.peng.sms.service.RedisService;
+import com.peng.sms.util.DeadlineJoiner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -21,10 +31,13 @@ import java.util.stream.Collectors;
  */
 @Service
 public class PmsPortalProductServiceImpl implements PmsPortalProductService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PmsPortalProductServiceImpl.class);
     @Autowired
     private PmsProductMapper productMapper;
     @Autowired
-    private PmsProductCategoryMapper productCategoryMapper;
+    private ProductCategoryIndex productCategoryIndex;
+    @Autowired
+    private ProductSearchIndex productSearchIndex;
     @Autowired
     private PmsBrandMapper brandMapper;
     @Autowired
@@ -39,72 +52,61 @@ public class PmsPortalProductServiceImpl implements PmsPortalProductService {
     private PmsProductFullReductionMapper productFullReductionMapper;
     @Autowired
     private PortalProductDao portalProductDao;
+    @Autowired
+    private RedisService redisService;
+    @Autowired
+    @Qualifier("productDetailExecutor")
+    private ThreadPoolTaskExecutor productDetailExecutor;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.productDetail}")
+    private String REDIS_KEY_PRODUCT_DETAIL;
+    @Value("${redis.expire.productDetail}")
+    private Long REDIS_EXPIRE_PRODUCT_DETAIL;
+    @Value("${product.detailTimeout}")
+    private Long PRODUCT_DETAIL_TIMEOUT;
 
     @Override
     public List<PmsProduct> search(String keyword, Long brandId, Long productCategoryId, Integer pageNum, Integer pageSize, Integer sort) {
-        PageHelper.startPage(pageNum, pageSize);
-        PmsProductExample example = new PmsProductExample();
-        PmsProductExample.Criteria criteria = example.createCriteria();
-        criteria.andDeleteStatusEqualTo(0); // Only fetch products not deleted
-
-        if (StrUtil.isNotEmpty(keyword)) {
-            criteria.andNameLike("%" + keyword + "%"); // Keyword search
-        }
-        if (brandId != null) {
-            criteria.andBrandIdEqualTo(brandId); // Filter by brand
-        }
-        if (productCategoryId != null) {
-            criteria.andProductCategoryIdEqualTo(productCategoryId); // Filter by category
-        }
-
-        // Sorting options: 1->New arrivals, 2->Sales, 3->Price low to high, 4->Price high to low
-        if (sort == 1) {
-            example.setOrderByClause("id desc");
-        } else if (sort == 2) {
-            example.setOrderByClause("sale desc");
-        } else if (sort == 3) {
-            example.setOrderByClause("price asc");
-        } else if (sort == 4) {
-            example.setOrderByClause("price desc");
-        }
-
-        return productMapper.selectByExample(example);
+        // Filter by the category and the categories below it
+        Set<Long> productCategoryIds = productCategoryId == null ? null : productCategoryIndex.getDescendantIds(productCategoryId);
+        return productSearchIndex.search(keyword, brandId, productCategoryIds, pageNum, pageSize, sort);
     }
 
     @Override
     public List<PmsProductCategoryNode> categoryTreeList() {
-        PmsProductCategoryExample example = new PmsProductCategoryExample();
-        List<PmsProductCategory> allList = productCategoryMapper.selectByExample(example);
-
-        // Build tree structure for categories
-        List<PmsProductCategoryNode> result = allList.stream()
-                .filter(item -> item.getParentId().equals(0L)) // Root categories
-                .map(item -> convertToNode(item, allList))
-                .collect(Collectors.toList());
-
-        return result;
+        return productCategoryIndex.getTree();
     }
 
     @Override
     public PmsPortalProductDetail detail(Long id) {
+        String key = getDetailKey(id);
+        PmsPortalProductDetail cacheDetail = getDetailCache(key);
+        if (cacheDetail != null) {
+            return cacheDetail;
+        }
         PmsPortalProductDetail result = new PmsPortalProductDetail();
 
-        // Fetch product information
+        // Fetch product information, the other parts only depend on it and are fetched concurrently
         PmsProduct product = productMapper.selectByPrimaryKey(id);
+        if (product == null) {
+            Asserts.fail("Product does not exist");
+        }
         result.setProduct(product);
 
         // Fetch brand information
-        PmsBrand brand = brandMapper.selectByPrimaryKey(product.getBrandId());
-        result.setBrand(brand);
-
-        // Fetch product attributes
-        PmsProductAttributeExample attributeExample = new PmsProductAttributeExample();
-        attributeExample.createCriteria().andProductAttributeCategoryIdEqualTo(product.getProductAttributeCategoryId());
-        List<PmsProductAttribute> productAttributeList = productAttributeMapper.selectByExample(attributeExample);
-        result.setProductAttributeList(productAttributeList);
-
-        // Fetch product attribute values
-        if (CollUtil.isNotEmpty(productAttributeList)) {
+        CompletableFuture<PmsBrand> brandFuture = supplyAsync(() -> brandMapper.selectByPrimaryKey(product.getBrandId()));
+
+        // Fetch product attributes and their values
+        CompletableFuture<List<PmsProductAttribute>> attributeFuture = supplyAsync(() -> {
+            PmsProductAttributeExample attributeExample = new PmsProductAttributeExample();
+            attributeExample.createCriteria().andProductAttributeCategoryIdEqualTo(product.getProductAttributeCategoryId());
+            return productAttributeMapper.selectByExample(attributeExample);
+        });
+        CompletableFuture<List<PmsProductAttributeValue>> attributeValueFuture = attributeFuture.thenApplyAsync(productAttributeList -> {
+            if (CollUtil.isEmpty(productAttributeList)) {
+                return null;
+            }
             List<Long> attributeIds = productAttributeList.stream()
                     .map(PmsProductAttribute::getId)
                     .collect(Collectors.toList());
@@ -112,51 +114,97 @@ public class PmsPortalProductServiceImpl implements PmsPortalProductService {
             attributeValueExample.createCriteria()
                     .andProductIdEqualTo(product.getId())
                     .andProductAttributeIdIn(attributeIds);
-            List<PmsProductAttributeValue> productAttributeValueList = productAttributeValueMapper.selectByExample(attributeValueExample);
-            result.setProductAttributeValueList(productAttributeValueList);
-        }
+            return productAttributeValueMapper.selectByExample(attributeValueExample);
+        }, productDetailExecutor);
 
         // Fetch SKU stock information
-        PmsSkuStockExample skuExample = new PmsSkuStockExample();
-        skuExample.createCriteria().andProductIdEqualTo(product.getId());
-        List<PmsSkuStock> skuStockList = skuStockMapper.selectByExample(skuExample);
-        result.setSkuStockList(skuStockList);
+        CompletableFuture<List<PmsSkuStock>> skuStockFuture = supplyAsync(() -> {
+            PmsSkuStockExample skuExample = new PmsSkuStockExample();
+            skuExample.createCriteria().andProductIdEqualTo(product.getId());
+            return skuStockMapper.selectByExample(skuExample);
+        });
 
         // Fetch ladder prices if promotion type is discount
+        CompletableFuture<List<PmsProductLadder>> ladderFuture = null;
         if (product.getPromotionType() == 3) {
-            PmsProductLadderExample ladderExample = new PmsProductLadderExample();
-            ladderExample.createCriteria().andProductIdEqualTo(product.getId());
-            List<PmsProductLadder> productLadderList = productLadderMapper.selectByExample(ladderExample);
-            result.setProductLadderList(productLadderList);
+            ladderFuture = supplyAsync(() -> {
+                PmsProductLadderExample ladderExample = new PmsProductLadderExample();
+                ladderExample.createCriteria().andProductIdEqualTo(product.getId());
+                return productLadderMapper.selectByExample(ladderExample);
+            });
         }
 
         // Fetch full reduction promotions if promotion type is full reduction
+        CompletableFuture<List<PmsProductFullReduction>> fullReductionFuture = null;
         if (product.getPromotionType() == 4) {
-            PmsProductFullReductionExample fullReductionExample = new PmsProductFullReductionExample();
-            fullReductionExample.createCriteria().andProductIdEqualTo(product.getId());
-            List<PmsProductFullReduction> productFullReductionList = productFullReductionMapper.selectByExample(fullReductionExample);
-            result.setProductFullReductionList(productFullReductionList);
+            fullReductionFuture = supplyAsync(() -> {
+                PmsProductFullReductionExample fullReductionExample = new PmsProductFullReductionExample();
+                fullReductionExample.createCriteria().andProductIdEqualTo(product.getId());
+                return productFullReductionMapper.selectByExample(fullReductionExample);
+            });
         }
 
         // Fetch available coupons for the product
-        result.setCouponList(portalProductDao.getAvailableCouponList(product.getId(), product.getProductCategoryId()));
+        CompletableFuture<List<SmsCoupon>> couponFuture = supplyAsync(
+                () -> portalProductDao.getAvailableCouponList(product.getId(), product.getProductCategoryId()));
+
+        // SKUs are required to place an order, the other parts are left empty when they fail or time out
+        long deadline = System.currentTimeMillis() + PRODUCT_DETAIL_TIMEOUT;
+        DeadlineJoiner joiner = new DeadlineJoiner("product detail " + id, deadline);
+        List<PmsSkuStock> skuStockList = joiner.join(skuStockFuture, "skuStock");
+        if (joiner.isPartial()) {
+            Asserts.fail("Failed to load product SKUs, please try again");
+        }
+        result.setSkuStockList(skuStockList);
+        result.setBrand(joiner.join(brandFuture, "brand"));
+        result.setProductAttributeList(joiner.join(attributeFuture, "attribute"));
+        result.setProductAttributeValueList(joiner.join(attributeValueFuture, "attributeValue"));
+        if (ladderFuture != null) {
+            result.setProductLadderList(joiner.join(ladderFuture, "ladder"));
+        }
+        if (fullReductionFuture != null) {
+            result.setProductFullReductionList(joiner.join(fullReductionFuture, "fullReduction"));
+        }
+        result.setCouponList(joiner.join(couponFuture, "coupon"));
 
+        // Only complete details are cached, partial ones are assembled again by the next request
+        if (!joiner.isPartial()) {
+            setDetailCache(key, result);
+        }
         return result;
     }
 
-    /**
-     * Convert a category object to a node with children
-     */
-    private PmsProductCategoryNode convertToNode(PmsProductCategory item, List<PmsProductCategory> allList) {
-        PmsProductCategoryNode node = new PmsProductCategoryNode();
-        BeanUtils.copyProperties(item, node);
+    @Override
+    public void clearDetailCache(Long id) {
+        try {
+            redisService.del(getDetailKey(id));
+        } catch (RuntimeException e) {
+            LOGGER.warn("Clear product detail cache failed, it expires on its own, productId: {}", id, e);
+        }
+    }
+
+    private <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(supplier, productDetailExecutor);
+    }
+
+    private PmsPortalProductDetail getDetailCache(String key) {
+        try {
+            return (PmsPortalProductDetail) redisService.get(key);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Read product detail cache failed, key: {}", key, e);
+            return null;
+        }
+    }
 
-        List<PmsProductCategoryNode> children = allList.stream()
-                .filter(subItem -> subItem.getParentId().equals(item.getId()))
-                .map(subItem -> convertToNode(subItem, allList))
-                .collect(Collectors.toList());
+    private void setDetailCache(String key, PmsPortalProductDetail detail) {
+        try {
+            redisService.set(key, detail, REDIS_EXPIRE_PRODUCT_DETAIL);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Write product detail cache failed, key: {}", key, e);
+        }
+    }
 
-        node.setChildren(children);
-        return node;
+    private String getDetailKey(Long id) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_PRODUCT_DETAIL + ":" + id;
     }
 }
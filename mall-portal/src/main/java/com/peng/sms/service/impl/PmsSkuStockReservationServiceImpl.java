@@ -0,0 +1,268 @@
+package com.peng.sms.service.impl;
+
+import com.peng.sms.dao.PortalOrderDao;
+import com.peng.sms.exception.Asserts;
+import com.peng.sms.mapper.PmsSkuStockMapper;
+import com.peng.sms.model.OmsOrderItem;
+import com.peng.sms.model.PmsSkuStock;
+import com.peng.sms.model.PmsSkuStockExample;
+import com.peng.sms.service.PmsSkuStockReservationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.CollectionUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SKU stock reservation service implementation
+ * Redis is the gate for locking stock, one Lua call reserves a whole order.
+ * The locked stock is written to MySQL in the order transaction with a conditional update, so MySQL stays the final guard,
+ * pms_sku_stock never lags behind committed orders and counters reloaded from it stay correct.
+ * MySQL is used directly when Redis is unavailable, and the counters are dropped afterwards.
+ */
+@Service
+public class PmsSkuStockReservationServiceImpl implements PmsSkuStockReservationService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PmsSkuStockReservationServiceImpl.class);
+    private static final long RESERVE_OK = 1L;
+    private static final long RESERVE_NOT_LOADED = -1L;
+    private static final DefaultRedisScript<Long> RESERVE_SCRIPT = script("lua/sku_stock_reserve.lua");
+    private static final DefaultRedisScript<Long> ADJUST_SCRIPT = script("lua/sku_stock_adjust.lua");
+    private static final DefaultRedisScript<Long> LOAD_SCRIPT = script("lua/sku_stock_load.lua");
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private PortalOrderDao portalOrderDao;
+    @Autowired
+    private PmsSkuStockMapper skuStockMapper;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.skuStock}")
+    private String REDIS_KEY_SKU_STOCK;
+    @Value("${redis.expire.skuStock}")
+    private Long REDIS_EXPIRE_SKU_STOCK;
+
+    @Override
+    public void reserve(List<OmsOrderItem> orderItemList) {
+        List<OmsOrderItem> skuItemList = mergeBySku(orderItemList);
+        if (skuItemList.isEmpty()) {
+            return;
+        }
+        Long result;
+        try {
+            result = execReserve(skuItemList);
+            if (result != null && result == RESERVE_NOT_LOADED) {
+                loadCounters(skuItemList);
+                result = execReserve(skuItemList);
+            }
+        } catch (DataAccessException e) {
+            //Redis不可用时直接在数据库中按条件锁定库存，提交后删除Redis计数器，恢复后从数据库重新加载
+            LOGGER.warn("Redis stock reservation unavailable, locking stock in MySQL", e);
+            if (!tryLockInMySql(skuItemList)) {
+                Asserts.fail("库存不足，无法下单");
+            }
+            afterCommit(() -> dropCounters(skuItemList));
+            return;
+        }
+        if (result == null || result != RESERVE_OK) {
+            Asserts.fail("库存不足，无法下单");
+        }
+        //在订单事务中按条件同步到数据库，数据库仍是最终校验
+        boolean locked;
+        try {
+            locked = tryLockInMySql(skuItemList);
+        } catch (RuntimeException e) {
+            adjustCounters(skuItemList, false, -1);
+            throw e;
+        }
+        if (!locked) {
+            //数据库库存不足说明Redis计数器已偏离数据库，删除后重新加载
+            dropCounters(skuItemList);
+            Asserts.fail("库存不足，无法下单");
+        }
+        //回滚时归还Redis中的锁定库存
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        adjustCounters(skuItemList, false, -1);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Lock stock in MySQL only where the available stock covers the quantity
+     *
+     * @return false if some SKU was short, the caller has to fail the order so the locked SKUs roll back
+     */
+    private boolean tryLockInMySql(List<OmsOrderItem> skuItemList) {
+        return portalOrderDao.lockSkuStockIfAvailable(skuItemList) >= skuItemList.size();
+    }
+
+    @Override
+    public int release(List<OmsOrderItem> orderItemList) {
+        List<OmsOrderItem> skuItemList = mergeBySku(orderItemList);
+        if (skuItemList.isEmpty()) {
+            return 0;
+        }
+        int count = portalOrderDao.releaseSkuStockLock(skuItemList);
+        afterCommit(() -> adjustCounters(skuItemList, false, -1));
+        return count;
+    }
+
+    @Override
+    public int deduct(List<OmsOrderItem> orderItemList) {
+        List<OmsOrderItem> skuItemList = mergeBySku(orderItemList);
+        if (skuItemList.isEmpty()) {
+            return 0;
+        }
+        int count = portalOrderDao.updateSkuStock(skuItemList);
+        afterCommit(() -> adjustCounters(skuItemList, true, -1));
+        return count;
+    }
+
+    /**
+     * Apply a Redis change once the surrounding transaction commits, so rolled back releases leave the counters untouched
+     */
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private Long execReserve(List<OmsOrderItem> skuItemList) {
+        List<String> keys = new ArrayList<>(skuItemList.size());
+        String[] args = new String[skuItemList.size()];
+        for (int i = 0; i < skuItemList.size(); i++) {
+            OmsOrderItem item = skuItemList.get(i);
+            keys.add(getKey(item.getProductSkuId()));
+            args[i] = String.valueOf(item.getProductQuantity());
+        }
+        return stringRedisTemplate.execute(RESERVE_SCRIPT, keys, (Object[]) args);
+    }
+
+    /**
+     * Load SKU counters that are missing in Redis from pms_sku_stock
+     */
+    private void loadCounters(List<OmsOrderItem> skuItemList) {
+        List<Long> skuIds = new ArrayList<>(skuItemList.size());
+        for (OmsOrderItem item : skuItemList) {
+            skuIds.add(item.getProductSkuId());
+        }
+        PmsSkuStockExample example = new PmsSkuStockExample();
+        example.createCriteria().andIdIn(skuIds);
+        List<PmsSkuStock> skuStockList = skuStockMapper.selectByExample(example);
+        if (CollectionUtils.isEmpty(skuStockList)) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(skuStockList.size());
+        String[] args = new String[skuStockList.size() * 2 + 1];
+        for (int i = 0; i < skuStockList.size(); i++) {
+            PmsSkuStock skuStock = skuStockList.get(i);
+            keys.add(getKey(skuStock.getId()));
+            args[2 * i] = String.valueOf(skuStock.getStock() == null ? 0 : skuStock.getStock());
+            args[2 * i + 1] = String.valueOf(skuStock.getLockStock() == null ? 0 : skuStock.getLockStock());
+        }
+        args[args.length - 1] = String.valueOf(REDIS_EXPIRE_SKU_STOCK);
+        stringRedisTemplate.execute(LOAD_SCRIPT, keys, (Object[]) args);
+    }
+
+    /**
+     * Apply quantity deltas to the Redis counters, stale counters are dropped so they reload from MySQL
+     *
+     * @param deductStock whether the real stock changes together with the locked stock
+     * @param sign        1 to add the quantity, -1 to subtract it
+     */
+    private void adjustCounters(List<OmsOrderItem> skuItemList, boolean deductStock, int sign) {
+        List<String> keys = new ArrayList<>(skuItemList.size());
+        String[] args = new String[skuItemList.size() * 2];
+        for (int i = 0; i < skuItemList.size(); i++) {
+            OmsOrderItem item = skuItemList.get(i);
+            keys.add(getKey(item.getProductSkuId()));
+            long delta = (long) sign * item.getProductQuantity();
+            args[2 * i] = String.valueOf(deductStock ? delta : 0);
+            args[2 * i + 1] = String.valueOf(delta);
+        }
+        try {
+            stringRedisTemplate.execute(ADJUST_SCRIPT, keys, (Object[]) args);
+        } catch (DataAccessException e) {
+            LOGGER.warn("Adjust Redis stock counters failed, keys: {}", keys, e);
+            try {
+                stringRedisTemplate.delete(keys);
+            } catch (DataAccessException ignored) {
+                //计数器将在过期后从数据库重新加载
+            }
+        }
+    }
+
+    /**
+     * Delete counters that no longer match MySQL so the next reservation loads them again
+     */
+    private void dropCounters(List<OmsOrderItem> skuItemList) {
+        List<String> keys = new ArrayList<>(skuItemList.size());
+        for (OmsOrderItem item : skuItemList) {
+            keys.add(getKey(item.getProductSkuId()));
+        }
+        try {
+            stringRedisTemplate.delete(keys);
+        } catch (DataAccessException e) {
+            LOGGER.warn("Drop Redis stock counters failed, they reload after expiring, keys: {}", keys, e);
+        }
+    }
+
+    /**
+     * Merge ordered items by SKU, the batch CASE updates only apply the first WHEN of a duplicated id
+     */
+    private List<OmsOrderItem> mergeBySku(List<OmsOrderItem> orderItemList) {
+        Map<Long, Integer> skuQuantityMap = new LinkedHashMap<>();
+        if (orderItemList != null) {
+            for (OmsOrderItem orderItem : orderItemList) {
+                if (orderItem.getProductSkuId() == null || orderItem.getProductQuantity() == null) {
+                    continue;
+                }
+                skuQuantityMap.merge(orderItem.getProductSkuId(), orderItem.getProductQuantity(), Integer::sum);
+            }
+        }
+        List<OmsOrderItem> result = new ArrayList<>(skuQuantityMap.size());
+        for (Map.Entry<Long, Integer> entry : skuQuantityMap.entrySet()) {
+            OmsOrderItem item = new OmsOrderItem();
+            item.setProductSkuId(entry.getKey());
+            item.setProductQuantity(entry.getValue());
+            result.add(item);
+        }
+        return result;
+    }
+
+    private String getKey(Long skuId) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_SKU_STOCK + ":" + skuId;
+    }
+
+    private static DefaultRedisScript<Long> script(String path) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(path));
+        script.setResultType(Long.class);
+        return script;
+    }
+}
@@ -9,6 +9,7 @@ import com.peng.sms.model.PmsBrand;
 import com.peng.sms.model.PmsProduct;
 import com.peng.sms.model.PmsProductExample;
 import com.peng.sms.service.PortalBrandService;
+import com.peng.sms.util.PageCursor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -35,6 +36,18 @@ public class PortalBrandServiceImpl implements PortalBrandService {
         return homeDao.getRecommendedBrands(offset, pageSize);
     }
 
+    /**
+     * Get recommended brands page by page with a keyset cursor
+     */
+    @Override
+    public CommonPage<PmsBrand> recommendPage(String cursor, Integer pageSize) {
+        PageCursor.checkPageSize(pageSize);
+        PageCursor pageCursor = PageCursor.decode(cursor);
+        return PageCursor.rowPage(homeDao.getRecommendedBrandsByCursor(
+                pageCursor == null ? null : pageCursor.getSort(),
+                pageCursor == null ? null : pageCursor.getId(), pageSize + 1), pageSize);
+    }
+
     /**
      * Get brand details by ID
      */
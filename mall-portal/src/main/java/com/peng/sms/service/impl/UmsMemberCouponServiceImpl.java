@@ -7,16 +7,19 @@ import com.peng.sms.domain.SmsCouponHistoryDetail;
 import com.peng.sms.exception.Asserts;
 import com.peng.sms.mapper.*;
 import com.peng.sms.model.*;
+import com.peng.sms.service.RedisService;
 import com.peng.sms.service.UmsMemberCouponService;
 import com.peng.sms.service.UmsMemberService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.Random;
+import java.util.*;
 import java.util.stream.Collectors;
 
 /**
@@ -24,6 +27,7 @@ import java.util.stream.Collectors;
  */
 @Service
 public class UmsMemberCouponServiceImpl implements UmsMemberCouponService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UmsMemberCouponServiceImpl.class);
     @Autowired
     private UmsMemberService memberService;
     @Autowired
@@ -38,6 +42,14 @@ public class UmsMemberCouponServiceImpl implements UmsMemberCouponService {
     private SmsCouponProductCategoryRelationMapper couponProductCategoryRelationMapper;
     @Autowired
     private PmsProductMapper productMapper;
+    @Autowired
+    private RedisService redisService;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.memberCoupon}")
+    private String REDIS_KEY_MEMBER_COUPON;
+    @Value("${redis.expire.memberCoupon}")
+    private Long REDIS_EXPIRE;
 
     @Override
     public void add(Long couponId) {
@@ -73,6 +85,7 @@ public class UmsMemberCouponServiceImpl implements UmsMemberCouponService {
         // Use status 0 -> not used
         couponHistory.setUseStatus(0);
         couponHistoryMapper.insert(couponHistory);
+        clearCouponCache(currentMember.getId());
         // Update coupon table stock and receive count
         coupon.setCount(coupon.getCount() - 1);
         coupon.setReceiveCount(coupon.getReceiveCount() == null ? 1 : coupon.getReceiveCount() + 1);
@@ -113,9 +126,16 @@ public class UmsMemberCouponServiceImpl implements UmsMemberCouponService {
     @Override
     public List<SmsCouponHistoryDetail> listCart(List<CartPromotionItem> cartItemList, Integer type) {
         UmsMember currentMember = memberService.getCurrentMember();
+        return listCart(currentMember.getId(), cartItemList, type);
+    }
+
+    @Override
+    public List<SmsCouponHistoryDetail> listCart(Long memberId, List<CartPromotionItem> cartItemList, Integer type) {
         Date now = new Date();
-        // Get all coupons of this member
-        List<SmsCouponHistoryDetail> allList = couponHistoryDao.getDetailList(currentMember.getId());
+        // Get all unused coupons of this member
+        List<SmsCouponHistoryDetail> allList = getUnusedCouponDetailList(memberId);
+        // Sum the cart once, in total and per product and category
+        CartAmount cartAmount = new CartAmount(cartItemList);
         // Determine whether coupons are available based on usage type
         List<SmsCouponHistoryDetail> enableList = new ArrayList<>();
         List<SmsCouponHistoryDetail> disableList = new ArrayList<>();
@@ -126,7 +146,7 @@ public class UmsMemberCouponServiceImpl implements UmsMemberCouponService {
             if (useType.equals(0)) {
                 // 0 -> universal coupon
                 // Check if minimum spend requirement is met
-                BigDecimal totalAmount = calcTotalAmount(cartItemList);
+                BigDecimal totalAmount = cartAmount.getTotal();
                 if (now.before(endTime) && totalAmount.subtract(minPoint).intValue() >= 0) {
                     enableList.add(couponHistoryDetail);
                 } else {
@@ -135,11 +155,11 @@ public class UmsMemberCouponServiceImpl implements UmsMemberCouponService {
             } else if (useType.equals(1)) {
                 // 1 -> specific category
                 // Calculate total for the specific category
-                List<Long> productCategoryIds = new ArrayList<>();
+                Set<Long> productCategoryIds = new HashSet<>();
                 for (SmsCouponProductCategoryRelation categoryRelation : couponHistoryDetail.getCategoryRelationList()) {
                     productCategoryIds.add(categoryRelation.getProductCategoryId());
                 }
-                BigDecimal totalAmount = calcTotalAmountByproductCategoryId(cartItemList, productCategoryIds);
+                BigDecimal totalAmount = cartAmount.sum(cartAmount.getCategoryTotalMap(), productCategoryIds);
                 if (now.before(endTime) && totalAmount.intValue() > 0 && totalAmount.subtract(minPoint).intValue() >= 0) {
                     enableList.add(couponHistoryDetail);
                 } else {
@@ -148,11 +168,11 @@ public class UmsMemberCouponServiceImpl implements UmsMemberCouponService {
             } else if (useType.equals(2)) {
                 // 2 -> specific product
                 // Calculate total for the specific products
-                List<Long> productIds = new ArrayList<>();
+                Set<Long> productIds = new HashSet<>();
                 for (SmsCouponProductRelation productRelation : couponHistoryDetail.getProductRelationList()) {
                     productIds.add(productRelation.getProductId());
                 }
-                BigDecimal totalAmount = calcTotalAmountByProductId(cartItemList, productIds);
+                BigDecimal totalAmount = cartAmount.sum(cartAmount.getProductTotalMap(), productIds);
                 if (now.before(endTime) && totalAmount.intValue() > 0 && totalAmount.subtract(minPoint).intValue() >= 0) {
                     enableList.add(couponHistoryDetail);
                 } else {
@@ -163,6 +183,116 @@ public class UmsMemberCouponServiceImpl implements UmsMemberCouponService {
         return type.equals(1) ? enableList : disableList;
     }
 
+    @Override
+    public void clearCouponCache(Long memberId) {
+        //事务提交后再删除，避免并发读取把提交前的数据重新写入缓存
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    deleteCouponCache(memberId);
+                }
+            });
+        } else {
+            deleteCouponCache(memberId);
+        }
+    }
+
+    @Override
+    public void clearAllCouponCache() {
+        try {
+            redisService.incr(getCouponVersionKey(), 1);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Bump member coupon cache version failed, caches expire within {} seconds", REDIS_EXPIRE, e);
+        }
+    }
+
+    private void deleteCouponCache(Long memberId) {
+        try {
+            redisService.del(getCouponCacheKey(memberId));
+        } catch (RuntimeException e) {
+            LOGGER.warn("Delete member coupon cache failed, memberId: {}", memberId, e);
+        }
+    }
+
+    /**
+     * Get unused coupons of a member with their product and category relations, cached in Redis
+     */
+    @SuppressWarnings("unchecked")
+    private List<SmsCouponHistoryDetail> getUnusedCouponDetailList(Long memberId) {
+        String key = null;
+        try {
+            key = getCouponCacheKey(memberId);
+            List<SmsCouponHistoryDetail> cacheList = (List<SmsCouponHistoryDetail>) redisService.get(key);
+            if (cacheList != null) {
+                return cacheList;
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("Read member coupon cache failed, memberId: {}", memberId, e);
+        }
+        List<SmsCouponHistoryDetail> detailList = couponHistoryDao.getUnusedCouponList(memberId);
+        fillRelationList(detailList);
+        if (key == null) {
+            return detailList;
+        }
+        try {
+            redisService.set(key, detailList, REDIS_EXPIRE);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Write member coupon cache failed, memberId: {}", memberId, e);
+        }
+        return detailList;
+    }
+
+    /**
+     * Load coupon relations with two IN queries instead of joining them onto every coupon history row
+     */
+    private void fillRelationList(List<SmsCouponHistoryDetail> detailList) {
+        Set<Long> couponIds = new HashSet<>();
+        for (SmsCouponHistoryDetail detail : detailList) {
+            if (detail.getCoupon() != null && detail.getCoupon().getId() != null) {
+                couponIds.add(detail.getCoupon().getId());
+            }
+        }
+        Map<Long, List<SmsCouponProductRelation>> productRelationMap = new HashMap<>();
+        Map<Long, List<SmsCouponProductCategoryRelation>> categoryRelationMap = new HashMap<>();
+        if (!couponIds.isEmpty()) {
+            SmsCouponProductRelationExample cprExample = new SmsCouponProductRelationExample();
+            cprExample.createCriteria().andCouponIdIn(new ArrayList<>(couponIds));
+            for (SmsCouponProductRelation relation : couponProductRelationMapper.selectByExample(cprExample)) {
+                // Keep the same fields as the joined query returned
+                SmsCouponProductRelation productRelation = new SmsCouponProductRelation();
+                productRelation.setId(relation.getId());
+                productRelation.setProductId(relation.getProductId());
+                productRelationMap.computeIfAbsent(relation.getCouponId(), k -> new ArrayList<>()).add(productRelation);
+            }
+            SmsCouponProductCategoryRelationExample cpcrExample = new SmsCouponProductCategoryRelationExample();
+            cpcrExample.createCriteria().andCouponIdIn(new ArrayList<>(couponIds));
+            for (SmsCouponProductCategoryRelation relation : couponProductCategoryRelationMapper.selectByExample(cpcrExample)) {
+                SmsCouponProductCategoryRelation categoryRelation = new SmsCouponProductCategoryRelation();
+                categoryRelation.setId(relation.getId());
+                categoryRelation.setProductCategoryId(relation.getProductCategoryId());
+                categoryRelationMap.computeIfAbsent(relation.getCouponId(), k -> new ArrayList<>()).add(categoryRelation);
+            }
+        }
+        for (SmsCouponHistoryDetail detail : detailList) {
+            Long couponId = detail.getCoupon() == null ? null : detail.getCoupon().getId();
+            detail.setProductRelationList(new ArrayList<>(productRelationMap.getOrDefault(couponId, Collections.emptyList())));
+            detail.setCategoryRelationList(new ArrayList<>(categoryRelationMap.getOrDefault(couponId, Collections.emptyList())));
+        }
+    }
+
+    /**
+     * Cache key of the member under the current coupon version, bumping the version drops the caches of all members
+     */
+    private String getCouponCacheKey(Long memberId) {
+        Object version = redisService.get(getCouponVersionKey());
+        return REDIS_DATABASE + ":" + REDIS_KEY_MEMBER_COUPON + ":" + (version == null ? "0" : version) + ":" + memberId;
+    }
+
+    private String getCouponVersionKey() {
+        return REDIS_DATABASE + ":" + REDIS_KEY_MEMBER_COUPON + ":version";
+    }
+
     @Override
     public List<SmsCoupon> listByProduct(Long productId) {
         List<Long> allCouponIds = new ArrayList<>();
@@ -203,37 +333,46 @@ public class UmsMemberCouponServiceImpl implements UmsMemberCouponService {
         return couponHistoryDao.getCouponList(member.getId(), useStatus);
     }
 
-    // Calculate total cart amount after promotions
-    private BigDecimal calcTotalAmount(List<CartPromotionItem> cartItemList) {
-        BigDecimal total = BigDecimal.ZERO;
-        for (CartPromotionItem item : cartItemList) {
-            BigDecimal realPrice = item.getPrice().subtract(item.getReduceAmount());
-            total = total.add(realPrice.multiply(new BigDecimal(item.getQuantity())));
-        }
-        return total;
-    }
+    /**
+     * Cart amount after promotions, summed once in total and per product and category
+     */
+    private static class CartAmount {
+        private BigDecimal total = BigDecimal.ZERO;
+        private final Map<Long, BigDecimal> productTotalMap = new HashMap<>();
+        private final Map<Long, BigDecimal> categoryTotalMap = new HashMap<>();
 
-    // Calculate total for specified categories
-    private BigDecimal calcTotalAmountByproductCategoryId(List<CartPromotionItem> cartItemList, List<Long> productCategoryIds) {
-        BigDecimal total = BigDecimal.ZERO;
-        for (CartPromotionItem item : cartItemList) {
-            if (productCategoryIds.contains(item.getProductCategoryId())) {
+        CartAmount(List<CartPromotionItem> cartItemList) {
+            for (CartPromotionItem item : cartItemList) {
                 BigDecimal realPrice = item.getPrice().subtract(item.getReduceAmount());
-                total = total.add(realPrice.multiply(new BigDecimal(item.getQuantity())));
+                BigDecimal amount = realPrice.multiply(new BigDecimal(item.getQuantity()));
+                total = total.add(amount);
+                productTotalMap.merge(item.getProductId(), amount, BigDecimal::add);
+                categoryTotalMap.merge(item.getProductCategoryId(), amount, BigDecimal::add);
             }
         }
-        return total;
-    }
 
-    // Calculate total for specified products
-    private BigDecimal calcTotalAmountByProductId(List<CartPromotionItem> cartItemList, List<Long> productIds) {
-        BigDecimal total = BigDecimal.ZERO;
-        for (CartPromotionItem item : cartItemList) {
-            if (productIds.contains(item.getProductId())) {
-                BigDecimal realPrice = item.getPrice().subtract(item.getReduceAmount());
-                total = total.add(realPrice.multiply(new BigDecimal(item.getQuantity())));
+        BigDecimal getTotal() {
+            return total;
+        }
+
+        Map<Long, BigDecimal> getProductTotalMap() {
+            return productTotalMap;
+        }
+
+        Map<Long, BigDecimal> getCategoryTotalMap() {
+            return categoryTotalMap;
+        }
+
+        // Calculate total for the given products or categories
+        BigDecimal sum(Map<Long, BigDecimal> totalMap, Set<Long> ids) {
+            BigDecimal sum = BigDecimal.ZERO;
+            for (Long id : ids) {
+                BigDecimal amount = totalMap.get(id);
+                if (amount != null) {
+                    sum = sum.add(amount);
+                }
             }
+            return sum;
         }
-        return total;
     }
 }
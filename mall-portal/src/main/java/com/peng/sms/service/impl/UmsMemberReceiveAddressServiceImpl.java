@@ -59,8 +59,13 @@ public class UmsMemberReceiveAddressServiceImpl implements UmsMemberReceiveAddre
     @Override
     public List<UmsMemberReceiveAddress> list() {
         UmsMember currentMember = memberService.getCurrentMember();
+        return list(currentMember.getId());
+    }
+
+    @Override
+    public List<UmsMemberReceiveAddress> list(Long memberId) {
         UmsMemberReceiveAddressExample example = new UmsMemberReceiveAddressExample();
-        example.createCriteria().andMemberIdEqualTo(currentMember.getId());
+        example.createCriteria().andMemberIdEqualTo(memberId);
         return addressMapper.selectByExample(example);
     }
 
@@ -0,0 +1,60 @@
+package com.peng.sms.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Waits for the parts of one response assembled in parallel against a shared deadline
+ * A part that fails or is not done by the deadline is returned as null, its future is cancelled when it timed out,
+ * and the joiner remembers that the response is partial. Not thread safe, used by the request thread only.
+ */
+public class DeadlineJoiner {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeadlineJoiner.class);
+
+    private final String name;
+    private final long deadline;
+    private boolean partial;
+
+    /**
+     * @param name     what is assembled, used in the log messages
+     * @param deadline epoch millis by which every part has to be done
+     */
+    public DeadlineJoiner(String name, long deadline) {
+        this.name = name;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Wait for a part until the deadline
+     *
+     * @return result of the part, null when it failed or timed out
+     */
+    public <T> T join(CompletableFuture<T> future, String part) {
+        try {
+            long remaining = Math.max(0, deadline - System.currentTimeMillis());
+            return future.get(remaining, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            LOGGER.warn("Wait for {} timed out, part: {}", name, part);
+        } catch (ExecutionException e) {
+            LOGGER.warn("Wait for {} failed, part: {}", name, part, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Wait for {} interrupted, part: {}", name, part);
+        }
+        partial = true;
+        return null;
+    }
+
+    /**
+     * Whether any part joined so far failed or timed out
+     */
+    public boolean isPartial() {
+        return partial;
+    }
+}
@@ -0,0 +1,98 @@
+package com.peng.sms.util;
+
+import com.peng.sms.api.CommonPage;
+import com.peng.sms.domain.CursorRow;
+import com.peng.sms.exception.Asserts;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Opaque continuation token for keyset pagination
+ * Holds the sort value and ID of the last record on a page, the next page starts right after it.
+ */
+public class PageCursor {
+    /**
+     * Largest page size accepted, also bounds the records fetched per request
+     */
+    public static final int MAX_PAGE_SIZE = 100;
+
+    private final Integer sort;
+    private final Long id;
+
+    public PageCursor(Integer sort, Long id) {
+        this.sort = sort;
+        this.id = id;
+    }
+
+    public Integer getSort() {
+        return sort;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    /**
+     * Encode the cursor as a URL safe token
+     */
+    public String encode() {
+        String value = (sort == null ? "" : sort.toString()) + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a token returned by {@link #encode()}, null or empty tokens mean the first page
+     */
+    public static PageCursor decode(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int index = value.indexOf(':');
+            String sort = value.substring(0, index);
+            return new PageCursor(sort.isEmpty() ? null : Integer.valueOf(sort), Long.valueOf(value.substring(index + 1)));
+        } catch (RuntimeException e) {
+            Asserts.fail("Invalid page cursor");
+            return null;
+        }
+    }
+
+    /**
+     * Reject page sizes outside 1 to {@link #MAX_PAGE_SIZE}, call it before fetching pageSize + 1 records
+     */
+    public static void checkPageSize(Integer pageSize) {
+        if (pageSize == null || pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            Asserts.fail("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+    }
+
+    /**
+     * Build a page from records fetched with limit pageSize + 1, the extra record only tells whether a next page exists
+     */
+    public static <T> CommonPage<T> page(List<T> list, Integer pageSize, Function<T, PageCursor> cursorFn) {
+        checkPageSize(pageSize);
+        if (list.size() <= pageSize) {
+            return CommonPage.cursorPage(new ArrayList<>(list), pageSize, null);
+        }
+        List<T> pageList = new ArrayList<>(list.subList(0, pageSize));
+        String nextCursor = cursorFn.apply(pageList.get(pageSize - 1)).encode();
+        return CommonPage.cursorPage(pageList, pageSize, nextCursor);
+    }
+
+    /**
+     * Build a page from rows carrying their own sort value and ID
+     */
+    public static <T> CommonPage<T> rowPage(List<CursorRow<T>> rowList, Integer pageSize) {
+        CommonPage<CursorRow<T>> rowPage = page(rowList, pageSize, row -> new PageCursor(row.getSort(), row.getId()));
+        List<T> itemList = new ArrayList<>(rowPage.getList().size());
+        for (CursorRow<T> row : rowPage.getList()) {
+            itemList.add(row.getItem());
+        }
+        return CommonPage.cursorPage(itemList, pageSize, rowPage.getNextCursor());
+    }
+}
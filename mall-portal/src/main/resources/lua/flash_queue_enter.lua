@@ -0,0 +1,13 @@
+-- Issue a waiting room position to a member, a member asking again keeps the first position.
+-- KEYS[1]: member to position hash, KEYS[2]: position counter, ARGV[1]: member ID, ARGV[2]: expire seconds
+local position = redis.call('HGET', KEYS[1], ARGV[1])
+if position then
+    return tonumber(position)
+end
+position = redis.call('INCR', KEYS[2])
+redis.call('HSET', KEYS[1], ARGV[1], position)
+if position == 1 then
+    redis.call('EXPIRE', KEYS[1], ARGV[2])
+    redis.call('EXPIRE', KEYS[2], ARGV[2])
+end
+return position
@@ -0,0 +1,24 @@
+-- Take flash promotion stock for a member, checking the per-member limit in the same step.
+-- KEYS[1]: flash stock hash, KEYS[2]: purchased quantity per member hash
+-- ARGV[1]: member ID, ARGV[2]: quantity, ARGV[3]: expire seconds of KEYS[2]
+-- Returns 1 when taken, 0 when sold out, -1 when the stock is not loaded, -2 when the member would exceed the limit.
+local stock = redis.call('HGET', KEYS[1], 'stock')
+if not stock then
+    return -1
+end
+local quantity = tonumber(ARGV[2])
+local limit = tonumber(redis.call('HGET', KEYS[1], 'limit') or '0')
+if limit > 0 then
+    local bought = tonumber(redis.call('HGET', KEYS[2], ARGV[1]) or '0')
+    if bought + quantity > limit then
+        return -2
+    end
+end
+if tonumber(stock) < quantity then
+    return 0
+end
+redis.call('HINCRBY', KEYS[1], 'stock', -quantity)
+if redis.call('HINCRBY', KEYS[2], ARGV[1], quantity) == quantity then
+    redis.call('EXPIRE', KEYS[2], ARGV[3])
+end
+return 1
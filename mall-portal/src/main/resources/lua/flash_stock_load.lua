@@ -0,0 +1,6 @@
+-- Load the remaining count and per-member limit of a flash promotion product without overwriting a count that is already present.
+-- KEYS[1]: flash stock hash, ARGV[1]: remaining count, ARGV[2]: limit per member (0 for no limit), ARGV[3]: expire seconds
+redis.call('HSETNX', KEYS[1], 'stock', ARGV[1])
+redis.call('HSET', KEYS[1], 'limit', ARGV[2])
+redis.call('EXPIRE', KEYS[1], ARGV[3])
+return 1
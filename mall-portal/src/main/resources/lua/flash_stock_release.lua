@@ -0,0 +1,11 @@
+-- Give back flash promotion stock taken for an order that could not be created.
+-- KEYS[1]: flash stock hash, KEYS[2]: purchased quantity per member hash, ARGV[1]: member ID, ARGV[2]: quantity
+if redis.call('EXISTS', KEYS[1]) == 1 then
+    redis.call('HINCRBY', KEYS[1], 'stock', ARGV[2])
+end
+if redis.call('HEXISTS', KEYS[2], ARGV[1]) == 1 then
+    if redis.call('HINCRBY', KEYS[2], ARGV[1], -tonumber(ARGV[2])) <= 0 then
+        redis.call('HDEL', KEYS[2], ARGV[1])
+    end
+end
+return 1
@@ -0,0 +1,6 @@
+-- Give up a lease only while it is still held by the caller, a lease taken over by another node is left alone.
+-- KEYS[1]: lease key, ARGV[1]: token of the holder
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    return redis.call('DEL', KEYS[1])
+end
+return 0
@@ -0,0 +1,6 @@
+-- Extend a lease only while it is still held by the caller.
+-- KEYS[1]: lease key, ARGV[1]: token of the holder, ARGV[2]: lease time in milliseconds
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    return redis.call('PEXPIRE', KEYS[1], ARGV[2])
+end
+return 0
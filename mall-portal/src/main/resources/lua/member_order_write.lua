@@ -0,0 +1,63 @@
+-- Write order documents into a member order read model in one call.
+-- KEYS[1]: loaded marker holding the lowest order ID covered, KEYS[2]: version, KEYS[3]: document hash,
+-- KEYS[4]: index of all orders, KEYS[5..10]: index of status 0..5
+-- ARGV[1]: 'build' to replace the model, 'refresh' to update a model that is already built
+-- ARGV[2]: version read before the orders were loaded (build only), ARGV[3]: expire seconds,
+-- ARGV[4]: lowest order ID covered, 0 when all orders are covered (build only)
+-- ARGV[5..]: groups of order ID, status, deleted flag ('1' or '0') and serialized document
+-- Returns 1 when written, 0 when a build lost to a concurrent transition or a refresh found no model.
+local ttl = tonumber(ARGV[3])
+local floor
+if ARGV[1] == 'build' then
+    local version = redis.call('GET', KEYS[2]) or '0'
+    if version ~= ARGV[2] then
+        return 0
+    end
+    for k = 1, #KEYS do
+        if k ~= 2 then
+            redis.call('DEL', KEYS[k])
+        end
+    end
+    floor = tonumber(ARGV[4])
+else
+    redis.call('INCR', KEYS[2])
+    redis.call('EXPIRE', KEYS[2], ttl)
+    local loaded = redis.call('GET', KEYS[1])
+    if not loaded then
+        return 0
+    end
+    ttl = redis.call('TTL', KEYS[1])
+    if ttl <= 0 then
+        return 0
+    end
+    floor = tonumber(loaded)
+end
+for i = 5, #ARGV, 4 do
+    local id = ARGV[i]
+    local status = tonumber(ARGV[i + 1])
+    if tonumber(id) >= floor and status ~= nil and status >= 0 and status <= 5 then
+        for s = 0, 5 do
+            if s ~= status then
+                redis.call('ZREM', KEYS[5 + s], id)
+            end
+        end
+        if ARGV[i + 2] == '1' then
+            redis.call('HDEL', KEYS[3], id)
+            redis.call('ZREM', KEYS[5 + status], id)
+            redis.call('ZREM', KEYS[4], id)
+        else
+            redis.call('HSET', KEYS[3], id, ARGV[i + 3])
+            redis.call('ZADD', KEYS[5 + status], id, id)
+            redis.call('ZADD', KEYS[4], id, id)
+        end
+    end
+end
+if ARGV[1] == 'build' then
+    redis.call('SET', KEYS[1], ARGV[4])
+end
+for k = 1, #KEYS do
+    if k ~= 2 then
+        redis.call('EXPIRE', KEYS[k], ttl)
+    end
+end
+return 1
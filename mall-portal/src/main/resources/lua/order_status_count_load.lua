@@ -0,0 +1,14 @@
+-- Replace the status counters of a member with counts computed in MySQL unless a transition moved them meanwhile.
+-- KEYS[1]: member status count hash, KEYS[2]: version bumped by every move
+-- ARGV[1]: expire seconds, ARGV[2]: version read before counting, ARGV[2i+1]: status, ARGV[2i+2]: count
+-- Returns 1 when loaded, 0 when a transition landed after the version was read.
+local version = redis.call('GET', KEYS[2]) or '0'
+if version ~= ARGV[2] then
+    return 0
+end
+redis.call('DEL', KEYS[1])
+for i = 3, #ARGV, 2 do
+    redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1])
+end
+redis.call('EXPIRE', KEYS[1], ARGV[1])
+return 1
@@ -0,0 +1,18 @@
+-- Move orders between the status counters of members, counters that are not built yet are skipped.
+-- The version of every member is bumped even then so a load counted before the move is rejected.
+-- KEYS[2i-1]: member status count hash, KEYS[2i]: its version
+-- ARGV[1]: expire seconds of the version, ARGV[2i]: source status or empty, ARGV[2i+1]: target status or empty
+for i = 1, #KEYS / 2 do
+    local key = KEYS[2 * i - 1]
+    redis.call('INCR', KEYS[2 * i])
+    redis.call('EXPIRE', KEYS[2 * i], ARGV[1])
+    if redis.call('EXISTS', key) == 1 then
+        if ARGV[2 * i] ~= '' then
+            redis.call('HINCRBY', key, ARGV[2 * i], -1)
+        end
+        if ARGV[2 * i + 1] ~= '' then
+            redis.call('HINCRBY', key, ARGV[2 * i + 1], 1)
+        end
+    end
+end
+return 1
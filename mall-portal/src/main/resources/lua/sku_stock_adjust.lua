@@ -0,0 +1,9 @@
+-- Apply stock/lockStock deltas to loaded SKU counters, missing counters are reloaded from MySQL later.
+-- KEYS[i]: sku stock hash, ARGV[2i-1]: stock delta, ARGV[2i]: lockStock delta
+for i, key in ipairs(KEYS) do
+    if redis.call('EXISTS', key) == 1 then
+        redis.call('HINCRBY', key, 'stock', ARGV[2 * i - 1])
+        redis.call('HINCRBY', key, 'lockStock', ARGV[2 * i])
+    end
+end
+return 1
@@ -0,0 +1,9 @@
+-- Load SKU counters from MySQL without overwriting counters that are already present.
+-- KEYS[i]: sku stock hash, ARGV[2i-1]: stock, ARGV[2i]: lockStock, ARGV[#ARGV]: expire seconds
+local expire = ARGV[#ARGV]
+for i, key in ipairs(KEYS) do
+    redis.call('HSETNX', key, 'stock', ARGV[2 * i - 1])
+    redis.call('HSETNX', key, 'lockStock', ARGV[2 * i])
+    redis.call('EXPIRE', key, expire)
+end
+return 1
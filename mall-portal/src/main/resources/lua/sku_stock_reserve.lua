@@ -0,0 +1,17 @@
+-- Reserve stock for every SKU of an order in one shot.
+-- KEYS[i]: sku stock hash, ARGV[i]: quantity to lock for KEYS[i]
+-- Returns 1 when all SKUs are locked, 0 when any SKU is short, -1 when any counter is not loaded.
+for i, key in ipairs(KEYS) do
+    local stock = redis.call('HGET', key, 'stock')
+    local lockStock = redis.call('HGET', key, 'lockStock')
+    if not stock or not lockStock then
+        return -1
+    end
+    if tonumber(stock) - tonumber(lockStock) < tonumber(ARGV[i]) then
+        return 0
+    end
+end
+for i, key in ipairs(KEYS) do
+    redis.call('HINCRBY', key, 'lockStock', ARGV[i])
+end
+return 1
@@ -0,0 +1,39 @@
+package com.peng.sms.component;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Flash promotion stock scripts
+ */
+public class FlashStockScriptTest extends RedisScriptTestSupport {
+
+    @Test
+    public void acquireNeedsLoadedStock() {
+        assertEquals(-1L, run("lua/flash_stock_acquire.lua", keys("flash:1", "bought:1"), "1", "1", "60"));
+    }
+
+    @Test
+    public void acquireChecksLimitAndStock() {
+        run("lua/flash_stock_load.lua", keys("flash:1"), "3", "2", "60");
+
+        assertEquals(1L, run("lua/flash_stock_acquire.lua", keys("flash:1", "bought:1"), "100", "2", "60"));
+        assertEquals(-2L, run("lua/flash_stock_acquire.lua", keys("flash:1", "bought:1"), "100", "1", "60"));
+        assertEquals(0L, run("lua/flash_stock_acquire.lua", keys("flash:1", "bought:1"), "200", "2", "60"));
+        assertEquals(1L, run("lua/flash_stock_acquire.lua", keys("flash:1", "bought:1"), "200", "1", "60"));
+        assertEquals("0", redis.opsForHash().get("flash:1", "stock"));
+        assertTrue(redis.getExpire("bought:1") > 0);
+    }
+
+    @Test
+    public void releaseGivesStockAndLimitBack() {
+        run("lua/flash_stock_load.lua", keys("flash:1"), "3", "2", "60");
+        run("lua/flash_stock_acquire.lua", keys("flash:1", "bought:1"), "100", "2", "60");
+
+        run("lua/flash_stock_release.lua", keys("flash:1", "bought:1"), "100", "2");
+
+        assertEquals("3", redis.opsForHash().get("flash:1", "stock"));
+        assertFalse(redis.opsForHash().hasKey("bought:1", "100"));
+    }
+}
@@ -0,0 +1,24 @@
+package com.peng.sms.component;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Lease renew and release scripts
+ */
+public class LeaseScriptTest extends RedisScriptTestSupport {
+
+    @Test
+    public void leaseIsRenewedAndReleasedOnlyByItsHolder() {
+        redis.opsForValue().set("lease", "a");
+
+        assertEquals(0L, run("lua/lease_renew.lua", keys("lease"), "b", "60000"));
+        assertEquals(1L, run("lua/lease_renew.lua", keys("lease"), "a", "60000"));
+        assertTrue(redis.getExpire("lease") > 0);
+        assertEquals(0L, run("lua/lease_release.lua", keys("lease"), "b"));
+        assertTrue(redis.hasKey("lease"));
+        assertEquals(1L, run("lua/lease_release.lua", keys("lease"), "a"));
+        assertFalse(redis.hasKey("lease"));
+    }
+}
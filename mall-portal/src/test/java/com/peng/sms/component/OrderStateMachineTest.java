@@ -0,0 +1,90 @@
+package com.peng.sms.component;
+
+import com.peng.sms.dao.PortalOrderDao;
+import com.peng.sms.model.OmsOrder;
+import com.peng.sms.model.OmsOrderOperateHistory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Transitions only take effect when the conditional update on the source status wins
+ */
+@ExtendWith(MockitoExtension.class)
+public class OrderStateMachineTest {
+    @Mock
+    private PortalOrderDao portalOrderDao;
+    @Mock
+    private MemberOrderReadModel memberOrderReadModel;
+    @Mock
+    private OrderStatusCounter orderStatusCounter;
+    @InjectMocks
+    private OrderStateMachine orderStateMachine;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void winningTransitionRecordsHistoryAndMovesCounters() {
+        when(portalOrderDao.updateOrderStatusIf(eq(1L), eq(7L), eq(2), any(OmsOrder.class))).thenReturn(1);
+
+        assertTrue(orderStateMachine.fire(1L, 7L, OrderStateMachine.Transition.CONFIRM_RECEIVE, null, OrderStateMachine.OPERATE_MAN_MEMBER));
+
+        ArgumentCaptor<OmsOrder> recordCaptor = ArgumentCaptor.forClass(OmsOrder.class);
+        verify(portalOrderDao).updateOrderStatusIf(eq(1L), eq(7L), eq(2), recordCaptor.capture());
+        assertEquals(3, recordCaptor.getValue().getStatus());
+        ArgumentCaptor<List<OmsOrderOperateHistory>> historyCaptor = ArgumentCaptor.forClass(List.class);
+        verify(portalOrderDao).insertOperateHistoryList(historyCaptor.capture());
+        assertEquals(1, historyCaptor.getValue().size());
+        assertEquals(3, historyCaptor.getValue().get(0).getOrderStatus());
+        assertEquals(OrderStateMachine.OPERATE_MAN_MEMBER, historyCaptor.getValue().get(0).getOperateMan());
+        verify(memberOrderReadModel).refreshAfterCommit(Collections.singletonList(1L));
+        verify(orderStatusCounter).moveAfterCommit(7L, 2, 3);
+    }
+
+    @Test
+    public void losingTransitionChangesNothingElse() {
+        when(portalOrderDao.updateOrderStatusIf(eq(1L), isNull(), eq(0), any(OmsOrder.class))).thenReturn(0);
+
+        assertFalse(orderStateMachine.fire(1L, null, OrderStateMachine.Transition.PAY, null, OrderStateMachine.OPERATE_MAN_SYSTEM));
+
+        verify(portalOrderDao, never()).insertOperateHistoryList(anyList());
+        verifyNoInteractions(memberOrderReadModel, orderStatusCounter);
+    }
+
+    @Test
+    public void transitionWithoutMemberMovesCountersByOrder() {
+        when(portalOrderDao.updateOrderStatusIf(eq(1L), isNull(), eq(0), any(OmsOrder.class))).thenReturn(1);
+
+        assertTrue(orderStateMachine.fire(1L, null, OrderStateMachine.Transition.CANCEL, null, OrderStateMachine.OPERATE_MAN_SYSTEM));
+
+        verify(orderStatusCounter).moveAfterCommit(Collections.singletonList(1L), 0, 4);
+    }
+
+    @Test
+    public void deleteTriesEveryDeletableStatus() {
+        when(portalOrderDao.deleteOrderIf(eq(1L), eq(7L), eq(3), any())).thenReturn(0);
+        when(portalOrderDao.deleteOrderIf(eq(1L), eq(7L), eq(4), any())).thenReturn(1);
+
+        assertTrue(orderStateMachine.delete(1L, 7L));
+
+        verify(orderStatusCounter).moveAfterCommit(7L, 4, null);
+    }
+
+    @Test
+    public void deleteFailsOutsideDeletableStatuses() {
+        when(portalOrderDao.deleteOrderIf(eq(1L), eq(7L), anyInt(), any())).thenReturn(0);
+
+        assertFalse(orderStateMachine.delete(1L, 7L));
+
+        verifyNoInteractions(memberOrderReadModel, orderStatusCounter);
+    }
+}
@@ -0,0 +1,43 @@
+package com.peng.sms.component;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Order status counter scripts
+ */
+public class OrderStatusCountScriptTest extends RedisScriptTestSupport {
+
+    @Test
+    public void moveSkipsCountersNotBuilt() {
+        run("lua/order_status_count_move.lua", keys("count:1", "count:1:version"), "60", "0", "1");
+
+        assertFalse(redis.hasKey("count:1"));
+        assertEquals("1", redis.opsForValue().get("count:1:version"));
+    }
+
+    @Test
+    public void moveUpdatesBuiltCounters() {
+        assertEquals(1L, run("lua/order_status_count_load.lua", keys("count:1", "count:1:version"), "60", "0", "0", "2", "1", "1"));
+
+        run("lua/order_status_count_move.lua", keys("count:1", "count:1:version"), "60", "0", "1");
+        run("lua/order_status_count_move.lua", keys("count:1", "count:1:version"), "60", "1", "");
+
+        assertEquals("1", redis.opsForHash().get("count:1", "0"));
+        assertEquals("1", redis.opsForHash().get("count:1", "1"));
+        assertTrue(redis.getExpire("count:1") > 0);
+    }
+
+    @Test
+    public void loadCountedBeforeMoveIsRejected() {
+        //统计时读到的版本号为0，统计后才执行的状态变更使版本号变为1
+        run("lua/order_status_count_move.lua", keys("count:1", "count:1:version"), "60", "0", "1");
+
+        assertEquals(0L, run("lua/order_status_count_load.lua", keys("count:1", "count:1:version"), "60", "0", "0", "2", "1", "1"));
+        assertFalse(redis.hasKey("count:1"));
+
+        assertEquals(1L, run("lua/order_status_count_load.lua", keys("count:1", "count:1:version"), "60", "1", "0", "1", "1", "2"));
+        assertEquals("2", redis.opsForHash().get("count:1", "1"));
+    }
+}
@@ -0,0 +1,137 @@
+package com.peng.sms.component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.peng.sms.domain.PaymentNotifyMessage;
+import com.peng.sms.service.OmsPortalOrderService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Repeated notifications are dropped in memory and by the handled marker, failures are left for Alipay or RabbitMQ to retry
+ */
+public class PaymentNotifyDispatcherTest {
+    private static final String HANDLED_KEY = "mall:oms:payNotify:T1";
+
+    private StringRedisTemplate stringRedisTemplate;
+    private ValueOperations<String, String> valueOperations;
+    private OmsPortalOrderService portalOrderService;
+    private AmqpTemplate amqpTemplate;
+    private PaymentNotifyDispatcher dispatcher;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        valueOperations = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(stringRedisTemplate.hasKey(anyString())).thenReturn(false);
+        portalOrderService = mock(OmsPortalOrderService.class);
+        amqpTemplate = mock(AmqpTemplate.class);
+
+        dispatcher = new PaymentNotifyDispatcher();
+        ReflectionTestUtils.setField(dispatcher, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(dispatcher, "portalOrderService", portalOrderService);
+        ReflectionTestUtils.setField(dispatcher, "amqpTemplate", amqpTemplate);
+        ReflectionTestUtils.setField(dispatcher, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(dispatcher, "REDIS_DATABASE", "mall");
+        ReflectionTestUtils.setField(dispatcher, "REDIS_KEY_PAY_NOTIFY", "oms:payNotify");
+        ReflectionTestUtils.setField(dispatcher, "REDIS_EXPIRE_PAY_NOTIFY", 172800L);
+        ReflectionTestUtils.setField(dispatcher, "PAY_NOTIFY_DEDUPE_WINDOW", 10000L);
+    }
+
+    @Test
+    public void repeatWithinWindowIsQueuedOnce() {
+        assertTrue(dispatcher.dispatch("T1", "S1", 1));
+        assertTrue(dispatcher.dispatch("T1", "S1", 1));
+
+        verify(amqpTemplate, times(1)).convertAndSend(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void repeatAfterWindowIsQueuedAgain() {
+        ReflectionTestUtils.setField(dispatcher, "PAY_NOTIFY_DEDUPE_WINDOW", 0L);
+
+        dispatcher.dispatch("T1", "S1", 1);
+        dispatcher.dispatch("T1", "S1", 1);
+
+        verify(amqpTemplate, times(2)).convertAndSend(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void handledNotificationIsNotQueued() {
+        when(stringRedisTemplate.hasKey(HANDLED_KEY)).thenReturn(true);
+
+        assertTrue(dispatcher.dispatch("T1", "S1", 1));
+
+        verifyNoInteractions(amqpTemplate);
+    }
+
+    @Test
+    public void queueFailureAsksAlipayToRetry() {
+        doThrow(new AmqpException("broker down")).doNothing()
+                .when(amqpTemplate).convertAndSend(anyString(), anyString(), anyString());
+
+        assertFalse(dispatcher.dispatch("T1", "S1", 1));
+        //失败时释放去重窗口，支付宝的重试立即入队
+        assertTrue(dispatcher.dispatch("T1", "S1", 1));
+
+        verify(amqpTemplate, times(2)).convertAndSend(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void processPaysTheOrderAndMarksItHandled() {
+        when(portalOrderService.paySuccessByOrderSn("S1", 1)).thenReturn(true);
+
+        dispatcher.process(message());
+
+        verify(portalOrderService).paySuccessByOrderSn("S1", 1);
+        verify(valueOperations).set(eq(HANDLED_KEY), eq("S1"), any(Duration.class));
+    }
+
+    @Test
+    public void paymentForClosedOrderIsNotMarkedHandled() {
+        when(portalOrderService.paySuccessByOrderSn("S1", 1)).thenReturn(false);
+
+        dispatcher.process(message());
+
+        verify(valueOperations, never()).set(anyString(), anyString(), any(Duration.class));
+    }
+
+    @Test
+    public void processSkipsHandledNotification() {
+        when(stringRedisTemplate.hasKey(HANDLED_KEY)).thenReturn(true);
+
+        dispatcher.process(message());
+
+        verifyNoInteractions(portalOrderService);
+    }
+
+    @Test
+    public void processFailureIsThrownWithoutMarking() {
+        doThrow(new IllegalStateException("db down")).when(portalOrderService).paySuccessByOrderSn("S1", 1);
+
+        assertThrows(IllegalStateException.class, () -> dispatcher.process(message()));
+
+        verify(valueOperations, never()).set(anyString(), anyString(), any(Duration.class));
+    }
+
+    private static PaymentNotifyMessage message() {
+        PaymentNotifyMessage message = new PaymentNotifyMessage();
+        message.setTradeNo("T1");
+        message.setOrderSn("S1");
+        message.setPayType(1);
+        message.setCreateTime(System.currentTimeMillis());
+        return message;
+    }
+}
@@ -0,0 +1,207 @@
+package com.peng.sms.component;
+
+import com.alipay.api.AlipayClient;
+import com.alipay.api.request.AlipayTradeQueryRequest;
+import com.alipay.api.response.AlipayTradeQueryResponse;
+import com.peng.sms.dao.PortalOrderDao;
+import com.peng.sms.model.OmsOrder;
+import com.peng.sms.service.OmsPortalOrderService;
+import com.peng.sms.service.impl.AlipayServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Runs the reconciliation job against a stub AlipayClient and an in-memory Redis
+ */
+public class PaymentReconcilerTest {
+    private static final Pattern OUT_TRADE_NO = Pattern.compile("\"out_trade_no\":\"([^\"]+)\"");
+    private static final String LEASE_KEY = "mall:oms:payReconcile:lease";
+
+    private final Map<String, String> redis = new ConcurrentHashMap<>();
+    private final Map<String, String> tradeStatusMap = new ConcurrentHashMap<>();
+    private final AtomicInteger queryCount = new AtomicInteger();
+    private PortalOrderDao portalOrderDao;
+    private OmsPortalOrderService portalOrderService;
+    private ThreadPoolTaskExecutor executor;
+    private PaymentReconciler reconciler;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        portalOrderDao = mock(PortalOrderDao.class);
+        portalOrderService = mock(OmsPortalOrderService.class);
+        when(portalOrderService.paySuccessByOrderSnList(anyList(), any())).thenAnswer(invocation -> ((List<?>) invocation.getArgument(0)).size());
+
+        AlipayServiceImpl alipayService = new AlipayServiceImpl();
+        ReflectionTestUtils.setField(alipayService, "alipayClient", stubAlipayClient());
+
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(4);
+        executor.initialize();
+
+        reconciler = new PaymentReconciler(1000, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(reconciler, "portalOrderDao", portalOrderDao);
+        ReflectionTestUtils.setField(reconciler, "alipayService", alipayService);
+        ReflectionTestUtils.setField(reconciler, "portalOrderService", portalOrderService);
+        ReflectionTestUtils.setField(reconciler, "stringRedisTemplate", stubRedisTemplate());
+        ReflectionTestUtils.setField(reconciler, "paymentReconcileExecutor", executor);
+        ReflectionTestUtils.setField(reconciler, "REDIS_DATABASE", "mall");
+        ReflectionTestUtils.setField(reconciler, "REDIS_KEY_PAY_RECONCILE", "oms:payReconcile");
+        ReflectionTestUtils.setField(reconciler, "RECONCILE_INTERVAL", 60000L);
+        ReflectionTestUtils.setField(reconciler, "RECONCILE_MIN_AGE", 5);
+        ReflectionTestUtils.setField(reconciler, "RECONCILE_MAX_AGE", 120);
+        ReflectionTestUtils.setField(reconciler, "RECONCILE_BATCH_SIZE", 100);
+        ReflectionTestUtils.setField(reconciler, "RECONCILE_MAX_CHECKS", 3);
+        ReflectionTestUtils.setField(reconciler, "RECONCILE_LEASE_TIME", 300000L);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void paidOrdersAreApplied() {
+        givenOrders(order(1L, "A1"), order(2L, "A2"), order(3L, "A3"));
+        tradeStatusMap.put("A1", "TRADE_SUCCESS");
+        tradeStatusMap.put("A2", "WAIT_BUYER_PAY");
+
+        assertEquals(1, reconciler.reconcile());
+        verify(portalOrderService).paySuccessByOrderSnList(Collections.singletonList("A1"), 1);
+        assertEquals(3, queryCount.get());
+    }
+
+    @Test
+    public void ordersAreNotQueriedAgainBeforeTheirBackoff() {
+        givenOrders(order(1L, "A1"), order(2L, "A2"));
+
+        reconciler.reconcile();
+        reconciler.reconcile();
+
+        assertEquals(2, queryCount.get());
+        assertEquals("1", redis.get("mall:oms:payReconcile:check:1").split(":")[0]);
+    }
+
+    @Test
+    public void ordersAreQueriedAtMostMaxChecksTimes() {
+        ReflectionTestUtils.setField(reconciler, "RECONCILE_INTERVAL", 0L);
+        givenOrders(order(1L, "A1"), order(2L, "A2"));
+
+        for (int i = 0; i < 10; i++) {
+            reconciler.reconcile();
+        }
+
+        assertEquals(6, queryCount.get());
+    }
+
+    @Test
+    public void leaseHeldElsewhereSkipsTheRun() {
+        givenOrders(order(1L, "A1"));
+        redis.put(LEASE_KEY, "other");
+
+        assertEquals(0, reconciler.reconcile());
+        assertEquals(0, queryCount.get());
+        assertEquals("other", redis.get(LEASE_KEY));
+    }
+
+    @Test
+    public void leaseIsReleasedWhenTheRunEnds() {
+        givenOrders(order(1L, "A1"));
+
+        reconciler.reconcile();
+
+        assertFalse(redis.containsKey(LEASE_KEY));
+    }
+
+    private void givenOrders(OmsOrder... orders) {
+        when(portalOrderDao.getUnpaidOrderList(any(), any(), any(), any())).thenReturn(Arrays.asList(orders));
+    }
+
+    private static OmsOrder order(Long id, String orderSn) {
+        OmsOrder order = new OmsOrder();
+        order.setId(id);
+        order.setOrderSn(orderSn);
+        order.setCreateTime(new Date(System.currentTimeMillis() - 10 * 60 * 1000));
+        return order;
+    }
+
+    /**
+     * AlipayClient answering trade queries from tradeStatusMap, unknown orders get the not exist error of Alipay
+     */
+    private AlipayClient stubAlipayClient() throws Exception {
+        AlipayClient alipayClient = mock(AlipayClient.class);
+        when(alipayClient.execute(any(AlipayTradeQueryRequest.class))).thenAnswer(invocation -> {
+            queryCount.incrementAndGet();
+            AlipayTradeQueryRequest request = invocation.getArgument(0);
+            Matcher matcher = OUT_TRADE_NO.matcher(request.getBizContent());
+            AlipayTradeQueryResponse response = new AlipayTradeQueryResponse();
+            String tradeStatus = matcher.find() ? tradeStatusMap.get(matcher.group(1)) : null;
+            if (tradeStatus == null) {
+                response.setCode("40004");
+                response.setSubCode("ACQ.TRADE_NOT_EXIST");
+            } else {
+                response.setCode("10000");
+                response.setTradeStatus(tradeStatus);
+            }
+            return response;
+        });
+        return alipayClient;
+    }
+
+    /**
+     * StringRedisTemplate backed by a map, enough for the lease and the check states of the reconciler
+     */
+    @SuppressWarnings("unchecked")
+    private StringRedisTemplate stubRedisTemplate() {
+        ValueOperations<String, String> valueOperations = mock(ValueOperations.class, invocation -> {
+            Object[] args = invocation.getArguments();
+            switch (invocation.getMethod().getName()) {
+                case "setIfAbsent":
+                    return redis.putIfAbsent((String) args[0], (String) args[1]) == null;
+                case "multiGet":
+                    List<String> values = new ArrayList<>();
+                    for (String key : (Collection<String>) args[0]) {
+                        values.add(redis.get(key));
+                    }
+                    return values;
+                case "set":
+                    redis.put((String) args[0], (String) args[1]);
+                    return null;
+                default:
+                    return null;
+            }
+        });
+        return mock(StringRedisTemplate.class, invocation -> {
+            Object[] args = invocation.getArguments();
+            switch (invocation.getMethod().getName()) {
+                case "opsForValue":
+                    return valueOperations;
+                case "execute":
+                    //续约脚本带租期参数，释放脚本只带持有者标识
+                    String key = ((List<String>) args[1]).get(0);
+                    boolean held = args[2].equals(redis.get(key));
+                    if (held && args.length == 3) {
+                        redis.remove(key);
+                    }
+                    return held ? 1L : 0L;
+                default:
+                    return null;
+            }
+        });
+    }
+}
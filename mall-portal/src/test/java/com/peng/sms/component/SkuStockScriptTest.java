@@ -0,0 +1,40 @@
+package com.peng.sms.component;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SKU stock reservation scripts
+ */
+public class SkuStockScriptTest extends RedisScriptTestSupport {
+
+    @Test
+    public void reserveNeedsLoadedCounters() {
+        assertEquals(-1L, run("lua/sku_stock_reserve.lua", keys("sku:1"), "1"));
+    }
+
+    @Test
+    public void reserveLocksEverySkuOrNone() {
+        run("lua/sku_stock_load.lua", keys("sku:1", "sku:2"), "10", "2", "5", "0", "60");
+
+        assertEquals(0L, run("lua/sku_stock_reserve.lua", keys("sku:1", "sku:2"), "1", "6"));
+        assertEquals("2", redis.opsForHash().get("sku:1", "lockStock"));
+        assertEquals("0", redis.opsForHash().get("sku:2", "lockStock"));
+
+        assertEquals(1L, run("lua/sku_stock_reserve.lua", keys("sku:1", "sku:2"), "8", "5"));
+        assertEquals("10", redis.opsForHash().get("sku:1", "lockStock"));
+        assertEquals("5", redis.opsForHash().get("sku:2", "lockStock"));
+        assertEquals(0L, run("lua/sku_stock_reserve.lua", keys("sku:1"), "1"));
+    }
+
+    @Test
+    public void loadKeepsCountersAlreadyPresent() {
+        run("lua/sku_stock_load.lua", keys("sku:1"), "10", "0", "60");
+        run("lua/sku_stock_reserve.lua", keys("sku:1"), "4");
+
+        run("lua/sku_stock_load.lua", keys("sku:1"), "10", "0", "60");
+
+        assertEquals("4", redis.opsForHash().get("sku:1", "lockStock"));
+    }
+}
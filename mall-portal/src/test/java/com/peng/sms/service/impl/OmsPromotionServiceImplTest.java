@@ -0,0 +1,310 @@
+package com.peng.sms.service.impl;
+
+import com.peng.sms.component.PromotionProductCache;
+import com.peng.sms.domain.CartPromotionItem;
+import com.peng.sms.domain.PromotionProduct;
+import com.peng.sms.mapper.PmsProductFullReductionMapper;
+import com.peng.sms.mapper.PmsProductLadderMapper;
+import com.peng.sms.mapper.PmsProductMapper;
+import com.peng.sms.mapper.PmsSkuStockMapper;
+import com.peng.sms.model.*;
+import com.peng.sms.service.RedisService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.BeanUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * The cached snapshot calculation gives the same cart promotion items as the former join of products, SKUs,
+ * ladders and full reductions, which is kept here as the reference
+ */
+public class OmsPromotionServiceImplTest {
+    private static final int PRODUCT_COUNT = 40;
+    private static final int SKU_PER_PRODUCT = 4;
+
+    private final List<PmsProduct> productList = new ArrayList<>();
+    private final List<PmsSkuStock> skuStockList = new ArrayList<>();
+    private final List<PmsProductLadder> ladderList = new ArrayList<>();
+    private final List<PmsProductFullReduction> fullReductionList = new ArrayList<>();
+    private OmsPromotionServiceImpl promotionService;
+
+    @BeforeEach
+    public void setUp() {
+        Random random = new Random(42);
+        long skuId = 1;
+        for (long productId = 1; productId <= PRODUCT_COUNT; productId++) {
+            PmsProduct product = new PmsProduct();
+            product.setId(productId);
+            product.setName("product" + productId);
+            product.setPromotionType((int) (productId % 5));
+            product.setGiftPoint(random.nextInt(100));
+            product.setGiftGrowth(random.nextInt(100));
+            productList.add(product);
+            for (int i = 0; i < SKU_PER_PRODUCT; i++) {
+                PmsSkuStock skuStock = new PmsSkuStock();
+                skuStock.setId(skuId++);
+                skuStock.setProductId(productId);
+                skuStock.setSkuCode("sku" + skuStock.getId());
+                BigDecimal price = new BigDecimal(50 + random.nextInt(950)).setScale(2, RoundingMode.HALF_EVEN);
+                skuStock.setPrice(price);
+                skuStock.setPromotionPrice(price.subtract(new BigDecimal(random.nextInt(40))));
+                skuStock.setStock(100 + random.nextInt(100));
+                skuStock.setLockStock(random.nextInt(100));
+                skuStockList.add(skuStock);
+            }
+            //门槛各不相同，排序结果与数据顺序无关
+            for (int count : new int[]{2 + random.nextInt(3), 6 + random.nextInt(4)}) {
+                PmsProductLadder ladder = new PmsProductLadder();
+                ladder.setId((long) ladderList.size() + 1);
+                ladder.setProductId(productId);
+                ladder.setCount(count);
+                ladder.setDiscount(new BigDecimal("0.80").add(new BigDecimal(random.nextInt(15)).movePointLeft(2)));
+                ladderList.add(ladder);
+            }
+            for (int fullPrice : new int[]{300 + random.nextInt(200), 1000 + random.nextInt(1000)}) {
+                PmsProductFullReduction fullReduction = new PmsProductFullReduction();
+                fullReduction.setId((long) fullReductionList.size() + 1);
+                fullReduction.setProductId(productId);
+                fullReduction.setFullPrice(new BigDecimal(fullPrice));
+                fullReduction.setReducePrice(new BigDecimal(fullPrice / 10));
+                fullReductionList.add(fullReduction);
+            }
+        }
+        //倒序返回，确认结果不依赖查询顺序
+        List<PmsProductLadder> reversedLadderList = new ArrayList<>(ladderList);
+        Collections.reverse(reversedLadderList);
+        List<PmsProductFullReduction> reversedFullReductionList = new ArrayList<>(fullReductionList);
+        Collections.reverse(reversedFullReductionList);
+
+        PmsProductMapper productMapper = mock(PmsProductMapper.class);
+        when(productMapper.selectByExample(any())).thenReturn(productList);
+        PmsProductLadderMapper productLadderMapper = mock(PmsProductLadderMapper.class);
+        when(productLadderMapper.selectByExample(any())).thenReturn(reversedLadderList);
+        PmsProductFullReductionMapper productFullReductionMapper = mock(PmsProductFullReductionMapper.class);
+        when(productFullReductionMapper.selectByExample(any())).thenReturn(reversedFullReductionList);
+        PmsSkuStockMapper skuStockMapper = mock(PmsSkuStockMapper.class);
+        when(skuStockMapper.selectByExample(any())).thenReturn(skuStockList);
+
+        PromotionProductCache promotionProductCache = new PromotionProductCache();
+        ReflectionTestUtils.setField(promotionProductCache, "productMapper", productMapper);
+        ReflectionTestUtils.setField(promotionProductCache, "productLadderMapper", productLadderMapper);
+        ReflectionTestUtils.setField(promotionProductCache, "productFullReductionMapper", productFullReductionMapper);
+        ReflectionTestUtils.setField(promotionProductCache, "redisService", mock(RedisService.class));
+        ReflectionTestUtils.setField(promotionProductCache, "REDIS_DATABASE", "mall");
+        ReflectionTestUtils.setField(promotionProductCache, "REDIS_KEY_PROMOTION_PRODUCT_VERSION", "pms:promotionProductVersion");
+        ReflectionTestUtils.setField(promotionProductCache, "REDIS_EXPIRE_PROMOTION_PRODUCT", 300L);
+
+        promotionService = new OmsPromotionServiceImpl();
+        ReflectionTestUtils.setField(promotionService, "promotionProductCache", promotionProductCache);
+        ReflectionTestUtils.setField(promotionService, "skuStockMapper", skuStockMapper);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 5, 20, 50, 100, 200})
+    public void sameItemsAsJoinPath(int lines) {
+        List<OmsCartItem> cartItemList = cart(lines, new Random(lines));
+
+        List<CartPromotionItem> expected = JoinPath.calcCartPromotion(cartItemList, joinResult());
+        List<CartPromotionItem> actual = promotionService.calcCartPromotion(cartItemList);
+
+        assertThat(actual).hasSize(lines);
+        assertThat(actual).usingRecursiveComparison().isEqualTo(expected);
+    }
+
+    private List<OmsCartItem> cart(int lines, Random random) {
+        List<OmsCartItem> cartItemList = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i++) {
+            PmsSkuStock skuStock = skuStockList.get(random.nextInt(skuStockList.size()));
+            OmsCartItem cartItem = new OmsCartItem();
+            cartItem.setId((long) i + 1);
+            cartItem.setProductId(skuStock.getProductId());
+            cartItem.setProductSkuId(skuStock.getId());
+            cartItem.setMemberId(1L);
+            cartItem.setQuantity(1 + random.nextInt(5));
+            cartItem.setPrice(skuStock.getPrice());
+            cartItem.setProductPic("pic" + skuStock.getProductId());
+            cartItem.setProductName("product" + skuStock.getProductId());
+            cartItem.setProductSubTitle("subTitle");
+            cartItem.setProductSkuCode(skuStock.getSkuCode());
+            cartItem.setMemberNickname("member");
+            cartItem.setCreateDate(new Date(1700000000000L + i));
+            cartItem.setModifyDate(new Date(1700000000000L + i));
+            cartItem.setDeleteStatus(0);
+            cartItem.setProductCategoryId(7L);
+            cartItem.setProductBrand("brand");
+            cartItem.setProductSn("sn" + skuStock.getProductId());
+            cartItem.setProductAttr("[]");
+            cartItemList.add(cartItem);
+        }
+        return cartItemList;
+    }
+
+    /**
+     * What getPromotionProductList returned: every product with its SKUs, ladders and full reductions
+     */
+    private List<PromotionProduct> joinResult() {
+        List<PromotionProduct> result = new ArrayList<>();
+        for (PmsProduct product : productList) {
+            PromotionProduct promotionProduct = new PromotionProduct();
+            BeanUtils.copyProperties(product, promotionProduct);
+            List<PmsSkuStock> skus = new ArrayList<>();
+            for (PmsSkuStock skuStock : skuStockList) {
+                if (skuStock.getProductId().equals(product.getId())) {
+                    skus.add(skuStock);
+                }
+            }
+            List<PmsProductLadder> ladders = new ArrayList<>();
+            for (PmsProductLadder ladder : ladderList) {
+                if (ladder.getProductId().equals(product.getId())) {
+                    ladders.add(ladder);
+                }
+            }
+            List<PmsProductFullReduction> fullReductions = new ArrayList<>();
+            for (PmsProductFullReduction fullReduction : fullReductionList) {
+                if (fullReduction.getProductId().equals(product.getId())) {
+                    fullReductions.add(fullReduction);
+                }
+            }
+            promotionProduct.setSkuStockList(skus);
+            promotionProduct.setProductLadderList(ladders);
+            promotionProduct.setProductFullReductionList(fullReductions);
+            result.add(promotionProduct);
+        }
+        return result;
+    }
+
+    /**
+     * The calculation as it was done on the joined promotion products
+     */
+    private static final class JoinPath {
+
+        static List<CartPromotionItem> calcCartPromotion(List<OmsCartItem> cartItemList, List<PromotionProduct> promotionProductList) {
+            Map<Long, List<OmsCartItem>> productCartMap = new TreeMap<>();
+            for (OmsCartItem cartItem : cartItemList) {
+                productCartMap.computeIfAbsent(cartItem.getProductId(), k -> new ArrayList<>()).add(cartItem);
+            }
+            List<CartPromotionItem> cartPromotionItemList = new ArrayList<>();
+            for (Map.Entry<Long, List<OmsCartItem>> entry : productCartMap.entrySet()) {
+                PromotionProduct promotionProduct = getPromotionProductById(entry.getKey(), promotionProductList);
+                List<OmsCartItem> itemList = entry.getValue();
+                Integer promotionType = promotionProduct.getPromotionType();
+                if (promotionType == 1) {
+                    for (OmsCartItem item : itemList) {
+                        CartPromotionItem cartPromotionItem = copy(item, "Single Product Promotion", promotionProduct);
+                        PmsSkuStock skuStock = getOriginalPrice(promotionProduct, item.getProductSkuId());
+                        BigDecimal originalPrice = skuStock.getPrice();
+                        cartPromotionItem.setPrice(originalPrice);
+                        cartPromotionItem.setReduceAmount(originalPrice.subtract(skuStock.getPromotionPrice()));
+                        cartPromotionItem.setRealStock(skuStock.getStock() - skuStock.getLockStock());
+                        cartPromotionItemList.add(cartPromotionItem);
+                    }
+                } else if (promotionType == 3) {
+                    int count = 0;
+                    for (OmsCartItem item : itemList) {
+                        count += item.getQuantity();
+                    }
+                    PmsProductLadder ladder = null;
+                    promotionProduct.getProductLadderList().sort((o1, o2) -> o2.getCount() - o1.getCount());
+                    for (PmsProductLadder productLadder : promotionProduct.getProductLadderList()) {
+                        if (count >= productLadder.getCount()) {
+                            ladder = productLadder;
+                            break;
+                        }
+                    }
+                    if (ladder == null) {
+                        handleNoReduce(cartPromotionItemList, itemList, promotionProduct);
+                        continue;
+                    }
+                    String message = "Discount Promotion: Buy " + ladder.getCount() + " items, get "
+                            + ladder.getDiscount().multiply(new BigDecimal(10)) + " discount";
+                    for (OmsCartItem item : itemList) {
+                        CartPromotionItem cartPromotionItem = copy(item, message, promotionProduct);
+                        PmsSkuStock skuStock = getOriginalPrice(promotionProduct, item.getProductSkuId());
+                        BigDecimal originalPrice = skuStock.getPrice();
+                        cartPromotionItem.setReduceAmount(originalPrice.subtract(ladder.getDiscount().multiply(originalPrice)));
+                        cartPromotionItem.setRealStock(skuStock.getStock() - skuStock.getLockStock());
+                        cartPromotionItemList.add(cartPromotionItem);
+                    }
+                } else if (promotionType == 4) {
+                    BigDecimal totalAmount = BigDecimal.ZERO;
+                    for (OmsCartItem item : itemList) {
+                        PmsSkuStock skuStock = getOriginalPrice(promotionProduct, item.getProductSkuId());
+                        totalAmount = totalAmount.add(skuStock.getPrice().multiply(new BigDecimal(item.getQuantity())));
+                    }
+                    PmsProductFullReduction fullReduction = null;
+                    promotionProduct.getProductFullReductionList().sort((o1, o2) -> o2.getFullPrice().subtract(o1.getFullPrice()).intValue());
+                    for (PmsProductFullReduction productFullReduction : promotionProduct.getProductFullReductionList()) {
+                        if (totalAmount.subtract(productFullReduction.getFullPrice()).intValue() >= 0) {
+                            fullReduction = productFullReduction;
+                            break;
+                        }
+                    }
+                    if (fullReduction == null) {
+                        handleNoReduce(cartPromotionItemList, itemList, promotionProduct);
+                        continue;
+                    }
+                    String message = "Full Reduction Promotion: Spend " + fullReduction.getFullPrice() + " and save " + fullReduction.getReducePrice();
+                    for (OmsCartItem item : itemList) {
+                        CartPromotionItem cartPromotionItem = copy(item, message, promotionProduct);
+                        PmsSkuStock skuStock = getOriginalPrice(promotionProduct, item.getProductSkuId());
+                        BigDecimal originalPrice = skuStock.getPrice();
+                        cartPromotionItem.setReduceAmount(originalPrice.divide(totalAmount, RoundingMode.HALF_EVEN).multiply(fullReduction.getReducePrice()));
+                        cartPromotionItem.setRealStock(skuStock.getStock() - skuStock.getLockStock());
+                        cartPromotionItemList.add(cartPromotionItem);
+                    }
+                } else {
+                    handleNoReduce(cartPromotionItemList, itemList, promotionProduct);
+                }
+            }
+            return cartPromotionItemList;
+        }
+
+        private static void handleNoReduce(List<CartPromotionItem> cartPromotionItemList, List<OmsCartItem> itemList, PromotionProduct promotionProduct) {
+            for (OmsCartItem item : itemList) {
+                CartPromotionItem cartPromotionItem = copy(item, "No Promotion", promotionProduct);
+                cartPromotionItem.setReduceAmount(BigDecimal.ZERO);
+                PmsSkuStock skuStock = getOriginalPrice(promotionProduct, item.getProductSkuId());
+                if (skuStock != null) {
+                    cartPromotionItem.setRealStock(skuStock.getStock() - skuStock.getLockStock());
+                }
+                cartPromotionItemList.add(cartPromotionItem);
+            }
+        }
+
+        private static CartPromotionItem copy(OmsCartItem item, String message, PromotionProduct promotionProduct) {
+            CartPromotionItem cartPromotionItem = new CartPromotionItem();
+            BeanUtils.copyProperties(item, cartPromotionItem);
+            cartPromotionItem.setPromotionMessage(message);
+            cartPromotionItem.setIntegration(promotionProduct.getGiftPoint());
+            cartPromotionItem.setGrowth(promotionProduct.getGiftGrowth());
+            return cartPromotionItem;
+        }
+
+        private static PmsSkuStock getOriginalPrice(PromotionProduct promotionProduct, Long productSkuId) {
+            for (PmsSkuStock skuStock : promotionProduct.getSkuStockList()) {
+                if (productSkuId.equals(skuStock.getId())) {
+                    return skuStock;
+                }
+            }
+            return null;
+        }
+
+        private static PromotionProduct getPromotionProductById(Long productId, List<PromotionProduct> promotionProductList) {
+            for (PromotionProduct promotionProduct : promotionProductList) {
+                if (productId.equals(promotionProduct.getId())) {
+                    return promotionProduct;
+                }
+            }
+            return null;
+        }
+    }
+}
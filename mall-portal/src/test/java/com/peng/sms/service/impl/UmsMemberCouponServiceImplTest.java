@@ -0,0 +1,217 @@
+package com.peng.sms.service.impl;
+
+import com.peng.sms.dao.SmsCouponHistoryDao;
+import com.peng.sms.domain.CartPromotionItem;
+import com.peng.sms.domain.SmsCouponHistoryDetail;
+import com.peng.sms.mapper.SmsCouponProductCategoryRelationMapper;
+import com.peng.sms.mapper.SmsCouponProductRelationMapper;
+import com.peng.sms.model.SmsCoupon;
+import com.peng.sms.model.SmsCouponProductCategoryRelation;
+import com.peng.sms.model.SmsCouponProductRelation;
+import com.peng.sms.service.RedisService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * Coupon eligibility from the cached member snapshot and the one-pass cart sums matches the former joined query
+ * with per-coupon cart scans, which is kept here as the reference
+ */
+public class UmsMemberCouponServiceImplTest {
+    private static final long MEMBER_ID = 1L;
+    private static final int COUPON_COUNT = 30;
+    private static final int PRODUCT_COUNT = 50;
+    private static final int CATEGORY_COUNT = 8;
+
+    private final List<SmsCoupon> couponList = new ArrayList<>();
+    private final List<SmsCouponProductRelation> productRelationList = new ArrayList<>();
+    private final List<SmsCouponProductCategoryRelation> categoryRelationList = new ArrayList<>();
+    private UmsMemberCouponServiceImpl memberCouponService;
+
+    @BeforeEach
+    public void setUp() {
+        Random random = new Random(7);
+        long now = System.currentTimeMillis();
+        for (long couponId = 1; couponId <= COUPON_COUNT; couponId++) {
+            SmsCoupon coupon = new SmsCoupon();
+            coupon.setId(couponId);
+            coupon.setName("coupon" + couponId);
+            coupon.setUseType((int) (couponId % 3));
+            coupon.setMinPoint(new BigDecimal(random.nextInt(3000)));
+            coupon.setAmount(new BigDecimal(10));
+            //部分优惠券已过期
+            coupon.setEndTime(new Date(now + (couponId % 7 == 0 ? -1 : 1) * 86400000L));
+            couponList.add(coupon);
+            if (coupon.getUseType() == 2) {
+                for (int i = 0; i < 1 + random.nextInt(4); i++) {
+                    SmsCouponProductRelation relation = new SmsCouponProductRelation();
+                    relation.setId((long) productRelationList.size() + 1);
+                    relation.setCouponId(couponId);
+                    relation.setProductId(1L + random.nextInt(PRODUCT_COUNT));
+                    relation.setProductName("product" + relation.getProductId());
+                    productRelationList.add(relation);
+                }
+            } else if (coupon.getUseType() == 1) {
+                for (int i = 0; i < 1 + random.nextInt(2); i++) {
+                    SmsCouponProductCategoryRelation relation = new SmsCouponProductCategoryRelation();
+                    relation.setId((long) categoryRelationList.size() + 1);
+                    relation.setCouponId(couponId);
+                    relation.setProductCategoryId(1L + random.nextInt(CATEGORY_COUNT));
+                    relation.setProductCategoryName("category" + relation.getProductCategoryId());
+                    categoryRelationList.add(relation);
+                }
+            }
+        }
+
+        SmsCouponHistoryDao couponHistoryDao = mock(SmsCouponHistoryDao.class);
+        when(couponHistoryDao.getUnusedCouponList(anyLong())).thenAnswer(invocation -> historyList(false));
+        SmsCouponProductRelationMapper couponProductRelationMapper = mock(SmsCouponProductRelationMapper.class);
+        when(couponProductRelationMapper.selectByExample(any())).thenReturn(productRelationList);
+        SmsCouponProductCategoryRelationMapper couponProductCategoryRelationMapper = mock(SmsCouponProductCategoryRelationMapper.class);
+        when(couponProductCategoryRelationMapper.selectByExample(any())).thenReturn(categoryRelationList);
+
+        memberCouponService = new UmsMemberCouponServiceImpl();
+        ReflectionTestUtils.setField(memberCouponService, "couponHistoryDao", couponHistoryDao);
+        ReflectionTestUtils.setField(memberCouponService, "couponProductRelationMapper", couponProductRelationMapper);
+        ReflectionTestUtils.setField(memberCouponService, "couponProductCategoryRelationMapper", couponProductCategoryRelationMapper);
+        ReflectionTestUtils.setField(memberCouponService, "redisService", mock(RedisService.class));
+        ReflectionTestUtils.setField(memberCouponService, "REDIS_DATABASE", "mall");
+        ReflectionTestUtils.setField(memberCouponService, "REDIS_KEY_MEMBER_COUPON", "sms:memberCoupon");
+        ReflectionTestUtils.setField(memberCouponService, "REDIS_EXPIRE", 300L);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 5, 20, 50, 100, 200})
+    public void sameCouponsAsJoinPath(int lines) {
+        List<CartPromotionItem> cartItemList = cart(lines, new Random(lines));
+
+        for (int type : new int[]{0, 1}) {
+            List<SmsCouponHistoryDetail> expected = JoinPath.listCart(historyList(true), cartItemList, type);
+            List<SmsCouponHistoryDetail> actual = memberCouponService.listCart(MEMBER_ID, cartItemList, type);
+
+            assertThat(actual).usingRecursiveComparison()
+                    .ignoringCollectionOrderInFieldsMatchingRegexes(".*RelationList")
+                    .isEqualTo(expected);
+        }
+    }
+
+    /**
+     * Two coupon histories per coupon, with the relation fields the joined query selected when joined
+     */
+    private List<SmsCouponHistoryDetail> historyList(boolean joined) {
+        List<SmsCouponHistoryDetail> result = new ArrayList<>();
+        for (SmsCoupon coupon : couponList) {
+            for (int i = 0; i < 2; i++) {
+                SmsCouponHistoryDetail detail = new SmsCouponHistoryDetail();
+                detail.setId(coupon.getId() * 10 + i);
+                detail.setCouponId(coupon.getId());
+                detail.setMemberId(MEMBER_ID);
+                detail.setUseStatus(0);
+                detail.setCoupon(coupon);
+                if (joined) {
+                    List<SmsCouponProductRelation> productRelations = new ArrayList<>();
+                    for (SmsCouponProductRelation relation : productRelationList) {
+                        if (relation.getCouponId().equals(coupon.getId())) {
+                            SmsCouponProductRelation selected = new SmsCouponProductRelation();
+                            selected.setId(relation.getId());
+                            selected.setProductId(relation.getProductId());
+                            productRelations.add(selected);
+                        }
+                    }
+                    List<SmsCouponProductCategoryRelation> categoryRelations = new ArrayList<>();
+                    for (SmsCouponProductCategoryRelation relation : categoryRelationList) {
+                        if (relation.getCouponId().equals(coupon.getId())) {
+                            SmsCouponProductCategoryRelation selected = new SmsCouponProductCategoryRelation();
+                            selected.setId(relation.getId());
+                            selected.setProductCategoryId(relation.getProductCategoryId());
+                            categoryRelations.add(selected);
+                        }
+                    }
+                    detail.setProductRelationList(productRelations);
+                    detail.setCategoryRelationList(categoryRelations);
+                }
+                result.add(detail);
+            }
+        }
+        return result;
+    }
+
+    private List<CartPromotionItem> cart(int lines, Random random) {
+        List<CartPromotionItem> cartItemList = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i++) {
+            CartPromotionItem item = new CartPromotionItem();
+            item.setId((long) i + 1);
+            item.setProductId(1L + random.nextInt(PRODUCT_COUNT));
+            item.setProductCategoryId(1L + item.getProductId() % CATEGORY_COUNT);
+            item.setQuantity(1 + random.nextInt(3));
+            item.setPrice(new BigDecimal(10 + random.nextInt(500)));
+            item.setReduceAmount(new BigDecimal(random.nextInt(10)));
+            cartItemList.add(item);
+        }
+        return cartItemList;
+    }
+
+    /**
+     * Eligibility as it was decided on the joined coupon histories
+     */
+    private static final class JoinPath {
+
+        static List<SmsCouponHistoryDetail> listCart(List<SmsCouponHistoryDetail> allList, List<CartPromotionItem> cartItemList, Integer type) {
+            Date now = new Date();
+            List<SmsCouponHistoryDetail> enableList = new ArrayList<>();
+            List<SmsCouponHistoryDetail> disableList = new ArrayList<>();
+            for (SmsCouponHistoryDetail couponHistoryDetail : allList) {
+                Integer useType = couponHistoryDetail.getCoupon().getUseType();
+                BigDecimal minPoint = couponHistoryDetail.getCoupon().getMinPoint();
+                Date endTime = couponHistoryDetail.getCoupon().getEndTime();
+                boolean enable;
+                if (useType.equals(0)) {
+                    BigDecimal totalAmount = calcTotalAmount(cartItemList, null, null);
+                    enable = now.before(endTime) && totalAmount.subtract(minPoint).intValue() >= 0;
+                } else if (useType.equals(1)) {
+                    List<Long> productCategoryIds = new ArrayList<>();
+                    for (SmsCouponProductCategoryRelation categoryRelation : couponHistoryDetail.getCategoryRelationList()) {
+                        productCategoryIds.add(categoryRelation.getProductCategoryId());
+                    }
+                    BigDecimal totalAmount = calcTotalAmount(cartItemList, productCategoryIds, null);
+                    enable = now.before(endTime) && totalAmount.intValue() > 0 && totalAmount.subtract(minPoint).intValue() >= 0;
+                } else if (useType.equals(2)) {
+                    List<Long> productIds = new ArrayList<>();
+                    for (SmsCouponProductRelation productRelation : couponHistoryDetail.getProductRelationList()) {
+                        productIds.add(productRelation.getProductId());
+                    }
+                    BigDecimal totalAmount = calcTotalAmount(cartItemList, null, productIds);
+                    enable = now.before(endTime) && totalAmount.intValue() > 0 && totalAmount.subtract(minPoint).intValue() >= 0;
+                } else {
+                    continue;
+                }
+                (enable ? enableList : disableList).add(couponHistoryDetail);
+            }
+            return type.equals(1) ? enableList : disableList;
+        }
+
+        private static BigDecimal calcTotalAmount(List<CartPromotionItem> cartItemList, List<Long> productCategoryIds, List<Long> productIds) {
+            BigDecimal total = BigDecimal.ZERO;
+            for (CartPromotionItem item : cartItemList) {
+                if (productCategoryIds != null && !productCategoryIds.contains(item.getProductCategoryId())) {
+                    continue;
+                }
+                if (productIds != null && !productIds.contains(item.getProductId())) {
+                    continue;
+                }
+                BigDecimal realPrice = item.getPrice().subtract(item.getReduceAmount());
+                total = total.add(realPrice.multiply(new BigDecimal(item.getQuantity())));
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.peng.sms.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeadlineJoinerTest {
+
+    @Test
+    public void completedPartsAreReturned() {
+        DeadlineJoiner joiner = new DeadlineJoiner("test", System.currentTimeMillis() + 1000);
+        assertEquals("value", joiner.join(CompletableFuture.completedFuture("value"), "part"));
+        assertFalse(joiner.isPartial());
+    }
+
+    @Test
+    public void failedPartIsNullAndMarksPartial() {
+        DeadlineJoiner joiner = new DeadlineJoiner("test", System.currentTimeMillis() + 1000);
+        CompletableFuture<String> future = new CompletableFuture<>();
+        future.completeExceptionally(new IllegalStateException("failed"));
+
+        assertNull(joiner.join(future, "part"));
+        assertTrue(joiner.isPartial());
+    }
+
+    @Test
+    public void partNotDoneByTheDeadlineIsCancelled() {
+        DeadlineJoiner joiner = new DeadlineJoiner("test", System.currentTimeMillis() + 20);
+        CompletableFuture<String> future = new CompletableFuture<>();
+
+        assertNull(joiner.join(future, "part"));
+        assertTrue(future.isCancelled());
+        assertTrue(joiner.isPartial());
+        //截止时间已过，已完成的步骤仍然返回结果
+        assertEquals("value", joiner.join(CompletableFuture.completedFuture("value"), "next"));
+    }
+}
@@ -0,0 +1,85 @@
+package com.peng.sms.util;
+
+import com.peng.sms.api.CommonPage;
+import com.peng.sms.domain.CursorRow;
+import com.peng.sms.exception.ApiException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PageCursorTest {
+
+    @Test
+    public void encodedCursorDecodesToTheSameValues() {
+        PageCursor cursor = PageCursor.decode(new PageCursor(7, 42L).encode());
+        assertEquals(7, cursor.getSort());
+        assertEquals(42L, cursor.getId());
+    }
+
+    @Test
+    public void cursorWithoutSortDecodesToNullSort() {
+        PageCursor cursor = PageCursor.decode(new PageCursor(null, 42L).encode());
+        assertNull(cursor.getSort());
+        assertEquals(42L, cursor.getId());
+    }
+
+    @Test
+    public void emptyTokenMeansFirstPage() {
+        assertNull(PageCursor.decode(null));
+        assertNull(PageCursor.decode(""));
+    }
+
+    @Test
+    public void invalidTokenIsRejected() {
+        assertThrows(ApiException.class, () -> PageCursor.decode("not-a-cursor"));
+    }
+
+    @Test
+    public void invalidPageSizeIsRejected() {
+        assertThrows(ApiException.class, () -> PageCursor.checkPageSize(null));
+        assertThrows(ApiException.class, () -> PageCursor.checkPageSize(0));
+        assertThrows(ApiException.class, () -> PageCursor.checkPageSize(-1));
+        assertThrows(ApiException.class, () -> PageCursor.checkPageSize(PageCursor.MAX_PAGE_SIZE + 1));
+        PageCursor.checkPageSize(1);
+        PageCursor.checkPageSize(PageCursor.MAX_PAGE_SIZE);
+    }
+
+    @Test
+    public void pageWithExtraRecordHasNextCursor() {
+        CommonPage<Long> page = PageCursor.page(Arrays.asList(5L, 4L, 3L), 2, id -> new PageCursor(null, id));
+        assertEquals(Arrays.asList(5L, 4L), page.getList());
+        assertEquals(4L, PageCursor.decode(page.getNextCursor()).getId());
+    }
+
+    @Test
+    public void lastPageHasNoNextCursor() {
+        CommonPage<Long> page = PageCursor.page(Arrays.asList(5L, 4L), 2, id -> new PageCursor(null, id));
+        assertEquals(Arrays.asList(5L, 4L), page.getList());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void rowPageCarriesSortOfTheLastRow() {
+        List<CursorRow<String>> rowList = new ArrayList<>();
+        rowList.add(row(10, 3L, "a"));
+        rowList.add(row(0, 9L, "b"));
+        rowList.add(row(0, 8L, "c"));
+        CommonPage<String> page = PageCursor.rowPage(rowList, 2);
+        assertEquals(Arrays.asList("a", "b"), page.getList());
+        PageCursor next = PageCursor.decode(page.getNextCursor());
+        assertEquals(0, next.getSort());
+        assertEquals(9L, next.getId());
+    }
+
+    private static CursorRow<String> row(Integer sort, Long id, String item) {
+        CursorRow<String> row = new CursorRow<>();
+        row.setSort(sort);
+        row.setId(id);
+        row.setItem(item);
+        return row;
+    }
+}